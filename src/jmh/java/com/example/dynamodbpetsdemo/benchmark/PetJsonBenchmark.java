@@ -0,0 +1,36 @@
+package com.example.dynamodbpetsdemo.benchmark;
+
+import com.example.dynamodbpetsdemo.entity.Pet;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+//Jackson round trip of a single Pet, the per-item cost of every JSON response and request body
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PetJsonBenchmark {
+
+    private ObjectMapper objectMapper;
+    private Pet pet;
+    private byte[] json;
+
+    @Setup
+    public void setUp() throws IOException {
+        objectMapper = new ObjectMapper();
+        pet = new Pet("6f1c2a8e-1d5b-4c1f-9d7e-4a0f5b1e2c3d", "LUCY", 6);
+        json = objectMapper.writeValueAsBytes(pet);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return objectMapper.writeValueAsBytes(pet);
+    }
+
+    @Benchmark
+    public Pet deserialize() throws IOException {
+        return objectMapper.readValue(json, Pet.class);
+    }
+}
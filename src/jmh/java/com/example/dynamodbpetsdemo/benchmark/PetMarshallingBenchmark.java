@@ -0,0 +1,39 @@
+package com.example.dynamodbpetsdemo.benchmark;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperTableModel;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.example.dynamodbpetsdemo.entity.Pet;
+import com.example.dynamodbpetsdemo.support.InMemoryAmazonDynamoDB;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+//DynamoDBMapper conversion between Pet and its attribute map, paid on every load, save and scanned item
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PetMarshallingBenchmark {
+
+    private DynamoDBMapperTableModel<Pet> tableModel;
+    private Pet pet;
+    private Map<String, AttributeValue> item;
+
+    @Setup
+    public void setUp() {
+        tableModel = new DynamoDBMapper(new InMemoryAmazonDynamoDB()).getTableModel(Pet.class);
+        pet = new Pet("6f1c2a8e-1d5b-4c1f-9d7e-4a0f5b1e2c3d", "LUCY", 6);
+        item = tableModel.convert(pet);
+    }
+
+    @Benchmark
+    public Map<String, AttributeValue> marshall() {
+        return tableModel.convert(pet);
+    }
+
+    @Benchmark
+    public Pet unmarshall() {
+        return tableModel.unconvert(item);
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.dynamodbpetsdemo.benchmark;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.ScanResultPage;
+import com.example.dynamodbpetsdemo.entity.Pet;
+import com.example.dynamodbpetsdemo.repository.PetRepo;
+import com.example.dynamodbpetsdemo.support.InMemoryAmazonDynamoDB;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+//PetRepo against the in-memory stand-in, so the numbers are the SDK and mapper overhead without the network
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PetRepoBenchmark {
+
+    private static final int PET_COUNT = 1000;
+
+    private ExecutorService executor;
+    private PetRepo petRepo;
+
+    @Setup
+    public void setUp() {
+        InMemoryAmazonDynamoDB client = new InMemoryAmazonDynamoDB().withTableFor(Pet.class);
+        executor = Executors.newFixedThreadPool(4);
+        petRepo = new PetRepo(new DynamoDBMapper(client), client, executor, 4);
+        for (int i = 0; i < PET_COUNT; i++) {
+            petRepo.save(new Pet("pet" + i, "PET" + i, i % 20));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private static String randomId() {
+        return "pet" + ThreadLocalRandom.current().nextInt(PET_COUNT);
+    }
+
+    @Benchmark
+    public Pet save() {
+        //overwrites an existing pet so the table size stays fixed between iterations
+        return petRepo.save(new Pet(randomId(), "BENCH", 3));
+    }
+
+    @Benchmark
+    public Pet findById() {
+        return petRepo.findById(randomId());
+    }
+
+    @Benchmark
+    public Pet update() {
+        String id = randomId();
+        return petRepo.update(id, new Pet(id, "UPDATED", 4));
+    }
+
+    @Benchmark
+    public ScanResultPage<Pet> findPage() {
+        return petRepo.findPage(100, null);
+    }
+
+    @Benchmark
+    public long parallelScan() {
+        try (Stream<Pet> pets = petRepo.parallelScan()) {
+            return pets.count();
+        }
+    }
+}
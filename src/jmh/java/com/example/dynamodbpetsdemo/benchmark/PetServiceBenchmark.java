@@ -0,0 +1,52 @@
+package com.example.dynamodbpetsdemo.benchmark;
+
+import com.example.dynamodbpetsdemo.archive.PetArchive;
+import com.example.dynamodbpetsdemo.entity.Pet;
+import com.example.dynamodbpetsdemo.repository.PetRepo;
+import com.example.dynamodbpetsdemo.service.PetCache;
+import com.example.dynamodbpetsdemo.service.PetLoadCoalescer;
+import com.example.dynamodbpetsdemo.service.PetService;
+import com.example.dynamodbpetsdemo.service.PetWriteBuffer;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+//getAllPets over an already loaded list written out as JSON, the way GET /pets responds, no DynamoDB
+//involved. dogAge is derived by each Pet while it is serialized, so this measures that along with Jackson.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PetServiceBenchmark {
+
+    @Param({"100", "10000"})
+    private int petCount;
+
+    private PetService petService;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Setup
+    public void setUp() {
+        List<Pet> pets = new ArrayList<>();
+        for (int i = 0; i < petCount; i++) {
+            pets.add(new Pet("pet" + i, "PET" + i, i % 20));
+        }
+
+        PetRepo petRepo = new PetRepo(null, null, null, 1) {
+            @Override
+            public List<Pet> findAll() {
+                return pets;
+            }
+        };
+        petService = new PetService(petRepo, PetCache.disabled(), PetWriteBuffer.disabled(),
+                PetLoadCoalescer.disabled(petRepo), PetArchive.none());
+    }
+
+    @Benchmark
+    public byte[] getAllPets() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(petService.getAllPets());
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.dynamodbpetsdemo.benchmark;
+
+import com.example.dynamodbpetsdemo.entity.Pet;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+//Encoding a GET /pets sized list in each format the controller can negotiate.
+//Bytes per pet, raw and gzipped, are printed once per trial since JMH only reports times.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PetWireFormatBenchmark {
+
+    private static final TypeReference<List<Pet>> PET_LIST = new TypeReference<List<Pet>>() {};
+
+    @Param({"json", "smile", "cbor"})
+    private String format;
+
+    @Param({"1000"})
+    private int petCount;
+
+    private ObjectMapper objectMapper;
+    private List<Pet> pets;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() throws IOException {
+        switch (format) {
+            case "smile":
+                objectMapper = new ObjectMapper(new SmileFactory());
+                break;
+            case "cbor":
+                objectMapper = new ObjectMapper(new CBORFactory());
+                break;
+            default:
+                objectMapper = new ObjectMapper();
+        }
+
+        pets = new ArrayList<>(petCount);
+        for (int i = 0; i < petCount; i++) {
+            Pet pet = new Pet(UUID.randomUUID().toString(), "PET" + i, i % 20);
+            pet.setVersion((long) (i % 5 + 1));
+            pets.add(pet);
+        }
+        encoded = objectMapper.writeValueAsBytes(pets);
+
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(gzipped)) {
+            gzip.write(encoded);
+        }
+        System.out.printf("%n%s: %.1f bytes per pet, %.1f gzipped%n", format,
+                (double) encoded.length / petCount, (double) gzipped.size() / petCount);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return objectMapper.writeValueAsBytes(pets);
+    }
+
+    @Benchmark
+    public List<Pet> deserialize() throws IOException {
+        return objectMapper.readValue(encoded, PET_LIST);
+    }
+}
@@ -0,0 +1,17 @@
+package com.example.dynamodbpetsdemo.loadtest;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.example.dynamodbpetsdemo.entity.Pet;
+import com.example.dynamodbpetsdemo.support.InMemoryAmazonDynamoDB;
+import org.springframework.context.annotation.Bean;
+
+//Swaps the application's DynamoDB client for the in-process stand-in, with the Pets table already created.
+//Deliberately not a @Configuration, so component scanning never picks it up. PetLoadTest registers it
+//as a source after the application, which makes this bean definition override DynamoDBConfig's.
+class InMemoryDynamoDBConfig {
+
+    @Bean
+    public AmazonDynamoDB amazonDynamoDb() {
+        return new InMemoryAmazonDynamoDB().withTableFor(Pet.class);
+    }
+}
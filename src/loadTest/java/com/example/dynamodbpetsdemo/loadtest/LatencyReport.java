@@ -0,0 +1,172 @@
+package com.example.dynamodbpetsdemo.loadtest;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.LongAdder;
+
+//Latency per operation in HdrHistograms, in microseconds. Latency is measured from when a request
+//was scheduled to go out, not from when it actually did, so a stalled server shows up in the
+//percentiles instead of just lowering the request rate (coordinated omission).
+class LatencyReport {
+
+    static final String SUMMARY_FILE = "summary.properties";
+
+    private static final double[] PERCENTILES = {50.0, 90.0, 99.0, 99.9};
+    private static final String[] PERCENTILE_KEYS = {"p50", "p90", "p99", "p99.9"};
+    private static final String HEADER_FORMAT = "%-8s %9s %9s %9s %9s %9s %9s %9s %9s%n";
+    private static final String ROW_FORMAT = "%-8s %9d %9d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n";
+
+    private final Map<PetOperation, Stats> stats = new EnumMap<>(PetOperation.class);
+    private volatile boolean measuring;
+
+    LatencyReport(Iterable<PetOperation> operations) {
+        for (PetOperation operation : operations) {
+            stats.put(operation, new Stats());
+        }
+    }
+
+    void record(PetOperation operation, long latencyNanos, boolean expected) {
+        Stats operationStats = stats.get(operation);
+        operationStats.recorder.recordValue(Math.max(1, latencyNanos / 1000));
+        if(measuring) {
+            (expected ? operationStats.ok : operationStats.errors).increment();
+        }
+    }
+
+    //everything recorded up to now was warmup and is thrown away
+    void startMeasuring() {
+        for (Stats operationStats : stats.values()) {
+            operationStats.recorder.getIntervalHistogram();
+        }
+        measuring = true;
+    }
+
+    //folds what was recorded since the last call into the totals and prints it as one line per operation
+    void interval(PrintStream out, double intervalSeconds) {
+        StringBuilder line = new StringBuilder(measuring ? "" : "[warmup] ");
+        for (Map.Entry<PetOperation, Stats> entry : stats.entrySet()) {
+            Stats operationStats = entry.getValue();
+            Histogram interval = operationStats.recorder.getIntervalHistogram(operationStats.interval);
+            operationStats.interval = interval;
+            if(measuring) {
+                operationStats.total.add(interval);
+            }
+            line.append(String.format(Locale.ROOT, "%s %.0f/s p99=%.2fms  ", entry.getKey().displayName(),
+                    interval.getTotalCount() / intervalSeconds, millis(interval.getValueAtPercentile(99.0))));
+        }
+        out.println(line.toString().trim());
+    }
+
+    void printSummary(PrintStream out, double seconds) {
+        out.printf(Locale.ROOT, HEADER_FORMAT, "op", "ok", "errors", "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (Map.Entry<PetOperation, Stats> entry : stats.entrySet()) {
+            Stats operationStats = entry.getValue();
+            Histogram total = operationStats.total;
+            out.printf(Locale.ROOT, ROW_FORMAT, entry.getKey().displayName(),
+                    operationStats.ok.sum(), operationStats.errors.sum(), total.getTotalCount() / seconds,
+                    millis(total.getValueAtPercentile(50.0)), millis(total.getValueAtPercentile(90.0)),
+                    millis(total.getValueAtPercentile(99.0)), millis(total.getValueAtPercentile(99.9)),
+                    millis(total.getMaxValue()));
+        }
+    }
+
+    //summary.properties for later comparisons, plus the full percentile distribution of every
+    //operation as <op>.hgrm, which HdrHistogram's plotter reads
+    void write(Path dir, double seconds) throws IOException {
+        Files.createDirectories(dir);
+        Properties summary = summary(seconds);
+        try (Writer writer = Files.newBufferedWriter(dir.resolve(SUMMARY_FILE), StandardCharsets.UTF_8)) {
+            summary.store(writer, "pet load test, latencies in ms");
+        }
+        try (PrintStream out = new PrintStream(Files.newOutputStream(dir.resolve("summary.txt")), true, "UTF-8")) {
+            printSummary(out, seconds);
+        }
+        for (Map.Entry<PetOperation, Stats> entry : stats.entrySet()) {
+            Path file = dir.resolve(entry.getKey().displayName() + ".hgrm");
+            try (PrintStream out = new PrintStream(Files.newOutputStream(file), true, "UTF-8")) {
+                entry.getValue().total.outputPercentileDistribution(out, 1000.0);
+            }
+        }
+    }
+
+    //prints p50 and p99 against the baseline run, returns the operations whose p99 got worse than maxRegression percent
+    List<String> compare(Path baselineFile, double maxRegression, double seconds, PrintStream out) throws IOException {
+        Properties baseline = new Properties();
+        try (Reader reader = Files.newBufferedReader(baselineFile, StandardCharsets.UTF_8)) {
+            baseline.load(reader);
+        }
+        Properties current = summary(seconds);
+        List<String> regressions = new ArrayList<>();
+        out.println("Compared to " + baselineFile + ":");
+        for (PetOperation operation : stats.keySet()) {
+            String prefix = operation.displayName() + ".";
+            if(baseline.getProperty(prefix + "p99") == null) {
+                out.println("  " + operation.displayName() + ": not in baseline");
+                continue;
+            }
+            StringBuilder line = new StringBuilder("  " + operation.displayName() + ":");
+            for (String metric : new String[] {"throughput", "p50", "p99"}) {
+                double before = Double.parseDouble(baseline.getProperty(prefix + metric));
+                double after = Double.parseDouble(current.getProperty(prefix + metric));
+                double change = change(before, after);
+                line.append(String.format(Locale.ROOT, " %s %.2f -> %.2f (%+.1f%%)", metric, before, after, change));
+                if(metric.equals("p99") && maxRegression >= 0 && change > maxRegression) {
+                    regressions.add(operation.displayName());
+                }
+            }
+            out.println(line);
+        }
+        return regressions;
+    }
+
+    private Properties summary(double seconds) {
+        Properties summary = new Properties();
+        for (Map.Entry<PetOperation, Stats> entry : stats.entrySet()) {
+            String prefix = entry.getKey().displayName() + ".";
+            Stats operationStats = entry.getValue();
+            Histogram total = operationStats.total;
+            summary.setProperty(prefix + "ok", Long.toString(operationStats.ok.sum()));
+            summary.setProperty(prefix + "errors", Long.toString(operationStats.errors.sum()));
+            summary.setProperty(prefix + "throughput", format(total.getTotalCount() / seconds));
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                summary.setProperty(prefix + PERCENTILE_KEYS[i], format(millis(total.getValueAtPercentile(PERCENTILES[i]))));
+            }
+            summary.setProperty(prefix + "max", format(millis(total.getMaxValue())));
+        }
+        return summary;
+    }
+
+    private static double change(double before, double after) {
+        return before == 0 ? 0 : (after - before) * 100 / before;
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.2f", value);
+    }
+
+    private static class Stats {
+        private final Recorder recorder = new Recorder(3);
+        private final Histogram total = new Histogram(3);
+        private Histogram interval;
+        private final LongAdder ok = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+    }
+}
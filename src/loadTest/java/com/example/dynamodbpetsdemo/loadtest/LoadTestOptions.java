@@ -0,0 +1,98 @@
+package com.example.dynamodbpetsdemo.loadtest;
+
+import org.springframework.boot.convert.DurationStyle;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+
+//Everything is a loadTest.* system property, ./gradlew loadTest forwards -PloadTest.* to them.
+//Durations use the same format as application.properties (500ms, 30s, 2m).
+class LoadTestOptions {
+
+    static final String PREFIX = "loadTest.";
+
+    //base url of a running app, when empty the app is started in-process on a random port
+    final String target;
+    //memory: in-process DynamoDB stand-in, endpoint: aws.dynamodb.endpoint (e.g. DynamoDB Local)
+    final String dynamodb;
+    final int rps;
+    final Duration warmup;
+    final Duration duration;
+    final Map<PetOperation, Integer> mix;
+    //pets created before the run starts, so reads, updates and deletes have something to hit
+    final int seedPets;
+    final int maxInFlight;
+    final Duration reportInterval;
+    final Path reportDir;
+    //summary.properties of an earlier run to compare against
+    final Path baseline;
+    //p99 increase over the baseline, in percent, that fails the run. Negative disables the check
+    final double maxRegression;
+
+    private LoadTestOptions() {
+        target = property("target", "");
+        dynamodb = property("dynamodb", "memory");
+        rps = Integer.parseInt(property("rps", "200"));
+        warmup = DurationStyle.detectAndParse(property("warmup", "10s"));
+        duration = DurationStyle.detectAndParse(property("duration", "60s"));
+        mix = parseMix(property("mix", "read=60,create=15,update=15,delete=5,page=5"));
+        seedPets = Integer.parseInt(property("seedPets", "1000"));
+        maxInFlight = Integer.parseInt(property("maxInFlight", "256"));
+        reportInterval = DurationStyle.detectAndParse(property("reportInterval", "5s"));
+        reportDir = Paths.get(property("reportDir", "build/reports/loadTest"));
+        String baselineFile = property("baseline", "");
+        baseline = baselineFile.isEmpty() ? null : Paths.get(baselineFile);
+        maxRegression = Double.parseDouble(property("maxRegression", "-1"));
+
+        if(rps <= 0 || maxInFlight <= 0 || seedPets < 0) {
+            throw new IllegalArgumentException("rps and maxInFlight must be positive, seedPets not negative");
+        }
+        if(!dynamodb.equals("memory") && !dynamodb.equals("endpoint")) {
+            throw new IllegalArgumentException("loadTest.dynamodb must be memory or endpoint, was " + dynamodb);
+        }
+    }
+
+    static LoadTestOptions fromSystemProperties() {
+        return new LoadTestOptions();
+    }
+
+    boolean isEmbedded() {
+        return target.isEmpty();
+    }
+
+    //read=60,create=20 -> weights per operation, operations that aren't listed never run
+    static Map<PetOperation, Integer> parseMix(String mix) {
+        Map<PetOperation, Integer> weights = new EnumMap<>(PetOperation.class);
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.trim().split("=");
+            if(parts.length != 2) {
+                throw new IllegalArgumentException("Invalid mix entry: " + entry);
+            }
+            int weight = Integer.parseInt(parts[1].trim());
+            if(weight < 0) {
+                throw new IllegalArgumentException("Negative weight in mix entry: " + entry);
+            }
+            if(weight > 0) {
+                weights.put(PetOperation.fromName(parts[0].trim()), weight);
+            }
+        }
+        if(weights.isEmpty()) {
+            throw new IllegalArgumentException("Mix has no operations: " + mix);
+        }
+        return weights;
+    }
+
+    private static String property(String name, String defaultValue) {
+        return System.getProperty(PREFIX + name, defaultValue).trim();
+    }
+
+    @Override
+    public String toString() {
+        return "target=" + (isEmbedded() ? "embedded, dynamodb=" + dynamodb : target)
+                + " rps=" + rps + " warmup=" + warmup + " duration=" + duration
+                + " mix=" + mix + " seedPets=" + seedPets + " maxInFlight=" + maxInFlight;
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.dynamodbpetsdemo.loadtest;
+
+import com.example.dynamodbpetsdemo.DynamodbPetsDemoApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+//Open-model load test of the /pets endpoints: requests go out at a fixed rate whatever the latency,
+//picked from a weighted mix of operations. Without loadTest.target the application is started
+//in-process on a random port, against the in-memory DynamoDB stand-in unless loadTest.dynamodb=endpoint.
+//
+//./gradlew loadTest -PloadTest.rps=500 -PloadTest.duration=2m -PloadTest.baseline=baseline/summary.properties
+//
+//Exits with 1 when a p99 regressed more than loadTest.maxRegression percent over the baseline.
+public class PetLoadTest {
+
+    public static void main(String[] args) throws Exception {
+        LoadTestOptions options = LoadTestOptions.fromSystemProperties();
+        System.out.println("Load test: " + options);
+
+        ConfigurableApplicationContext context = options.isEmbedded() ? startApplication(options) : null;
+        int exitCode;
+        try {
+            String baseUrl = context != null
+                    ? "http://localhost:" + ((WebServerApplicationContext) context).getWebServer().getPort()
+                    : options.target;
+            exitCode = run(options, baseUrl);
+        } finally {
+            if(context != null) {
+                context.close();
+            }
+        }
+        System.exit(exitCode);
+    }
+
+    private static ConfigurableApplicationContext startApplication(LoadTestOptions options) {
+        SpringApplicationBuilder builder = options.dynamodb.equals("memory")
+                ? new SpringApplicationBuilder(DynamodbPetsDemoApplication.class, InMemoryDynamoDBConfig.class)
+                : new SpringApplicationBuilder(DynamodbPetsDemoApplication.class);
+        return builder
+                .properties("server.port=0", "spring.main.allow-bean-definition-overriding=true")
+                .run();
+    }
+
+    private static int run(LoadTestOptions options, String baseUrl) throws Exception {
+        ExecutorService httpExecutor = Executors.newFixedThreadPool(
+                Math.max(4, Runtime.getRuntime().availableProcessors()));
+        HttpClient httpClient = HttpClient.newBuilder()
+                .executor(httpExecutor)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        try {
+            PetWorkload workload = new PetWorkload(httpClient, baseUrl, options.mix);
+            seed(workload, options);
+            System.out.println("Seeded " + workload.knownPets() + " pets");
+
+            LatencyReport report = new LatencyReport(options.mix.keySet());
+            drive(workload, report, options);
+            double seconds = options.duration.toNanos() / 1e9;
+
+            System.out.println();
+            report.printSummary(System.out, seconds);
+            report.write(options.reportDir, seconds);
+            System.out.println("Report written to " + options.reportDir.toAbsolutePath());
+
+            if(options.baseline != null) {
+                List<String> regressions = report.compare(options.baseline, options.maxRegression, seconds, System.out);
+                if(!regressions.isEmpty()) {
+                    System.out.println("p99 regressed by more than " + options.maxRegression + "% for " + regressions);
+                    return 1;
+                }
+            }
+            return 0;
+        } finally {
+            httpExecutor.shutdownNow();
+        }
+    }
+
+    //not measured, just enough pets for the other operations to work on
+    private static void seed(PetWorkload workload, LoadTestOptions options) {
+        Semaphore inFlight = new Semaphore(options.maxInFlight);
+        List<CompletableFuture<Integer>> pending = new ArrayList<>(options.seedPets);
+        for (int i = 0; i < options.seedPets; i++) {
+            inFlight.acquireUninterruptibly();
+            pending.add(workload.send(PetOperation.CREATE).whenComplete((status, error) -> inFlight.release()));
+        }
+        CompletableFuture.allOf(pending.toArray(new CompletableFuture[0])).join();
+    }
+
+    private static void drive(PetWorkload workload, LatencyReport report, LoadTestOptions options) {
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / options.rps;
+        long reportNanos = options.reportInterval.toNanos();
+        long start = System.nanoTime();
+        long measureAt = start + options.warmup.toNanos();
+        long end = measureAt + options.duration.toNanos();
+        long nextReport = start + reportNanos;
+        boolean measuring = false;
+        Semaphore inFlight = new Semaphore(options.maxInFlight);
+
+        for (long i = 0; ; i++) {
+            long scheduled = start + i * intervalNanos;
+            if(scheduled >= end) {
+                break;
+            }
+            if(!measuring && scheduled >= measureAt) {
+                report.startMeasuring();
+                measuring = true;
+                nextReport = scheduled + reportNanos;
+            }
+            if(scheduled >= nextReport) {
+                report.interval(System.out, reportNanos / 1e9);
+                nextReport += reportNanos;
+            }
+
+            long wait = scheduled - System.nanoTime();
+            if(wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            //waiting here delays the send but not the clock latency is measured against
+            inFlight.acquireUninterruptibly();
+            PetOperation operation = workload.nextOperation();
+            CompletableFuture<Integer> response;
+            try {
+                response = workload.send(operation);
+            } catch(RuntimeException e) {
+                response = CompletableFuture.failedFuture(e);
+            }
+            response.whenComplete((status, error) -> {
+                report.record(operation, System.nanoTime() - scheduled, error == null && PetWorkload.isExpected(status));
+                inFlight.release();
+            });
+        }
+
+        //let the last requests finish so they are counted
+        inFlight.acquireUninterruptibly(options.maxInFlight);
+        report.interval(System.out, reportNanos / 1e9);
+    }
+}
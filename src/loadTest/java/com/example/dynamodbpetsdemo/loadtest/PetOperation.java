@@ -0,0 +1,29 @@
+package com.example.dynamodbpetsdemo.loadtest;
+
+import java.util.Locale;
+
+//The requests a load test mixes, named as they appear in loadTest.mix
+enum PetOperation {
+    //POST /pets
+    CREATE,
+    //GET /pets/{id}
+    READ,
+    //PUT /pets/update/{id}
+    UPDATE,
+    //DELETE /pets/delete/{id}
+    DELETE,
+    //GET /pets?limit=50
+    PAGE;
+
+    String displayName() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    static PetOperation fromName(String name) {
+        try {
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        } catch(IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown operation in mix: " + name);
+        }
+    }
+}
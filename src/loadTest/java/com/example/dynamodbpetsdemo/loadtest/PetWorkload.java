@@ -0,0 +1,155 @@
+package com.example.dynamodbpetsdemo.loadtest;
+
+import com.example.dynamodbpetsdemo.entity.Pet;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+//Turns an operation into an HTTP request against /pets and keeps track of the ids that exist,
+//so reads, updates and deletes mostly hit real pets. Under concurrent deletes some of them won't,
+//which is why 404 counts as an expected outcome rather than an error.
+class PetWorkload {
+
+    private static final int PAGE_SIZE = 50;
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+    private final HttpClient httpClient;
+    private final String baseUrl;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final PetOperation[] operations;
+    private final int[] cumulativeWeights;
+    private final List<String> ids = new ArrayList<>();
+    private final AtomicLong created = new AtomicLong();
+
+    PetWorkload(HttpClient httpClient, String baseUrl, Map<PetOperation, Integer> mix) {
+        this.httpClient = httpClient;
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        operations = mix.keySet().toArray(new PetOperation[0]);
+        cumulativeWeights = new int[operations.length];
+        int total = 0;
+        for (int i = 0; i < operations.length; i++) {
+            total += mix.get(operations[i]);
+            cumulativeWeights[i] = total;
+        }
+    }
+
+    PetOperation nextOperation() {
+        int pick = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if(pick < cumulativeWeights[i]) {
+                return operations[i];
+            }
+        }
+        return operations[operations.length - 1];
+    }
+
+    int knownPets() {
+        synchronized (ids) {
+            return ids.size();
+        }
+    }
+
+    //completes with the status code, exceptionally when the request itself failed
+    CompletableFuture<Integer> send(PetOperation operation) {
+        switch (operation) {
+            case CREATE:
+                return send(post("/pets", newPet())).thenApply(this::rememberCreated);
+            case READ:
+                return send(HttpRequest.newBuilder(uri("/pets/" + randomId())).GET()).thenApply(HttpResponse::statusCode);
+            case UPDATE:
+                return send(put("/pets/update/" + randomId(), newPet())).thenApply(HttpResponse::statusCode);
+            case DELETE:
+                return send(HttpRequest.newBuilder(uri("/pets/delete/" + takeId())).DELETE()).thenApply(HttpResponse::statusCode);
+            case PAGE:
+                return send(HttpRequest.newBuilder(uri("/pets?limit=" + PAGE_SIZE)).GET()).thenApply(HttpResponse::statusCode);
+            default:
+                throw new IllegalArgumentException("Unsupported operation: " + operation);
+        }
+    }
+
+    static boolean isExpected(int status) {
+        return (status >= 200 && status < 300) || status == 304 || status == 404;
+    }
+
+    private CompletableFuture<HttpResponse<String>> send(HttpRequest.Builder request) {
+        return httpClient.sendAsync(request.timeout(REQUEST_TIMEOUT).build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private int rememberCreated(HttpResponse<String> response) {
+        //a write-behind 202 has no id yet, so only pets that are already stored join the pool
+        if(response.statusCode() == 200) {
+            try {
+                Pet pet = objectMapper.readValue(response.body(), Pet.class);
+                if(pet.getId() != null) {
+                    synchronized (ids) {
+                        ids.add(pet.getId());
+                    }
+                }
+            } catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return response.statusCode();
+    }
+
+    //ids that were never handed out just miss, the same as a pet deleted a moment earlier
+    private String randomId() {
+        synchronized (ids) {
+            if(ids.isEmpty()) {
+                return "missing";
+            }
+            return ids.get(ThreadLocalRandom.current().nextInt(ids.size()));
+        }
+    }
+
+    private String takeId() {
+        synchronized (ids) {
+            if(ids.isEmpty()) {
+                return "missing";
+            }
+            //swap with the last one so removal stays O(1)
+            int index = ThreadLocalRandom.current().nextInt(ids.size());
+            String id = ids.get(index);
+            ids.set(index, ids.get(ids.size() - 1));
+            ids.remove(ids.size() - 1);
+            return id;
+        }
+    }
+
+    private byte[] newPet() {
+        long n = created.incrementAndGet();
+        try {
+            return objectMapper.writeValueAsBytes(new Pet(null, "LOAD" + n, (int) (n % 20)));
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private HttpRequest.Builder post(String path, byte[] body) {
+        return HttpRequest.newBuilder(uri(path))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body));
+    }
+
+    private HttpRequest.Builder put(String path, byte[] body) {
+        return HttpRequest.newBuilder(uri(path))
+                .header("Content-Type", "application/json")
+                .PUT(HttpRequest.BodyPublishers.ofByteArray(body));
+    }
+
+    private URI uri(String path) {
+        return URI.create(baseUrl + path);
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.dynamodbpetsdemo.archive;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeDefinition;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BillingMode;
+import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
+import com.amazonaws.services.dynamodbv2.model.KeyType;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.ScalarAttributeType;
+import com.example.dynamodbpetsdemo.entity.Pet;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+//Archive table with hash key id and the pet as a gzipped binary attribute, so it isn't scanned by anything
+//on the hot path and stays cheap to store. A pet's expiresAt is copied over, with TTL enabled on the
+//archive table too a pet that was meant to expire is still dropped once it has been archived.
+public class DynamoDBPetArchive implements PetArchive {
+
+    static final String ID = "id";
+    static final String PET = "pet";
+    static final String ARCHIVED_AT = "archivedAt";
+    static final String EXPIRES_AT = "expiresAt";
+
+    private final AmazonDynamoDB amazonDynamoDB;
+    private final String tableName;
+
+    public DynamoDBPetArchive(AmazonDynamoDB client, String tableName) {
+        amazonDynamoDB = client;
+        this.tableName = tableName;
+    }
+
+    public static CreateTableRequest createTableRequest(String tableName) {
+        return new CreateTableRequest()
+                .withTableName(tableName)
+                .withKeySchema(new KeySchemaElement(ID, KeyType.HASH))
+                .withAttributeDefinitions(new AttributeDefinition(ID, ScalarAttributeType.S))
+                .withBillingMode(BillingMode.PAY_PER_REQUEST);
+    }
+
+    @Override
+    public Pet find(String id) {
+        Map<String, AttributeValue> item = amazonDynamoDB.getItem(new GetItemRequest()
+                .withTableName(tableName)
+                .withKey(key(id))).getItem();
+        if(item == null || item.get(PET) == null) {
+            return null;
+        }
+        ByteBuffer data = item.get(PET).getB();
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        return PetArchiveCodec.decode(bytes);
+    }
+
+    @Override
+    public void put(Pet pet) {
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put(ID, new AttributeValue().withS(pet.getId()));
+        item.put(PET, new AttributeValue().withB(ByteBuffer.wrap(PetArchiveCodec.encode(pet))));
+        item.put(ARCHIVED_AT, new AttributeValue().withN(Long.toString(System.currentTimeMillis())));
+        if(pet.getExpiresAt() != null) {
+            item.put(EXPIRES_AT, new AttributeValue().withN(pet.getExpiresAt().toString()));
+        }
+        amazonDynamoDB.putItem(new PutItemRequest().withTableName(tableName).withItem(item));
+    }
+
+    @Override
+    public void delete(String id) {
+        amazonDynamoDB.deleteItem(new DeleteItemRequest().withTableName(tableName).withKey(key(id)));
+    }
+
+    private static Map<String, AttributeValue> key(String id) {
+        return Collections.singletonMap(ID, new AttributeValue().withS(id));
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.dynamodbpetsdemo.archive;
+
+import com.example.dynamodbpetsdemo.entity.Pet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Base64;
+
+//One gzipped JSON file per pet in a local directory, for a single node or a directory on shared storage.
+//File names are the URL-safe Base64 of the id, so any id makes a valid name.
+public class FilePetArchive implements PetArchive {
+
+    private final Path directory;
+
+    public FilePetArchive(Path directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public Pet find(String id) {
+        try (InputStream in = Files.newInputStream(file(id))) {
+            return PetArchiveCodec.decode(in);
+        } catch(NoSuchFileException e) {
+            return null;
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    //written next to the target and moved over it, so a reader never sees half a pet
+    @Override
+    public void put(Pet pet) {
+        try {
+            Files.createDirectories(directory);
+            Path file = file(pet.getId());
+            Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            try {
+                Files.write(temp, PetArchiveCodec.encode(pet));
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void delete(String id) {
+        try {
+            Files.deleteIfExists(file(id));
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Path file(String id) {
+        String name = Base64.getUrlEncoder().withoutPadding().encodeToString(id.getBytes(StandardCharsets.UTF_8));
+        return directory.resolve(name + ".json.gz");
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.dynamodbpetsdemo.archive;
+
+import com.example.dynamodbpetsdemo.entity.Pet;
+
+//Where PetArchiver moves pets nobody wrote to for a while, and where findPetById looks when the
+//Pets table doesn't have the id. Chosen with pets.archive.store=none|table|file.
+public interface PetArchive {
+
+    //null when the pet was never archived
+    Pet find(String id);
+
+    void put(Pet pet);
+
+    void delete(String id);
+
+    default boolean isEnabled() {
+        return true;
+    }
+
+    //keeps nothing: put and delete are no-ops and find never finds anything
+    static PetArchive none() {
+        return new PetArchive() {
+            @Override
+            public Pet find(String id) {
+                return null;
+            }
+
+            @Override
+            public void put(Pet pet) {
+            }
+
+            @Override
+            public void delete(String id) {
+            }
+
+            @Override
+            public boolean isEnabled() {
+                return false;
+            }
+        };
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.dynamodbpetsdemo.archive;
+
+import com.example.dynamodbpetsdemo.entity.Pet;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+//Archived pets are gzipped JSON, a few hundred bytes become well under the 1KB a table write unit covers.
+final class PetArchiveCodec {
+
+    //unlike request bodies, the archived updatedAt has to be read back
+    @JsonIgnoreProperties(value = "dogAge", allowGetters = true)
+    private abstract static class ArchivedPet {
+    }
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper().addMixIn(Pet.class, ArchivedPet.class);
+
+    private PetArchiveCodec() {
+    }
+
+    static byte[] encode(Pet pet) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            OBJECT_MAPPER.writeValue(out, pet);
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static Pet decode(byte[] bytes) {
+        return decode(new ByteArrayInputStream(bytes));
+    }
+
+    static Pet decode(InputStream compressed) {
+        try (InputStream in = new GZIPInputStream(compressed)) {
+            return OBJECT_MAPPER.readValue(in, Pet.class);
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
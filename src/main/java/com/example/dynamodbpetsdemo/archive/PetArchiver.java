@@ -0,0 +1,192 @@
+package com.example.dynamodbpetsdemo.archive;
+
+import com.example.dynamodbpetsdemo.entity.Pet;
+import com.example.dynamodbpetsdemo.repository.PetRepo;
+import com.example.dynamodbpetsdemo.service.PetCache;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+
+//Moves pets that haven't been written for pets.archive.inactiveAfter out of the Pets table into the
+//PetArchive, every pets.archive.interval, so scans and the table size follow the live pets only.
+//Enabled with pets.archive.enabled=true and a pets.archive.store; with store=none it logs that and doesn't run.
+//
+//Inactive means not written: reads don't move updatedAt, so a pet that is read all the time but never
+//written is archived like any other. findPetById still finds it, one extra archive lookup after the
+//table misses. Tracking reads would cost a write per read and defeat the cache.
+//
+//The scan only reads id, updatedAt and expiresAt; candidates are then loaded in batches, archived, and
+//deleted on condition that updatedAt didn't move. A pet written in between stays in the table and its
+//archived copy is dropped again, so several nodes running the archiver at once is safe, just wasteful.
+//Pets from before updatedAt existed are stamped with the time they were first seen instead of archived.
+//Expired pets are left to the table's TTL.
+// pets.archive.pets   outcome=archived|kept|stamped
+@Component
+@ConditionalOnProperty(name = "pets.archive.enabled", havingValue = "true")
+public class PetArchiver implements MeterBinder {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PetArchiver.class);
+
+    private static final List<String> SCAN_ATTRIBUTES = List.of("id", PetRepo.UPDATED_AT, "expiresAt");
+
+    private final PetRepo petRepo;
+    private final PetCache petCache;
+    private final PetArchive petArchive;
+    private final Duration inactiveAfter;
+    private final long intervalMillis;
+    private final LongSupplier clock;
+
+    private final LongAdder archived = new LongAdder();
+    private final LongAdder kept = new LongAdder();
+    private final LongAdder stamped = new LongAdder();
+
+    private volatile boolean running;
+    private Thread worker;
+
+    @Autowired
+    public PetArchiver(PetRepo repo,
+                       PetCache cache,
+                       PetArchive archive,
+                       @Value("${pets.archive.inactiveAfter:90d}") Duration inactiveAfter,
+                       @Value("${pets.archive.interval:1h}") Duration interval) {
+        this(repo, cache, archive, inactiveAfter, interval, System::currentTimeMillis);
+    }
+
+    PetArchiver(PetRepo repo, PetCache cache, PetArchive archive, Duration inactiveAfter, Duration interval,
+                LongSupplier clock) {
+        petRepo = repo;
+        petCache = cache;
+        petArchive = archive;
+        this.inactiveAfter = inactiveAfter;
+        this.intervalMillis = interval.toMillis();
+        this.clock = clock;
+    }
+
+    @PostConstruct
+    public void start() {
+        if(!petArchive.isEnabled()) {
+            LOGGER.warn("pets.archive.enabled is set but pets.archive.store is none, no pets will be archived");
+            return;
+        }
+        running = true;
+        worker = new Thread(this::archiveLoop, "pet-archiver");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if(worker == null) {
+            return;
+        }
+        running = false;
+        worker.interrupt();
+        worker.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    private void archiveLoop() {
+        while(running) {
+            try {
+                int count = archiveInactive();
+                LOGGER.info("Archived {} pets not written since {} ago", count, inactiveAfter);
+            } catch(RuntimeException e) {
+                if(!running) {
+                    break;
+                }
+                LOGGER.warn("Pet archiving failed, retrying in {} ms", intervalMillis, e);
+            }
+            try {
+                Thread.sleep(intervalMillis);
+            } catch(InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    //one pass over the table, returns how many pets were archived
+    public int archiveInactive() {
+        if(!petArchive.isEnabled()) {
+            //nowhere to put them
+            return 0;
+        }
+        long now = clock.getAsLong();
+        long cutoff = now - inactiveAfter.toMillis();
+        int count = 0;
+        List<String> candidates = new ArrayList<>();
+        try (Stream<Pet> pets = petRepo.parallelScan(SCAN_ATTRIBUTES)) {
+            Iterator<Pet> iterator = pets.iterator();
+            while(iterator.hasNext()) {
+                Pet pet = iterator.next();
+                if(pet.isExpiredAt(now / 1000)) {
+                    continue;
+                }
+                if(pet.getUpdatedAt() == null) {
+                    if(petRepo.stampUpdatedAt(pet.getId(), now)) {
+                        stamped.increment();
+                    }
+                } else if(pet.getUpdatedAt() < cutoff) {
+                    candidates.add(pet.getId());
+                    if(candidates.size() == PetRepo.MAX_BATCH_GET_ITEMS) {
+                        count += archive(candidates, cutoff, now);
+                        candidates.clear();
+                    }
+                }
+            }
+        }
+        if(!candidates.isEmpty()) {
+            count += archive(candidates, cutoff, now);
+        }
+        return count;
+    }
+
+    private int archive(List<String> ids, long cutoff, long now) {
+        int count = 0;
+        for (Pet pet : petRepo.batchLoad(ids).values()) {
+            //written or expired since the scan read it
+            if(pet.getUpdatedAt() == null || pet.getUpdatedAt() >= cutoff || pet.isExpiredAt(now / 1000)) {
+                continue;
+            }
+            petArchive.put(pet);
+            if(petRepo.deleteIfNotUpdatedSince(pet.getId(), pet.getUpdatedAt())) {
+                petCache.invalidate(pet.getId());
+                archived.increment();
+                count++;
+            } else {
+                //written or deleted in the meantime, the table has the last word
+                petArchive.delete(pet.getId());
+                kept.increment();
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("pets.archive.pets", archived, LongAdder::sum)
+                .tag("outcome", "archived")
+                .register(registry);
+        FunctionCounter.builder("pets.archive.pets", kept, LongAdder::sum)
+                .tag("outcome", "kept")
+                .register(registry);
+        FunctionCounter.builder("pets.archive.pets", stamped, LongAdder::sum)
+                .tag("outcome", "stamped")
+                .register(registry);
+    }
+}
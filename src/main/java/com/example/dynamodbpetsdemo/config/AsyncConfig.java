@@ -0,0 +1,34 @@
+package com.example.dynamodbpetsdemo.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+//Only loaded with pets.async.enabled=true. DynamoDB calls for /async/pets run on this pool
+//and the servlet thread is handed back to Tomcat while they are in flight.
+//The calls still block, one pool thread per call, so by default there is a thread for every connection
+//the DynamoDB client may open; more would only wait for a connection. The pool is only used by
+//AsyncPetController, streamed responses (/pets/stream, exports) keep Spring MVC's own async executor.
+@Configuration
+@ConditionalOnProperty(name = "pets.async.enabled", havingValue = "true")
+public class AsyncConfig {
+
+    @Value("${pets.async.threads:${aws.dynamodb.client.maxConnections:200}}")
+    private int threads;
+
+    @Value("${pets.async.queueCapacity:1000}")
+    private int queueCapacity;
+
+    @Bean
+    public ThreadPoolTaskExecutor petAsyncExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("pet-async-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        return executor;
+    }
+}
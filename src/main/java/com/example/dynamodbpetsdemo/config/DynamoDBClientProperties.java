@@ -0,0 +1,40 @@
+package com.example.dynamodbpetsdemo.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+//Bound from aws.dynamodb.client.*, defaults are sized for a busy node rather than the SDK's own defaults.
+@Data
+@ConfigurationProperties(prefix = "aws.dynamodb.client")
+public class DynamoDBClientProperties {
+
+    private int maxConnections = 200;
+
+    //negative means connections live until they are closed by either side
+    private Duration connectionTtl = Duration.ofMinutes(5);
+    private Duration connectionMaxIdle = Duration.ofSeconds(60);
+    private Duration connectionTimeout = Duration.ofSeconds(2);
+    private Duration socketTimeout = Duration.ofSeconds(5);
+
+    //zero disables the timeout
+    private Duration requestTimeout = Duration.ofSeconds(3);
+    private Duration clientExecutionTimeout = Duration.ofSeconds(10);
+
+    private boolean tcpKeepAlive = true;
+    private boolean gzip = false;
+
+    private Retry retry = new Retry();
+
+    @Data
+    public static class Retry {
+        private int maxRetries = 10;
+
+        //full jitter: each retry sleeps a random time between 0 and min(maxBackoff, baseDelay * 2^attempt)
+        private Duration baseDelay = Duration.ofMillis(25);
+        private Duration maxBackoff = Duration.ofSeconds(2);
+
+        private boolean throttledRetries = true;
+    }
+}
@@ -1,18 +1,40 @@
 package com.example.dynamodbpetsdemo.config;
 
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.auth.AWSStaticCredentialsProvider;
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.metrics.RequestMetricCollector;
+import com.amazonaws.retry.PredefinedBackoffStrategies;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.retry.RetryPolicy;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBStreams;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBStreamsClientBuilder;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
+import com.example.dynamodbpetsdemo.metrics.DynamoDBMetrics;
+import com.example.dynamodbpetsdemo.ratelimit.DynamoDBRateLimiter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
 @Configuration
+@EnableConfigurationProperties({DynamoDBClientProperties.class, DynamoDBRateLimitProperties.class})
 public class DynamoDBConfig {
 
     @Value("${aws.dynamodb.endpoint}")
@@ -25,18 +47,126 @@ public class DynamoDBConfig {
     @Value("${aws.dynamodb.signingRegion}")
     private String signingRegion;
 
+    @Value("${aws.dynamodb.scan.workers:8}")
+    private int scanWorkers;
+
+    @Value("${aws.dynamodb.batch.maxRetries:8}")
+    private int batchMaxRetries;
+
+    @Autowired
+    private DynamoDBClientProperties clientProperties;
+
+    @Autowired
+    private DynamoDBRateLimitProperties rateLimitProperties;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
     @Bean
     public DynamoDBMapper dynamoDBMapper() {
-        return new DynamoDBMapper(amazonDynamoDb());
+        //unprocessed batch items are retried with exponential backoff, then reported back as failed
+        DynamoDBMapperConfig mapperConfig = DynamoDBMapperConfig.builder()
+                .withBatchWriteRetryStrategy(new DynamoDBMapperConfig.DefaultBatchWriteRetryStrategy(batchMaxRetries))
+                .build();
+        return new DynamoDBMapper(amazonDynamoDb(), mapperConfig);
+    }
+
+    //shared by every parallel scan so concurrent exports can't open more than scanWorkers segments at once
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService petScanExecutor() {
+        return Executors.newFixedThreadPool(scanWorkers, namedDaemonThreads("pet-scan-"));
     }
 
-    private AmazonDynamoDB amazonDynamoDb() {
+    //one client, and so one connection pool, for the whole application
+    @Bean
+    public AmazonDynamoDB amazonDynamoDb() {
         return AmazonDynamoDBClientBuilder.standard()
                 .withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(dynamodbEndpoint,signingRegion))
+                .withClientConfiguration(clientConfiguration())
+                .withRequestHandlers(requestHandlers())
+                .withMetricsCollector(requestMetricCollector())
+                .withCredentials(amazonDynamoDBCredentials()).build();
+    }
+
+    //only needed by the stream consumer, same endpoint and credentials as the table client
+    @Bean
+    @ConditionalOnProperty(name = "pets.stream.enabled", havingValue = "true")
+    public AmazonDynamoDBStreams amazonDynamoDbStreams() {
+        return AmazonDynamoDBStreamsClientBuilder.standard()
+                .withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(dynamodbEndpoint,signingRegion))
+                .withClientConfiguration(clientConfiguration())
                 .withCredentials(amazonDynamoDBCredentials()).build();
     }
 
+    @Bean
+    public DynamoDBPoolStats dynamoDBPoolStats() {
+        return new DynamoDBPoolStats(clientProperties.getMaxConnections());
+    }
+
+    @Bean
+    public DynamoDBMetrics dynamoDBMetrics() {
+        return new DynamoDBMetrics(meterRegistry);
+    }
+
+    @Bean
+    public DynamoDBRateLimiter dynamoDBRateLimiter() {
+        return new DynamoDBRateLimiter(rateLimitProperties, meterRegistry);
+    }
+
+    //metrics first, so ReturnConsumedCapacity is already set when the rate limiter sees the request
+    private RequestHandler2[] requestHandlers() {
+        if(rateLimitProperties.isEnabled()) {
+            return new RequestHandler2[] {dynamoDBMetrics(), dynamoDBRateLimiter()};
+        }
+        return new RequestHandler2[] {dynamoDBMetrics()};
+    }
+
+    //the client takes a single collector, so fan out to the pool stats and the micrometer metrics
+    private RequestMetricCollector requestMetricCollector() {
+        DynamoDBPoolStats poolStats = dynamoDBPoolStats();
+        RequestMetricCollector requestMetrics = dynamoDBMetrics().requestMetricCollector();
+        return new RequestMetricCollector() {
+            @Override
+            public void collectMetrics(Request<?> request, Response<?> response) {
+                poolStats.collectMetrics(request, response);
+                requestMetrics.collectMetrics(request, response);
+            }
+        };
+    }
+
+    private ClientConfiguration clientConfiguration() {
+        DynamoDBClientProperties.Retry retry = clientProperties.getRetry();
+        RetryPolicy retryPolicy = new RetryPolicy(
+                PredefinedRetryPolicies.DEFAULT_RETRY_CONDITION,
+                new PredefinedBackoffStrategies.FullJitterBackoffStrategy(
+                        (int) retry.getBaseDelay().toMillis(), (int) retry.getMaxBackoff().toMillis()),
+                retry.getMaxRetries(),
+                true);
+
+        return new ClientConfiguration()
+                .withMaxConnections(clientProperties.getMaxConnections())
+                .withConnectionTTL(clientProperties.getConnectionTtl().toMillis())
+                .withConnectionMaxIdleMillis(clientProperties.getConnectionMaxIdle().toMillis())
+                .withConnectionTimeout((int) clientProperties.getConnectionTimeout().toMillis())
+                .withSocketTimeout((int) clientProperties.getSocketTimeout().toMillis())
+                .withRequestTimeout((int) clientProperties.getRequestTimeout().toMillis())
+                .withClientExecutionTimeout((int) clientProperties.getClientExecutionTimeout().toMillis())
+                .withTcpKeepAlive(clientProperties.isTcpKeepAlive())
+                .withGzip(clientProperties.isGzip())
+                .withThrottledRetries(retry.isThrottledRetries())
+                .withRetryPolicy(retryPolicy);
+    }
+
     private AWSCredentialsProvider amazonDynamoDBCredentials() {
         return new AWSStaticCredentialsProvider(new BasicAWSCredentials(awsAccessKey,awsSecretKey));
     }
+
+    private ThreadFactory namedDaemonThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
 }
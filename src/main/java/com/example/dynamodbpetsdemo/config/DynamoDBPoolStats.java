@@ -0,0 +1,79 @@
+package com.example.dynamodbpetsdemo.config;
+
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.metrics.RequestMetricCollector;
+import com.amazonaws.util.AWSRequestMetrics;
+import com.amazonaws.util.TimingInfo;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+//The SDK reports the HTTP connection pool state with every request it sends, this keeps the latest
+//numbers and exposes them at /actuator/dynamodbpool and as dynamodb.client.pool.* gauges.
+@Endpoint(id = "dynamodbpool")
+public class DynamoDBPoolStats extends RequestMetricCollector implements MeterBinder {
+
+    private final int maxConnections;
+    private final AtomicLong available = new AtomicLong();
+    private final AtomicLong leased = new AtomicLong();
+    private final AtomicLong pending = new AtomicLong();
+
+    public DynamoDBPoolStats(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    @Override
+    public void collectMetrics(Request<?> request, Response<?> response) {
+        TimingInfo timingInfo = request.getAWSRequestMetrics().getTimingInfo();
+        record(available, timingInfo.getCounter(AWSRequestMetrics.Field.HttpClientPoolAvailableCount.name()));
+        record(leased, timingInfo.getCounter(AWSRequestMetrics.Field.HttpClientPoolLeasedCount.name()));
+        record(pending, timingInfo.getCounter(AWSRequestMetrics.Field.HttpClientPoolPendingCount.name()));
+    }
+
+    private static void record(AtomicLong target, Number value) {
+        if(value != null) {
+            target.set(value.longValue());
+        }
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public long getAvailable() {
+        return available.get();
+    }
+
+    public long getLeased() {
+        return leased.get();
+    }
+
+    public long getPending() {
+        return pending.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("dynamodb.client.pool.max", this, DynamoDBPoolStats::getMaxConnections).register(registry);
+        Gauge.builder("dynamodb.client.pool.available", this, DynamoDBPoolStats::getAvailable).register(registry);
+        Gauge.builder("dynamodb.client.pool.leased", this, DynamoDBPoolStats::getLeased).register(registry);
+        Gauge.builder("dynamodb.client.pool.pending", this, DynamoDBPoolStats::getPending).register(registry);
+    }
+
+    @ReadOperation
+    public Map<String, Long> poolStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("maxConnections", (long) maxConnections);
+        stats.put("available", getAvailable());
+        stats.put("leased", getLeased());
+        stats.put("pending", getPending());
+        return stats;
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.dynamodbpetsdemo.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+//Bound from aws.dynamodb.rateLimit.*, rates are in capacity units per second.
+@Data
+@ConfigurationProperties(prefix = "aws.dynamodb.rate-limit")
+public class DynamoDBRateLimitProperties {
+
+    public enum Policy {
+        //wait up to maxWait for capacity, then reject
+        QUEUE,
+        //reject as soon as there is no capacity left
+        SHED
+    }
+
+    private boolean enabled = false;
+    private Policy policy = Policy.QUEUE;
+    private Duration maxWait = Duration.ofMillis(100);
+
+    //a throttle multiplies the rate by decreaseFactor, every increaseInterval without one multiplies it by increaseFactor
+    private double decreaseFactor = 0.5;
+    private double increaseFactor = 1.1;
+    private Duration increaseInterval = Duration.ofSeconds(1);
+
+    private Bucket read = new Bucket();
+    private Bucket write = new Bucket();
+    //Scans get their own budget: a single 1MB page charges about 128 read units, which would otherwise
+    //push every point read behind it past maxWait. Scans run in the background, so they always queue.
+    private Bucket scan = Bucket.queued(500, Duration.ofSeconds(30));
+
+    @Data
+    public static class Bucket {
+        private double initialRate = 1000;
+        private double minRate = 10;
+        private double maxRate = 10000;
+
+        //how much unused capacity can pile up, as time at the current rate
+        private Duration burst = Duration.ofSeconds(1);
+
+        //overrides the policy's maxWait for this bucket when set
+        private Duration maxWait;
+
+        static Bucket queued(double initialRate, Duration maxWait) {
+            Bucket bucket = new Bucket();
+            bucket.setInitialRate(initialRate);
+            bucket.setMaxWait(maxWait);
+            return bucket;
+        }
+    }
+}
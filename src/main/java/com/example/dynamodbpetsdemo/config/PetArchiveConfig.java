@@ -0,0 +1,42 @@
+package com.example.dynamodbpetsdemo.config;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.example.dynamodbpetsdemo.archive.DynamoDBPetArchive;
+import com.example.dynamodbpetsdemo.archive.FilePetArchive;
+import com.example.dynamodbpetsdemo.archive.PetArchive;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Paths;
+import java.util.Locale;
+
+//pets.archive.store picks where archived pets live: none (the default), table (pets.archive.table)
+//or file (pets.archive.directory). The archiver itself only runs with pets.archive.enabled=true,
+//reads fall back to the store whenever one is configured.
+@Configuration
+public class PetArchiveConfig {
+
+    @Value("${pets.archive.store:none}")
+    private String store;
+
+    @Value("${pets.archive.table:PetsArchive}")
+    private String table;
+
+    @Value("${pets.archive.directory:pets-archive}")
+    private String directory;
+
+    @Bean
+    public PetArchive petArchive(AmazonDynamoDB amazonDynamoDB) {
+        switch (store.trim().toLowerCase(Locale.ROOT)) {
+            case "none":
+                return PetArchive.none();
+            case "table":
+                return new DynamoDBPetArchive(amazonDynamoDB, table);
+            case "file":
+                return new FilePetArchive(Paths.get(directory));
+            default:
+                throw new IllegalArgumentException("pets.archive.store must be none, table or file, was " + store);
+        }
+    }
+}
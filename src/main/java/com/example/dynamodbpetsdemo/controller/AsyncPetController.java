@@ -0,0 +1,72 @@
+package com.example.dynamodbpetsdemo.controller;
+
+import com.example.dynamodbpetsdemo.dto.PetPage;
+import com.example.dynamodbpetsdemo.entity.Pet;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+//Same contract as PetController, but handlers return futures so the servlet thread is released while
+//DynamoDB is called. Each handler runs the matching PetController one on petAsyncExecutor, so ETags,
+//Idempotency-Key, write-behind and the error mapping are exactly the ones of /pets.
+//Enabled with pets.async.enabled=true.
+@RestController
+@ConditionalOnProperty(name = "pets.async.enabled", havingValue = "true")
+@RequestMapping("/async/pets")
+public class AsyncPetController {
+
+    private PetController petController;
+    private Executor executor;
+
+    @Autowired
+    public AsyncPetController(PetController controller, @Qualifier("petAsyncExecutor") Executor asyncExecutor) {
+        petController = controller;
+        executor = asyncExecutor;
+    }
+
+    @PostMapping
+    public CompletableFuture<ResponseEntity<?>> save(@RequestBody Pet pet,
+                                                     @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+        return CompletableFuture.supplyAsync(() -> petController.save(pet, idempotencyKey), executor);
+    }
+
+    @GetMapping("/{id}")
+    public CompletableFuture<ResponseEntity<Pet>> findById(@PathVariable(value = "id") String id,
+                                                           @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        return CompletableFuture.supplyAsync(() -> petController.findById(id, ifNoneMatch), executor);
+    }
+
+    @GetMapping(params = "limit")
+    public CompletableFuture<ResponseEntity<PetPage>> findPage(@RequestParam(value = "limit") int limit,
+                                                               @RequestParam(value = "cursor", required = false) String cursor,
+                                                               @RequestParam(value = "fields", required = false) List<String> fields,
+                                                               @RequestParam(value = "minAge", required = false) Integer minAge) {
+        return CompletableFuture.supplyAsync(() -> petController.findPage(limit, cursor, fields, minAge), executor);
+    }
+
+    @PutMapping("/update/{id}")
+    public CompletableFuture<ResponseEntity<Pet>> update(@PathVariable(value = "id") String id, @RequestBody Pet pet,
+                                                         @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        return CompletableFuture.supplyAsync(() -> petController.update(id, pet, ifMatch), executor);
+    }
+
+    @DeleteMapping("/delete/{id}")
+    public CompletableFuture<ResponseEntity<Pet>> delete(@PathVariable(value = "id") String id) {
+        return CompletableFuture.supplyAsync(() -> petController.delete(id), executor);
+    }
+
+    //the executor queue is full, shed the request instead of queueing it on a servlet thread
+    @ExceptionHandler(RejectedExecutionException.class)
+    public ResponseEntity<Void> rejected() {
+        return new ResponseEntity<>(null, HttpStatus.SERVICE_UNAVAILABLE);
+    }
+}
@@ -1,54 +1,204 @@
 package com.example.dynamodbpetsdemo.controller;
 
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.example.dynamodbpetsdemo.dto.BatchResult;
+import com.example.dynamodbpetsdemo.dto.PetPage;
+import com.example.dynamodbpetsdemo.dto.PetStats;
+import com.example.dynamodbpetsdemo.dto.PetTransaction;
+import com.example.dynamodbpetsdemo.dto.PetTransactionResult;
 import com.example.dynamodbpetsdemo.entity.Pet;
+import com.example.dynamodbpetsdemo.exception.IdempotencyKeyInProgressException;
+import com.example.dynamodbpetsdemo.exception.IdempotencyKeyReusedException;
 import com.example.dynamodbpetsdemo.exception.InvalidInputException;
+import com.example.dynamodbpetsdemo.exception.PetTransactionCanceledException;
+import com.example.dynamodbpetsdemo.exception.ThroughputLimitExceededException;
+import com.example.dynamodbpetsdemo.exception.VersionMismatchException;
+import com.example.dynamodbpetsdemo.exception.WriteBufferClosedException;
+import com.example.dynamodbpetsdemo.exception.WriteBufferFullException;
+import com.example.dynamodbpetsdemo.idempotency.IdempotencyService;
 import com.example.dynamodbpetsdemo.service.PetService;
+import com.example.dynamodbpetsdemo.service.PetStatsService;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 @RestController
 @ControllerAdvice
 @RequestMapping("/pets")
 public class PetController {
 
+    public static final String NDJSON_VALUE = "application/x-ndjson";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PetController.class);
+
     private PetService petService;
+    private PetStatsService petStatsService;
+    private IdempotencyService idempotencyService;
+    private final ObjectMapper objectMapper = new ObjectMapper();
 
     @Autowired
-    public PetController(PetService service) {
+    public PetController(PetService service, PetStatsService statsService, IdempotencyService idempotencyService) {
         petService = service;
+        petStatsService = statsService;
+        this.idempotencyService = idempotencyService;
     }
 
+    //A retry carrying the same Idempotency-Key and body gets the first response again instead of a second pet,
+    //the same key with another body is 422 and a key whose first request is still running 409.
     @PostMapping
-    public ResponseEntity<Pet> save(@RequestBody Pet pet) {
+    public ResponseEntity<?> save(@RequestBody Pet pet,
+                                  @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+        try {
+            return idempotencyService.execute(idempotencyKey, pet, pendingWrite -> save(pet, pendingWrite));
+        } catch(InvalidInputException e) {
+            LOGGER.warn("Rejected request: {}", e.getMessage());
+            return new ResponseEntity<>(pet, HttpStatus.BAD_REQUEST);
+        } catch(IdempotencyKeyReusedException e) {
+            LOGGER.warn("Rejected request: {}", e.getMessage());
+            return new ResponseEntity<>(pet, HttpStatus.UNPROCESSABLE_ENTITY);
+        } catch(IdempotencyKeyInProgressException e) {
+            LOGGER.warn("Rejected request: {}", e.getMessage());
+            return new ResponseEntity<>(pet, HttpStatus.CONFLICT);
+        }
+    }
+
+    public ResponseEntity<Pet> save(Pet pet) {
+        return save(pet, pendingWrite -> { });
+    }
+
+    //pendingWrite gets the write a 202 Accepted is still waiting for
+    private ResponseEntity<Pet> save(Pet pet, Consumer<CompletableFuture<?>> pendingWrite) {
         try {
             Pet newPet;
             if(pet.getName() == null) {
                 return new ResponseEntity<>(pet, HttpStatus.BAD_REQUEST);
             }
 
+            if(petService.isWriteBehindEnabled()) {
+                CompletableFuture<Pet> pendingPet = petService.enqueuePet(pet);
+                if(petService.isWriteBehindAwaitFlush()) {
+                    try {
+                        return new ResponseEntity<>(pendingPet.join(), HttpStatus.OK);
+                    } catch(CompletionException e) {
+                        //a conflict or the client side rate limit answer like a direct save does
+                        if(e.getCause() instanceof ConditionalCheckFailedException
+                                || e.getCause() instanceof ThroughputLimitExceededException) {
+                            throw (RuntimeException) e.getCause();
+                        }
+                        //anything else means the flush didn't get the pet written, the client can retry
+                        LOGGER.warn("Write-behind of pet {} failed: {}", pet.getId(), e.getCause().getMessage());
+                        return new ResponseEntity<>(pet, HttpStatus.SERVICE_UNAVAILABLE);
+                    }
+                }
+                pendingWrite.accept(pendingPet);
+                return new ResponseEntity<>(pet, HttpStatus.ACCEPTED);
+            }
+
             newPet = petService.savePet(pet);
             return new ResponseEntity<>(newPet, HttpStatus.OK);
 
         } catch(InvalidInputException e) {
-            System.out.println(e);
+            LOGGER.warn("Rejected request: {}", e.getMessage());
             return new ResponseEntity<>(pet, HttpStatus.BAD_REQUEST);
+        } catch(WriteBufferFullException e) {
+            LOGGER.warn("Rejected request: {}", e.getMessage());
+            return new ResponseEntity<>(pet, HttpStatus.TOO_MANY_REQUESTS);
+        } catch(WriteBufferClosedException e) {
+            //shutting down
+            LOGGER.warn("Rejected request: {}", e.getMessage());
+            return new ResponseEntity<>(pet, HttpStatus.SERVICE_UNAVAILABLE);
+        } catch(ConditionalCheckFailedException e) {
+            //the body carried a version that is no longer the stored one
+            LOGGER.warn("Rejected request: {}", e.getMessage());
+            return new ResponseEntity<>(pet, HttpStatus.CONFLICT);
         }
 
     }
 
+    @PostMapping("/batch")
+    public ResponseEntity<BatchResult> saveBatch(@RequestBody List<Pet> pets) {
+        try {
+            return new ResponseEntity<>(petService.savePets(pets), HttpStatus.OK);
+        } catch(InvalidInputException e) {
+            LOGGER.warn("Rejected request: {}", e.getMessage());
+            return new ResponseEntity<>(null, HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    //all items or none, 409 with one cancellation reason per item when a condition failed
+    @PostMapping("/transactions")
+    public ResponseEntity<PetTransactionResult> transact(@RequestBody PetTransaction transaction) {
+        try {
+            return new ResponseEntity<>(petService.transactPets(transaction), HttpStatus.OK);
+        } catch(InvalidInputException e) {
+            LOGGER.warn("Rejected request: {}", e.getMessage());
+            return new ResponseEntity<>(null, HttpStatus.BAD_REQUEST);
+        } catch(PetTransactionCanceledException e) {
+            LOGGER.warn("Rejected request: {}", e.getMessage());
+            PetTransactionResult result = new PetTransactionResult();
+            result.setClientRequestToken(transaction.getClientRequestToken());
+            result.setItems(transaction.getItems());
+            result.setCancellationReasons(e.getReasons());
+            return new ResponseEntity<>(result, HttpStatus.CONFLICT);
+        }
+    }
+
+    @PostMapping("/batch-get")
+    public ResponseEntity<BatchResult> findBatch(@RequestBody List<String> ids) {
+        try {
+            return new ResponseEntity<>(petService.findPetsByIds(ids), HttpStatus.OK);
+        } catch(InvalidInputException e) {
+            LOGGER.warn("Rejected request: {}", e.getMessage());
+            return new ResponseEntity<>(null, HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    @DeleteMapping("/batch")
+    public ResponseEntity<BatchResult> deleteBatch(@RequestBody List<String> ids) {
+        try {
+            return new ResponseEntity<>(petService.deletePets(ids), HttpStatus.OK);
+        } catch(InvalidInputException e) {
+            LOGGER.warn("Rejected request: {}", e.getMessage());
+            return new ResponseEntity<>(null, HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    //Strong ETag from the pet's version. A matching If-None-Match gets 304 without a body,
+    //the pet itself comes through the cache so a re-poll usually doesn't reach DynamoDB.
     @GetMapping("/{id}")
-    public ResponseEntity<Pet> findById(@PathVariable(value = "id") String id) {
+    public ResponseEntity<Pet> findById(@PathVariable(value = "id") String id,
+                                        @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         Pet pet = petService.findPetById(id);
-        if(pet != null) {
-            return new ResponseEntity<>(pet, HttpStatus.OK);
-        } else {
+        if(pet == null) {
             return new ResponseEntity<>(null, HttpStatus.NOT_FOUND);
         }
+
+        String etag = etag(pet);
+        HttpHeaders headers = new HttpHeaders();
+        if(etag != null) {
+            headers.setETag(etag);
+            if(ifNoneMatch != null && noneMatchHits(ifNoneMatch, etag)) {
+                return new ResponseEntity<>(null, headers, HttpStatus.NOT_MODIFIED);
+            }
+        }
+        return new ResponseEntity<>(pet, headers, HttpStatus.OK);
     }
 
     @GetMapping
@@ -57,15 +207,127 @@ public class PetController {
         return new ResponseEntity<>(pets, HttpStatus.OK);
     }
 
+    //GET /pets?fields=id,name&minAge=3, projection and filter are both pushed down to the Scan
+    @GetMapping(params = {"fields", "!limit"})
+    public ResponseEntity<List<Map<String, Object>>> findFields(@RequestParam(value = "fields") List<String> fields,
+                                                                @RequestParam(value = "minAge", required = false) Integer minAge) {
+        try {
+            return new ResponseEntity<>(petService.getPets(fields, minAge), HttpStatus.OK);
+        } catch(InvalidInputException e) {
+            LOGGER.warn("Rejected request: {}", e.getMessage());
+            return new ResponseEntity<>(null, HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    @GetMapping(params = {"minAge", "!fields", "!limit"})
+    public ResponseEntity<List<Map<String, Object>>> findOlderThan(@RequestParam(value = "minAge") Integer minAge) {
+        return findFields(null, minAge);
+    }
+
+    //Pages hold whole, unfiltered pets: fields and minAge are refused with a 400 instead of silently ignored.
+    @GetMapping(params = "limit")
+    public ResponseEntity<PetPage> findPage(@RequestParam(value = "limit") int limit,
+                                            @RequestParam(value = "cursor", required = false) String cursor,
+                                            @RequestParam(value = "fields", required = false) List<String> fields,
+                                            @RequestParam(value = "minAge", required = false) Integer minAge) {
+        if(fields != null || minAge != null) {
+            LOGGER.warn("Rejected request: fields and minAge can't be combined with limit");
+            return new ResponseEntity<>(null, HttpStatus.BAD_REQUEST);
+        }
+        return findPage(limit, cursor);
+    }
+
+    public ResponseEntity<PetPage> findPage(int limit, String cursor) {
+        try {
+            return new ResponseEntity<>(petService.getPetPage(limit, cursor), HttpStatus.OK);
+        } catch(InvalidInputException e) {
+            LOGGER.warn("Rejected request: {}", e.getMessage());
+            return new ResponseEntity<>(null, HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    @GetMapping("/search")
+    public ResponseEntity<PetPage> search(@RequestParam(value = "name") String name,
+                                          @RequestParam(value = "minAge", required = false) Integer minAge,
+                                          @RequestParam(value = "maxAge", required = false) Integer maxAge,
+                                          @RequestParam(value = "limit", defaultValue = "100") int limit,
+                                          @RequestParam(value = "cursor", required = false) String cursor) {
+        try {
+            return new ResponseEntity<>(petService.searchPets(name, minAge, maxAge, limit, cursor), HttpStatus.OK);
+        } catch(InvalidInputException e) {
+            LOGGER.warn("Rejected request: {}", e.getMessage());
+            return new ResponseEntity<>(null, HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    @GetMapping("/stats")
+    public ResponseEntity<PetStats> stats() {
+        return new ResponseEntity<>(petStatsService.getStats(), HttpStatus.OK);
+    }
+
+    //newline delimited json, written to the socket page by page
+    //parallel=true scans all segments at once, so pets arrive in no particular order
+    @GetMapping(value = "/stream", produces = NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> stream(@RequestParam(value = "parallel", defaultValue = "false") boolean parallel) {
+        StreamingResponseBody body = outputStream -> {
+            Consumer<Pet> writer = pet -> {
+                try {
+                    outputStream.write(objectMapper.writeValueAsBytes(pet));
+                    outputStream.write('\n');
+                } catch(IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            };
+
+            if(parallel) {
+                try (Stream<Pet> pets = petService.streamAllPets()) {
+                    pets.forEach(writer);
+                }
+            } else {
+                petService.forEachPet(PetService.DEFAULT_PAGE_SIZE, writer);
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON_VALUE)).body(body);
+    }
+
+    //If-Match makes the update conditional on the version the client last read, 412 when it moved on.
+    //"*" or no If-Match updates whatever version is stored.
+    //A missing pet is 404 without If-Match and 412 with it, "*" included, as no current representation matches.
     @PutMapping("/update/{id}")
-    public ResponseEntity<Pet> update(@PathVariable(value = "id") String id, @RequestBody Pet pet) {
-        if(petService.findPetById(id) == null) {
-            return new ResponseEntity<>(null, HttpStatus.NOT_FOUND);
-        } else if(pet.getName() == null || pet.getAge() < 0) {
+    public ResponseEntity<Pet> update(@PathVariable(value = "id") String id, @RequestBody Pet pet,
+                                      @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        if(pet.getName() == null || pet.getAge() < 0) {
             return new ResponseEntity<>(pet, HttpStatus.BAD_REQUEST);
         }
-        Pet returnedPet = petService.updatePetInfo(id, pet);
-        return new ResponseEntity<>(returnedPet, HttpStatus.OK);
+        //the update is conditional on the pet existing, so no lookup is needed first
+        Pet returnedPet;
+        if(ifMatch == null || ifMatch.trim().equals("*")) {
+            returnedPet = petService.updatePetInfo(id, pet);
+        } else {
+            Long expectedVersion = version(ifMatch);
+            if(expectedVersion == null) {
+                return new ResponseEntity<>(null, HttpStatus.PRECONDITION_FAILED);
+            }
+            try {
+                returnedPet = petService.updatePetInfo(id, pet, expectedVersion);
+            } catch(VersionMismatchException e) {
+                LOGGER.warn("Rejected request: {}", e.getMessage());
+                return new ResponseEntity<>(null, HttpStatus.PRECONDITION_FAILED);
+            }
+        }
+
+        if(returnedPet != null) {
+            HttpHeaders headers = new HttpHeaders();
+            String etag = etag(returnedPet);
+            if(etag != null) {
+                headers.setETag(etag);
+            }
+            return new ResponseEntity<>(returnedPet, headers, HttpStatus.OK);
+        } else if(ifMatch != null) {
+            return new ResponseEntity<>(null, HttpStatus.PRECONDITION_FAILED);
+        } else {
+            return new ResponseEntity<>(null, HttpStatus.NOT_FOUND);
+        }
     }
 
     @DeleteMapping("/delete/{id}")
@@ -79,4 +341,45 @@ public class PetController {
 
     }
 
+    //Client side DynamoDB budget is used up. As the class is also a @ControllerAdvice this covers
+    //every controller, the client is told when to come back instead of the request hanging in retries.
+    @ExceptionHandler(ThroughputLimitExceededException.class)
+    public ResponseEntity<Void> throughputLimitExceeded(ThroughputLimitExceededException e) {
+        LOGGER.warn("Rejected request: {}", e.getMessage());
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, Long.toString(Math.max(1, (e.getRetryAfter().toMillis() + 999) / 1000)));
+        return new ResponseEntity<>(null, headers, HttpStatus.TOO_MANY_REQUESTS);
+    }
+
+    //pets saved before versioning was added have no version and so no ETag
+    private static String etag(Pet pet) {
+        return pet.getVersion() == null ? null : "\"" + pet.getVersion() + "\"";
+    }
+
+    //If-None-Match uses the weak comparison, so W/"3" also matches "3"
+    private static boolean noneMatchHits(String ifNoneMatch, String etag) {
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if(candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if(candidate.equals("*") || candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //If-Match uses the strong comparison, anything but a single "<version>" can't match
+    private static Long version(String ifMatch) {
+        String tag = ifMatch.trim();
+        if(tag.length() < 3 || !tag.startsWith("\"") || !tag.endsWith("\"")) {
+            return null;
+        }
+        try {
+            return Long.parseLong(tag.substring(1, tag.length() - 1));
+        } catch(NumberFormatException e) {
+            return null;
+        }
+    }
 }
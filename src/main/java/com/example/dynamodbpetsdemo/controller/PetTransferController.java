@@ -0,0 +1,52 @@
+package com.example.dynamodbpetsdemo.controller;
+
+import com.example.dynamodbpetsdemo.transfer.PetTransferFormat;
+import com.example.dynamodbpetsdemo.transfer.PetTransferService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.Locale;
+
+//GET /pets/export?format=csv streams the whole table as an attachment, same output as the export job.
+//Compression comes from server.compression when the client accepts gzip.
+@RestController
+@RequestMapping("/pets")
+public class PetTransferController {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PetTransferController.class);
+
+    private PetTransferService petTransferService;
+
+    @Autowired
+    public PetTransferController(PetTransferService transferService) {
+        petTransferService = transferService;
+    }
+
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> export(@RequestParam(value = "format", defaultValue = "ndjson") String format) {
+        PetTransferFormat transferFormat;
+        try {
+            transferFormat = PetTransferFormat.fromName(format);
+        } catch(IllegalArgumentException e) {
+            LOGGER.warn("Rejected request: {}", e.getMessage());
+            return new ResponseEntity<>(null, HttpStatus.BAD_REQUEST);
+        }
+
+        StreamingResponseBody body = outputStream -> petTransferService.export(outputStream, transferFormat);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(transferFormat.getContentType()))
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        "attachment; filename=\"pets." + transferFormat.name().toLowerCase(Locale.ROOT) + "\"")
+                .body(body);
+    }
+}
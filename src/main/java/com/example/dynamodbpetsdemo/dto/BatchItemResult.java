@@ -0,0 +1,23 @@
+package com.example.dynamodbpetsdemo.dto;
+
+import com.example.dynamodbpetsdemo.entity.Pet;
+import lombok.Data;
+
+@Data
+public class BatchItemResult {
+
+    private String id;
+    private BatchItemStatus status;
+    private Pet pet;
+    private String error;
+
+    public BatchItemResult() {
+    }
+
+    public BatchItemResult(String id, BatchItemStatus status, Pet pet, String error) {
+        this.id = id;
+        this.status = status;
+        this.pet = pet;
+        this.error = error;
+    }
+}
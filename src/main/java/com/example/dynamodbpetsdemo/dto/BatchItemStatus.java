@@ -0,0 +1,10 @@
+package com.example.dynamodbpetsdemo.dto;
+
+public enum BatchItemStatus {
+    SAVED,
+    FOUND,
+    NOT_FOUND,
+    DELETED,
+    INVALID,
+    FAILED
+}
@@ -0,0 +1,24 @@
+package com.example.dynamodbpetsdemo.dto;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+//per-item outcome of a batch request, in the same order as the request
+@Data
+public class BatchResult {
+
+    private int succeeded;
+    private int failed;
+    private List<BatchItemResult> items = new ArrayList<>();
+
+    public void add(BatchItemResult item) {
+        items.add(item);
+        if(item.getStatus() == BatchItemStatus.INVALID || item.getStatus() == BatchItemStatus.FAILED) {
+            failed++;
+        } else {
+            succeeded++;
+        }
+    }
+}
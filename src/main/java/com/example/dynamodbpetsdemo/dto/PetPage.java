@@ -0,0 +1,23 @@
+package com.example.dynamodbpetsdemo.dto;
+
+import com.example.dynamodbpetsdemo.entity.Pet;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class PetPage {
+
+    private List<Pet> items;
+
+    //opaque token for the next page, null when the scan is finished
+    private String nextCursor;
+
+    public PetPage() {
+    }
+
+    public PetPage(List<Pet> items, String nextCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.dynamodbpetsdemo.dto;
+
+import lombok.Data;
+
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+@Data
+public class PetStats {
+
+    private long count;
+
+    //null when there are no pets
+    private Integer minAge;
+    private Integer maxAge;
+    private Double averageAge;
+    private Double averageDogAge;
+
+    //number of pets per age, ordered by age
+    private SortedMap<Integer, Long> ageHistogram = new TreeMap<>();
+}
@@ -0,0 +1,15 @@
+package com.example.dynamodbpetsdemo.dto;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+//Body of POST /pets/transactions. Resending the same clientRequestToken within 10 minutes
+//doesn't apply the transaction twice, one is generated and returned when it is missing.
+@Data
+public class PetTransaction {
+
+    private String clientRequestToken;
+    private List<PetTransactionItem> items = new ArrayList<>();
+}
@@ -0,0 +1,12 @@
+package com.example.dynamodbpetsdemo.dto;
+
+public enum PetTransactionAction {
+    //creates or replaces the pet, the id is generated when missing
+    PUT,
+    //replaces the attributes of a pet that must exist
+    UPDATE,
+    //deletes a pet that must exist
+    DELETE,
+    //writes nothing, only requires the pet to exist (at expectedVersion, if given)
+    CONDITION_CHECK
+}
@@ -0,0 +1,26 @@
+package com.example.dynamodbpetsdemo.dto;
+
+import com.example.dynamodbpetsdemo.entity.Pet;
+import lombok.Data;
+
+//One write of a transaction. With expectedVersion set, the whole transaction only goes through
+//while the stored pet is still at that version.
+@Data
+public class PetTransactionItem {
+
+    private PetTransactionAction action;
+    private String id;
+    //PUT and UPDATE only
+    private Pet pet;
+    private Long expectedVersion;
+
+    public PetTransactionItem() {
+    }
+
+    public PetTransactionItem(PetTransactionAction action, String id, Pet pet, Long expectedVersion) {
+        this.action = action;
+        this.id = id;
+        this.pet = pet;
+        this.expectedVersion = expectedVersion;
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.dynamodbpetsdemo.dto;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+//The items as written, generated ids filled in. A pet's version is only known when the item
+//carried an expectedVersion, TransactWriteItems doesn't return the written attributes.
+//When the transaction was canceled, cancellationReasons holds one code per item in request order,
+//"None" for the items that were fine.
+@Data
+public class PetTransactionResult {
+
+    private String clientRequestToken;
+    private List<PetTransactionItem> items = new ArrayList<>();
+    private List<String> cancellationReasons;
+}
@@ -0,0 +1,19 @@
+package com.example.dynamodbpetsdemo.dto;
+
+import lombok.Data;
+
+//outcome of an export or import job
+@Data
+public class PetTransferResult {
+
+    //pets written to the file or the table
+    private long pets;
+    //import only: records whose write was cancelled, retried by the next run
+    private long failed;
+    //import only: records without a name or with a negative age
+    private long invalid;
+    //import only: records a previous run already got through, skipped on resume
+    private long resumedAfter;
+    private double seconds;
+    private double petsPerSecond;
+}
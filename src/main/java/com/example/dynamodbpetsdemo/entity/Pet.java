@@ -1,6 +1,7 @@
 package com.example.dynamodbpetsdemo.entity;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.*;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import lombok.Data;
 import org.springframework.boot.context.properties.bind.DefaultValue;
 
@@ -8,19 +9,35 @@ import java.beans.Transient;
 
 @Data
 @DynamoDBTable(tableName="Pets")
+@JsonIgnoreProperties(value = {"dogAge", "updatedAt"}, allowGetters = true)
 public class Pet {
 
+    //GSI with name as hash key and age as range key, backs GET /pets/search
+    public static final String NAME_AGE_INDEX = "name-age-index";
+
+    public static final int DOG_YEARS_PER_YEAR = 7;
+
     @DynamoDBHashKey
     @DynamoDBAutoGeneratedKey
     private String id;
 
-    @DynamoDBAttribute
+    @DynamoDBIndexHashKey(globalSecondaryIndexName = NAME_AGE_INDEX)
     private String name;
 
-    @DynamoDBAttribute
+    @DynamoDBIndexRangeKey(globalSecondaryIndexName = NAME_AGE_INDEX)
     private int age;
 
-    private int dogAge;
+    //set to 1 on the first save and bumped by every write after that, backs the ETag of GET /pets/{id}
+    @DynamoDBVersionAttribute
+    private Long version;
+
+    //epoch millis of the last write, stamped on every save; pets untouched for long enough are archived
+    @DynamoDBAutoGeneratedTimestamp(strategy = DynamoDBAutoGenerateStrategy.ALWAYS)
+    private Long updatedAt;
+
+    //optional epoch seconds, the table's TTL attribute: DynamoDB deletes the pet some time after it
+    //and reads treat it as gone from then on
+    private Long expiresAt;
 
     public Pet() {
     }
@@ -31,6 +48,17 @@ public class Pet {
         this.age = age;
     }
 
+    //Derived when it is read, typically while the response is written, so nothing has to walk a list
+    //or touch a cached pet to fill it in. Not stored, and ignored when it comes in with a request body.
+    @DynamoDBIgnore
+    public int getDogAge() {
+        return age * DOG_YEARS_PER_YEAR;
+    }
+
+    public boolean isExpiredAt(long epochSeconds) {
+        return expiresAt != null && expiresAt <= epochSeconds;
+    }
+
     /*
     @Override
     public boolean equals(Object obj) {
@@ -0,0 +1,7 @@
+package com.example.dynamodbpetsdemo.exception;
+
+public class IdempotencyKeyInProgressException extends Exception {
+    public IdempotencyKeyInProgressException(String message) {
+        super(message);
+    }
+}
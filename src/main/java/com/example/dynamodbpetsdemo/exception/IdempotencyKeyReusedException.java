@@ -0,0 +1,7 @@
+package com.example.dynamodbpetsdemo.exception;
+
+public class IdempotencyKeyReusedException extends Exception {
+    public IdempotencyKeyReusedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.dynamodbpetsdemo.exception;
+
+import java.util.List;
+
+//A transaction was canceled as a whole, nothing of it was written
+public class PetTransactionCanceledException extends Exception {
+
+    private final List<String> reasons;
+
+    public PetTransactionCanceledException(String message, List<String> reasons) {
+        super(message);
+        this.reasons = reasons;
+    }
+
+    //one code per item in request order, empty when DynamoDB gave none
+    public List<String> getReasons() {
+        return reasons;
+    }
+}
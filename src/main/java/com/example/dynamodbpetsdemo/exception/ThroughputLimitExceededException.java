@@ -0,0 +1,18 @@
+package com.example.dynamodbpetsdemo.exception;
+
+import java.time.Duration;
+
+//Unchecked since it is thrown from inside SDK calls, through the mapper and PetRepo.
+public class ThroughputLimitExceededException extends RuntimeException {
+
+    private final Duration retryAfter;
+
+    public ThroughputLimitExceededException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,7 @@
+package com.example.dynamodbpetsdemo.exception;
+
+public class VersionMismatchException extends Exception {
+    public VersionMismatchException(String message) {
+        super(message);
+    }
+}
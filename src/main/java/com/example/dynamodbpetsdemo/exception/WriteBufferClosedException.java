@@ -0,0 +1,7 @@
+package com.example.dynamodbpetsdemo.exception;
+
+public class WriteBufferClosedException extends Exception {
+    public WriteBufferClosedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,7 @@
+package com.example.dynamodbpetsdemo.exception;
+
+public class WriteBufferFullException extends Exception {
+    public WriteBufferFullException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.dynamodbpetsdemo.idempotency;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeDefinition;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BillingMode;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
+import com.amazonaws.services.dynamodbv2.model.KeyType;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.ScalarAttributeType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+//Idempotency records in their own small table, hash key idempotencyKey (KEY is a reserved word).
+//TTL has to be enabled on expiresAt so DynamoDB drops old keys by itself; until it gets to them
+//an expired record is overwritten like a missing one.
+//All writes are conditional puts/deletes, one item per call, so two requests with the same key
+//can never both think they own it.
+@Repository
+public class IdempotencyKeyStore {
+
+    static final String KEY = "idempotencyKey";
+    static final String CLAIM_TOKEN = "claimToken";
+    static final String REQUEST_HASH = "requestHash";
+    static final String STATUS = "status";
+    static final String RESPONSE_STATUS = "responseStatus";
+    static final String RESPONSE_BODY = "responseBody";
+    static final String LOCKED_UNTIL = "lockedUntil";
+    static final String EXPIRES_AT = "expiresAt";
+
+    private final AmazonDynamoDB amazonDynamoDB;
+    private final String tableName;
+
+    @Autowired
+    public IdempotencyKeyStore(AmazonDynamoDB amazonDynamoDB,
+                               @Value("${pets.idempotency.table:PetIdempotencyKeys}") String tableName) {
+        this.amazonDynamoDB = amazonDynamoDB;
+        this.tableName = tableName;
+    }
+
+    public static CreateTableRequest createTableRequest(String tableName) {
+        return new CreateTableRequest()
+                .withTableName(tableName)
+                .withKeySchema(new KeySchemaElement(KEY, KeyType.HASH))
+                .withAttributeDefinitions(new AttributeDefinition(KEY, ScalarAttributeType.S))
+                .withBillingMode(BillingMode.PAY_PER_REQUEST);
+    }
+
+    //false when the key is already held by another record
+    public boolean claim(IdempotencyRecord record) {
+        return put(record, "attribute_not_exists(#key)", Collections.singletonMap("#key", KEY), null);
+    }
+
+    //replaces an expired or abandoned record, but only the exact one that was read
+    public boolean takeOver(IdempotencyRecord record, String previousClaimToken) {
+        return put(record, "#claimToken = :previousClaimToken", Collections.singletonMap("#claimToken", CLAIM_TOKEN),
+                Collections.singletonMap(":previousClaimToken", new AttributeValue().withS(previousClaimToken)));
+    }
+
+    //false when the claim was taken over in the meantime
+    public boolean complete(IdempotencyRecord record) {
+        return put(record, "#claimToken = :claimToken", Collections.singletonMap("#claimToken", CLAIM_TOKEN),
+                Collections.singletonMap(":claimToken", new AttributeValue().withS(record.getClaimToken())));
+    }
+
+    //gives the key back so the client can retry it, if the claim is still ours
+    public void release(IdempotencyRecord record) {
+        try {
+            amazonDynamoDB.deleteItem(new DeleteItemRequest()
+                    .withTableName(tableName)
+                    .withKey(Collections.singletonMap(KEY, new AttributeValue().withS(record.getKey())))
+                    .withConditionExpression("#claimToken = :claimToken")
+                    .withExpressionAttributeNames(Collections.singletonMap("#claimToken", CLAIM_TOKEN))
+                    .withExpressionAttributeValues(Collections.singletonMap(":claimToken",
+                            new AttributeValue().withS(record.getClaimToken()))));
+        } catch(ConditionalCheckFailedException e) {
+            //someone else holds the key by now
+        }
+    }
+
+    public IdempotencyRecord load(String key) {
+        Map<String, AttributeValue> item = amazonDynamoDB.getItem(new GetItemRequest()
+                .withTableName(tableName)
+                .withKey(Collections.singletonMap(KEY, new AttributeValue().withS(key)))
+                .withConsistentRead(true)).getItem();
+        return item == null ? null : fromItem(item);
+    }
+
+    private boolean put(IdempotencyRecord record, String condition, Map<String, String> names,
+                        Map<String, AttributeValue> values) {
+        try {
+            amazonDynamoDB.putItem(new PutItemRequest()
+                    .withTableName(tableName)
+                    .withItem(toItem(record))
+                    .withConditionExpression(condition)
+                    .withExpressionAttributeNames(names)
+                    .withExpressionAttributeValues(values));
+            return true;
+        } catch(ConditionalCheckFailedException e) {
+            return false;
+        }
+    }
+
+    static Map<String, AttributeValue> toItem(IdempotencyRecord record) {
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put(KEY, new AttributeValue().withS(record.getKey()));
+        item.put(CLAIM_TOKEN, new AttributeValue().withS(record.getClaimToken()));
+        item.put(REQUEST_HASH, new AttributeValue().withS(record.getRequestHash()));
+        item.put(STATUS, new AttributeValue().withS(record.getStatus()));
+        item.put(LOCKED_UNTIL, new AttributeValue().withN(Long.toString(record.getLockedUntil())));
+        item.put(EXPIRES_AT, new AttributeValue().withN(Long.toString(record.getExpiresAt())));
+        if(record.isCompleted()) {
+            item.put(RESPONSE_STATUS, new AttributeValue().withN(Integer.toString(record.getResponseStatus())));
+            if(record.getResponseBody() != null) {
+                item.put(RESPONSE_BODY, new AttributeValue().withS(record.getResponseBody()));
+            }
+        }
+        return item;
+    }
+
+    static IdempotencyRecord fromItem(Map<String, AttributeValue> item) {
+        IdempotencyRecord record = new IdempotencyRecord();
+        record.setKey(item.get(KEY).getS());
+        record.setClaimToken(string(item, CLAIM_TOKEN));
+        record.setRequestHash(string(item, REQUEST_HASH));
+        record.setStatus(string(item, STATUS));
+        record.setResponseStatus((int) number(item, RESPONSE_STATUS));
+        record.setResponseBody(string(item, RESPONSE_BODY));
+        record.setLockedUntil(number(item, LOCKED_UNTIL));
+        record.setExpiresAt(number(item, EXPIRES_AT));
+        return record;
+    }
+
+    private static String string(Map<String, AttributeValue> item, String name) {
+        AttributeValue value = item.get(name);
+        return value == null ? null : value.getS();
+    }
+
+    private static long number(Map<String, AttributeValue> item, String name) {
+        AttributeValue value = item.get(name);
+        return value == null || value.getN() == null ? 0 : Long.parseLong(value.getN());
+    }
+}
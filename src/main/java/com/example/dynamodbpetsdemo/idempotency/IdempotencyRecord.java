@@ -0,0 +1,40 @@
+package com.example.dynamodbpetsdemo.idempotency;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+//One Idempotency-Key as stored in the idempotency table. PENDING while the first request runs,
+//COMPLETED with the response to replay afterwards.
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class IdempotencyRecord {
+
+    public static final String PENDING = "PENDING";
+    public static final String COMPLETED = "COMPLETED";
+
+    private String key;
+    //random per claim, so only the request holding the claim can complete or release it
+    private String claimToken;
+    private String requestHash;
+    private String status;
+    private int responseStatus;
+    private String responseBody;
+    //epoch millis after which a PENDING claim counts as abandoned
+    private long lockedUntil;
+    //epoch seconds, the table's TTL attribute
+    private long expiresAt;
+
+    public boolean isCompleted() {
+        return COMPLETED.equals(status);
+    }
+
+    public boolean isExpired(long nowMillis) {
+        return expiresAt * 1000 <= nowMillis;
+    }
+
+    public boolean isAbandoned(long nowMillis) {
+        return !isCompleted() && lockedUntil <= nowMillis;
+    }
+}
@@ -0,0 +1,259 @@
+package com.example.dynamodbpetsdemo.idempotency;
+
+import com.example.dynamodbpetsdemo.entity.Pet;
+import com.example.dynamodbpetsdemo.exception.IdempotencyKeyInProgressException;
+import com.example.dynamodbpetsdemo.exception.IdempotencyKeyReusedException;
+import com.example.dynamodbpetsdemo.exception.InvalidInputException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+//Idempotency-Key handling for POST /pets. The first request with a key claims it with a conditional put,
+//runs, and stores its 2xx response under the key; a retry with the same key and body gets that response
+//back with Idempotent-Replayed: true instead of creating a second pet. Failed and non-2xx requests give
+//the key back so the client can retry them.
+//A write-behind 202 is only stored once its pet is flushed; until then a retry is told the first request
+//is still in progress, and if the flush fails the key is given back.
+//Completed keys are also kept in memory until they expire, a replay served from there costs no DynamoDB
+//round trip. A claim that is never completed (the instance died mid-request) can be taken over after lockTimeout.
+//Off by default: the idempotency table (see IdempotencyKeyStore.createTableRequest) has to exist first.
+// pets.idempotency.replays   source=cache|table
+@Service
+public class IdempotencyService implements MeterBinder {
+
+    public static final String REPLAYED_HEADER = "Idempotent-Replayed";
+    public static final int MAX_KEY_LENGTH = 255;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IdempotencyService.class);
+
+    private final IdempotencyKeyStore store;
+    private final Duration ttl;
+    private final Duration lockTimeout;
+    private final Cache<String, IdempotencyRecord> recent;
+    private final LongSupplier clock;
+    //stores responses of write-behind requests once they are flushed, off the flusher thread
+    private final ExecutorService completions;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final LongAdder cacheReplays = new LongAdder();
+    private final LongAdder tableReplays = new LongAdder();
+
+    @Autowired
+    public IdempotencyService(IdempotencyKeyStore store,
+                              @Value("${pets.idempotency.enabled:false}") boolean enabled,
+                              @Value("${pets.idempotency.ttl:24h}") Duration ttl,
+                              @Value("${pets.idempotency.lockTimeout:30s}") Duration lockTimeout,
+                              @Value("${pets.idempotency.cacheSize:10000}") long cacheSize) {
+        this(enabled ? store : null, ttl, lockTimeout, cacheSize, System::currentTimeMillis);
+    }
+
+    IdempotencyService(IdempotencyKeyStore store, Duration ttl, Duration lockTimeout, long cacheSize, LongSupplier clock) {
+        this.store = store;
+        this.ttl = ttl;
+        this.lockTimeout = lockTimeout;
+        this.clock = clock;
+        recent = Caffeine.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfter(new RecordExpiry())
+                .build();
+        completions = store == null ? null : Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "idempotency-completion");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static IdempotencyService disabled() {
+        return new IdempotencyService(null, Duration.ZERO, Duration.ZERO, 0, System::currentTimeMillis);
+    }
+
+    public boolean isEnabled() {
+        return store != null;
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if(completions != null) {
+            completions.shutdown();
+            completions.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    //The request being made idempotent. A write-behind request hands its pending write to pendingWrite,
+    //its response then only counts once that write is done.
+    @FunctionalInterface
+    public interface Action {
+        ResponseEntity<Pet> run(Consumer<CompletableFuture<?>> pendingWrite);
+    }
+
+    //Runs action at most once per key; without a key, or when disabled, it just runs it.
+    //A replay carries the stored JSON as a JsonNode tree, so it has exactly the fields the first response was
+    //serialized with, and the message converters still encode it in whatever format the Accept header asks for.
+    public ResponseEntity<?> execute(String key, Pet request, Action action)
+            throws InvalidInputException, IdempotencyKeyReusedException, IdempotencyKeyInProgressException {
+        if(store == null || key == null) {
+            return action.run(pendingWrite -> { });
+        }
+        if(key.isBlank() || key.length() > MAX_KEY_LENGTH) {
+            throw new InvalidInputException("Idempotency-Key must be 1 to " + MAX_KEY_LENGTH + " characters");
+        }
+        //hashed before the action runs, saving fills in the id and uppercases the name
+        String requestHash = hash(request);
+
+        long now = clock.getAsLong();
+        IdempotencyRecord cached = recent.getIfPresent(key);
+        if(cached != null && !cached.isExpired(now)) {
+            cacheReplays.increment();
+            return replay(cached, requestHash);
+        }
+
+        IdempotencyRecord claim = new IdempotencyRecord(key, UUID.randomUUID().toString(), requestHash,
+                IdempotencyRecord.PENDING, 0, null, now + lockTimeout.toMillis(), (now + ttl.toMillis()) / 1000);
+        if(!store.claim(claim)) {
+            IdempotencyRecord existing = store.load(key);
+            if(existing != null && existing.isCompleted() && !existing.isExpired(now)) {
+                recent.put(key, existing);
+                tableReplays.increment();
+                return replay(existing, requestHash);
+            }
+            boolean claimed = existing == null
+                    ? store.claim(claim)
+                    : (existing.isExpired(now) || existing.isAbandoned(now)) && store.takeOver(claim, existing.getClaimToken());
+            if(!claimed) {
+                throw new IdempotencyKeyInProgressException("A request with Idempotency-Key " + key + " is still in progress");
+            }
+        }
+
+        AtomicReference<CompletableFuture<?>> pendingWrite = new AtomicReference<>();
+        ResponseEntity<Pet> response;
+        try {
+            response = action.run(pendingWrite::set);
+        } catch(RuntimeException e) {
+            store.release(claim);
+            throw e;
+        }
+        if(!response.getStatusCode().is2xxSuccessful()) {
+            store.release(claim);
+            return response;
+        }
+
+        claim.setStatus(IdempotencyRecord.COMPLETED);
+        claim.setResponseStatus(response.getStatusCodeValue());
+        claim.setResponseBody(toJson(response.getBody()));
+        if(pendingWrite.get() == null) {
+            complete(claim);
+        } else {
+            pendingWrite.get().whenCompleteAsync((written, failure) -> {
+                if(failure == null) {
+                    complete(claim);
+                } else {
+                    LOGGER.warn("Write-behind of Idempotency-Key {} failed, giving the key back", key);
+                    store.release(claim);
+                }
+            }, completions);
+        }
+        return response;
+    }
+
+    private void complete(IdempotencyRecord claim) {
+        if(store.complete(claim)) {
+            recent.put(claim.getKey(), claim);
+        } else {
+            LOGGER.warn("Idempotency-Key {} was taken over before its response could be stored", claim.getKey());
+        }
+    }
+
+    private ResponseEntity<JsonNode> replay(IdempotencyRecord record, String requestHash) throws IdempotencyKeyReusedException {
+        if(!record.getRequestHash().equals(requestHash)) {
+            throw new IdempotencyKeyReusedException("Idempotency-Key " + record.getKey() + " was used with a different request");
+        }
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(REPLAYED_HEADER, "true");
+        return new ResponseEntity<>(fromJson(record.getResponseBody()), headers, HttpStatus.valueOf(record.getResponseStatus()));
+    }
+
+    private String hash(Pet request) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(objectMapper.writeValueAsBytes(request));
+            return Base64.getEncoder().withoutPadding().encodeToString(digest);
+        } catch(JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        } catch(NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private JsonNode fromJson(String json) {
+        try {
+            return json == null ? null : objectMapper.readTree(json);
+        } catch(JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private String toJson(Pet pet) {
+        try {
+            return pet == null ? null : objectMapper.writeValueAsString(pet);
+        } catch(JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("pets.idempotency.replays", cacheReplays, LongAdder::sum)
+                .tag("source", "cache")
+                .register(registry);
+        FunctionCounter.builder("pets.idempotency.replays", tableReplays, LongAdder::sum)
+                .tag("source", "table")
+                .register(registry);
+    }
+
+    //a completed key stays in memory until the record itself expires, not for ttl from whenever it was loaded
+    private class RecordExpiry implements Expiry<String, IdempotencyRecord> {
+        @Override
+        public long expireAfterCreate(String key, IdempotencyRecord record, long currentTime) {
+            return TimeUnit.MILLISECONDS.toNanos(Math.max(record.getExpiresAt() * 1000 - clock.getAsLong(), 0));
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, IdempotencyRecord record, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, record, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String key, IdempotencyRecord record, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
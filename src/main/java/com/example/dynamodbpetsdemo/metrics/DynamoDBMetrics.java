@@ -0,0 +1,128 @@
+package com.example.dynamodbpetsdemo.metrics;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.metrics.RequestMetricCollector;
+import com.amazonaws.services.dynamodbv2.model.*;
+import com.amazonaws.util.AWSRequestMetrics;
+import com.amazonaws.util.TimingInfo;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+//Records every call the SDK makes to DynamoDB:
+// dynamodb.client.requests       latency per operation, p50/p99
+// dynamodb.client.retries        retried attempts per operation
+// dynamodb.client.throttles      throttled attempts per operation
+// dynamodb.consumed.capacity     capacity units per operation, requested with ReturnConsumedCapacity=TOTAL
+public class DynamoDBMetrics extends RequestHandler2 {
+
+    private final MeterRegistry registry;
+
+    public DynamoDBMetrics(MeterRegistry meterRegistry) {
+        registry = meterRegistry;
+    }
+
+    @Override
+    public AmazonWebServiceRequest beforeExecution(AmazonWebServiceRequest request) {
+        if(request instanceof GetItemRequest) {
+            ((GetItemRequest) request).setReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+        } else if(request instanceof PutItemRequest) {
+            ((PutItemRequest) request).setReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+        } else if(request instanceof UpdateItemRequest) {
+            ((UpdateItemRequest) request).setReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+        } else if(request instanceof DeleteItemRequest) {
+            ((DeleteItemRequest) request).setReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+        } else if(request instanceof ScanRequest) {
+            ((ScanRequest) request).setReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+        } else if(request instanceof QueryRequest) {
+            ((QueryRequest) request).setReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+        } else if(request instanceof BatchGetItemRequest) {
+            ((BatchGetItemRequest) request).setReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+        } else if(request instanceof BatchWriteItemRequest) {
+            ((BatchWriteItemRequest) request).setReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+        } else if(request instanceof TransactWriteItemsRequest) {
+            ((TransactWriteItemsRequest) request).setReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+        }
+        return request;
+    }
+
+    @Override
+    public void afterResponse(Request<?> request, Response<?> response) {
+        String operation = operation(request.getOriginalRequest());
+        for (ConsumedCapacity consumedCapacity : consumedCapacity(response.getAwsResponse())) {
+            if(consumedCapacity != null && consumedCapacity.getCapacityUnits() != null) {
+                registry.counter("dynamodb.consumed.capacity", "operation", operation)
+                        .increment(consumedCapacity.getCapacityUnits());
+            }
+        }
+    }
+
+    public static List<ConsumedCapacity> consumedCapacity(Object result) {
+        if(result instanceof GetItemResult) {
+            return Collections.singletonList(((GetItemResult) result).getConsumedCapacity());
+        } else if(result instanceof PutItemResult) {
+            return Collections.singletonList(((PutItemResult) result).getConsumedCapacity());
+        } else if(result instanceof UpdateItemResult) {
+            return Collections.singletonList(((UpdateItemResult) result).getConsumedCapacity());
+        } else if(result instanceof DeleteItemResult) {
+            return Collections.singletonList(((DeleteItemResult) result).getConsumedCapacity());
+        } else if(result instanceof ScanResult) {
+            return Collections.singletonList(((ScanResult) result).getConsumedCapacity());
+        } else if(result instanceof QueryResult) {
+            return Collections.singletonList(((QueryResult) result).getConsumedCapacity());
+        } else if(result instanceof BatchGetItemResult) {
+            return nullToEmpty(((BatchGetItemResult) result).getConsumedCapacity());
+        } else if(result instanceof BatchWriteItemResult) {
+            return nullToEmpty(((BatchWriteItemResult) result).getConsumedCapacity());
+        } else if(result instanceof TransactWriteItemsResult) {
+            return nullToEmpty(((TransactWriteItemsResult) result).getConsumedCapacity());
+        }
+        return Collections.emptyList();
+    }
+
+    private static List<ConsumedCapacity> nullToEmpty(List<ConsumedCapacity> consumedCapacity) {
+        return consumedCapacity == null ? Collections.emptyList() : consumedCapacity;
+    }
+
+    //GetItemRequest -> GetItem
+    public static String operation(AmazonWebServiceRequest request) {
+        return request.getClass().getSimpleName().replaceFirst("Request$", "");
+    }
+
+    //latency, retries and throttles come from the SDK's own per-request metrics
+    public RequestMetricCollector requestMetricCollector() {
+        return new RequestMetricCollector() {
+            @Override
+            public void collectMetrics(Request<?> request, Response<?> response) {
+                String operation = operation(request.getOriginalRequest());
+                TimingInfo timingInfo = request.getAWSRequestMetrics().getTimingInfo();
+
+                Double millis = timingInfo.getTimeTakenMillisIfKnown();
+                if(millis != null) {
+                    Timer.builder("dynamodb.client.requests")
+                            .tag("operation", operation)
+                            .tag("outcome", response == null ? "error" : "success")
+                            .publishPercentiles(0.5, 0.99)
+                            .register(registry)
+                            .record((long) (millis * 1000), TimeUnit.MICROSECONDS);
+                }
+
+                Number attempts = timingInfo.getCounter(AWSRequestMetrics.Field.RequestCount.name());
+                if(attempts != null && attempts.intValue() > 1) {
+                    registry.counter("dynamodb.client.retries", "operation", operation).increment(attempts.intValue() - 1);
+                }
+
+                Number throttles = timingInfo.getCounter(AWSRequestMetrics.Field.ThrottleException.name());
+                if(throttles != null && throttles.intValue() > 0) {
+                    registry.counter("dynamodb.client.throttles", "operation", operation).increment(throttles.intValue());
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.dynamodbpetsdemo.ratelimit;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+//Token bucket whose refill rate follows DynamoDB's throttling (AIMD): halved on a throttle,
+//raised again a step at a time while calls succeed. Tokens may go negative when a call turns out
+//to cost more capacity than was reserved, later callers then wait for the debt to be refilled.
+public class AdaptiveTokenBucket {
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final double minRate;
+    private final double maxRate;
+    private final double burstSeconds;
+    private final double decreaseFactor;
+    private final double increaseFactor;
+    private final long increaseIntervalNanos;
+    private final LongSupplier nanoClock;
+
+    private double rate;
+    private double tokens;
+    private long lastRefill;
+    private long lastAdjustment;
+
+    public AdaptiveTokenBucket(double initialRate, double minRate, double maxRate, double burstSeconds,
+                               double decreaseFactor, double increaseFactor, long increaseIntervalNanos) {
+        this(initialRate, minRate, maxRate, burstSeconds, decreaseFactor, increaseFactor, increaseIntervalNanos,
+                System::nanoTime);
+    }
+
+    AdaptiveTokenBucket(double initialRate, double minRate, double maxRate, double burstSeconds,
+                        double decreaseFactor, double increaseFactor, long increaseIntervalNanos, LongSupplier nanoClock) {
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.burstSeconds = burstSeconds;
+        this.decreaseFactor = decreaseFactor;
+        this.increaseFactor = increaseFactor;
+        this.increaseIntervalNanos = increaseIntervalNanos;
+        this.nanoClock = nanoClock;
+        rate = Math.max(minRate, Math.min(maxRate, initialRate));
+        lastRefill = nanoClock.getAsLong();
+        lastAdjustment = lastRefill;
+        tokens = capacity();
+    }
+
+    //Takes the permits and returns how many nanos the caller has to wait before using them, 0 when
+    //they are available now. Takes nothing and returns -1 when the wait would be longer than maxWaitNanos.
+    public synchronized long reserve(double permits, long maxWaitNanos) {
+        refill();
+        if(tokens >= permits) {
+            tokens -= permits;
+            return 0;
+        }
+        long waitNanos = (long) Math.ceil((permits - tokens) / rate * NANOS_PER_SECOND);
+        if(waitNanos > maxWaitNanos) {
+            return -1;
+        }
+        tokens -= permits;
+        return waitNanos;
+    }
+
+    //settles the difference between what was reserved and what the call actually consumed
+    public synchronized void charge(double permits) {
+        refill();
+        tokens = Math.min(capacity(), tokens - permits);
+    }
+
+    public synchronized void onThrottle() {
+        refill();
+        rate = Math.max(minRate, rate * decreaseFactor);
+        tokens = Math.min(tokens, 0);
+        lastAdjustment = nanoClock.getAsLong();
+    }
+
+    public synchronized void onSuccess() {
+        long now = nanoClock.getAsLong();
+        if(rate < maxRate && now - lastAdjustment >= increaseIntervalNanos) {
+            refill();
+            rate = Math.min(maxRate, rate * increaseFactor);
+            lastAdjustment = now;
+        }
+    }
+
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    //time until a single permit is available, for Retry-After
+    public synchronized long nanosUntilAvailable() {
+        refill();
+        return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / rate * NANOS_PER_SECOND);
+    }
+
+    private double capacity() {
+        return Math.max(1, rate * burstSeconds);
+    }
+
+    private void refill() {
+        long now = nanoClock.getAsLong();
+        tokens = Math.min(capacity(), tokens + rate * (now - lastRefill) / NANOS_PER_SECOND);
+        lastRefill = now;
+    }
+}
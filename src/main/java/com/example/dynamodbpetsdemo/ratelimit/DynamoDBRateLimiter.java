@@ -0,0 +1,142 @@
+package com.example.dynamodbpetsdemo.ratelimit;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.SdkBaseException;
+import com.amazonaws.handlers.HandlerAfterAttemptContext;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.retry.RetryUtils;
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
+import com.example.dynamodbpetsdemo.config.DynamoDBRateLimitProperties;
+import com.example.dynamodbpetsdemo.exception.ThroughputLimitExceededException;
+import com.example.dynamodbpetsdemo.metrics.DynamoDBMetrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+//Client side read and write budgets in front of every DynamoDB call, so a traffic spike queues
+//or fails fast here instead of turning into a retry storm inside the SDK.
+//Each call reserves one capacity unit up front and settles the rest from the consumed capacity
+//in the response. Throttled attempts cut the bucket's rate, successful calls slowly raise it again.
+//Scans draw from their own bucket, so the debt a scan page leaves behind only delays the next page
+//and never the point reads and queries serving requests.
+// dynamodb.ratelimit.rate        current rate per bucket, capacity units per second
+// dynamodb.ratelimit.wait        time spent queued for capacity
+// dynamodb.ratelimit.rejected    calls rejected without reaching DynamoDB
+public class DynamoDBRateLimiter extends RequestHandler2 {
+
+    private static final Set<String> READS = Set.of("GetItem", "BatchGetItem", "Query", "TransactGetItems");
+    private static final Set<String> SCANS = Set.of("Scan");
+    private static final Set<String> WRITES = Set.of("PutItem", "UpdateItem", "DeleteItem", "BatchWriteItem", "TransactWriteItems");
+
+    private final Limit read;
+    private final Limit write;
+    private final Limit scan;
+
+    public DynamoDBRateLimiter(DynamoDBRateLimitProperties properties, MeterRegistry registry) {
+        read = new Limit("read", properties, properties.getRead(), registry);
+        write = new Limit("write", properties, properties.getWrite(), registry);
+        scan = new Limit("scan", properties, properties.getScan(), registry);
+    }
+
+    //a bucket with its wait limit and meters
+    private static class Limit {
+        private final String type;
+        private final AdaptiveTokenBucket bucket;
+        private final long maxWaitNanos;
+        private final Timer wait;
+        private final Counter rejected;
+
+        Limit(String type, DynamoDBRateLimitProperties properties, DynamoDBRateLimitProperties.Bucket bucket,
+              MeterRegistry registry) {
+            this.type = type;
+            this.bucket = new AdaptiveTokenBucket(bucket.getInitialRate(), bucket.getMinRate(), bucket.getMaxRate(),
+                    bucket.getBurst().toMillis() / 1000.0, properties.getDecreaseFactor(), properties.getIncreaseFactor(),
+                    properties.getIncreaseInterval().toNanos());
+            if(bucket.getMaxWait() != null) {
+                maxWaitNanos = bucket.getMaxWait().toNanos();
+            } else {
+                maxWaitNanos = properties.getPolicy() == DynamoDBRateLimitProperties.Policy.SHED ? 0 : properties.getMaxWait().toNanos();
+            }
+            Gauge.builder("dynamodb.ratelimit.rate", this.bucket, AdaptiveTokenBucket::getRate).tag("type", type).register(registry);
+            wait = registry.timer("dynamodb.ratelimit.wait", "type", type);
+            rejected = registry.counter("dynamodb.ratelimit.rejected", "type", type);
+        }
+    }
+
+    @Override
+    public AmazonWebServiceRequest beforeExecution(AmazonWebServiceRequest request) {
+        String operation = DynamoDBMetrics.operation(request);
+        Limit limit = limit(operation);
+        if(limit == null) {
+            return request;
+        }
+
+        long waitNanos = limit.bucket.reserve(1, limit.maxWaitNanos);
+        if(waitNanos < 0) {
+            limit.rejected.increment();
+            throw new ThroughputLimitExceededException("No DynamoDB " + limit.type + " capacity left for " + operation,
+                    Duration.ofNanos(limit.bucket.nanosUntilAvailable()));
+        }
+        if(waitNanos > 0) {
+            limit.wait.record(waitNanos, TimeUnit.NANOSECONDS);
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ThroughputLimitExceededException("Interrupted while waiting for DynamoDB capacity", Duration.ZERO);
+            }
+        }
+        return request;
+    }
+
+    //called for every attempt, so throttles the SDK retries away internally still slow the bucket down
+    @Override
+    public void afterAttempt(HandlerAfterAttemptContext context) {
+        Exception exception = context.getException();
+        if(exception instanceof SdkBaseException && RetryUtils.isThrottlingException((SdkBaseException) exception)) {
+            Limit limit = limit(DynamoDBMetrics.operation(context.getRequest().getOriginalRequest()));
+            if(limit != null) {
+                limit.bucket.onThrottle();
+            }
+        }
+    }
+
+    @Override
+    public void afterResponse(Request<?> request, Response<?> response) {
+        Limit limit = limit(DynamoDBMetrics.operation(request.getOriginalRequest()));
+        if(limit == null) {
+            return;
+        }
+
+        double consumed = 0;
+        boolean reported = false;
+        for (ConsumedCapacity consumedCapacity : DynamoDBMetrics.consumedCapacity(response.getAwsResponse())) {
+            if(consumedCapacity != null && consumedCapacity.getCapacityUnits() != null) {
+                consumed += consumedCapacity.getCapacityUnits();
+                reported = true;
+            }
+        }
+        if(reported) {
+            limit.bucket.charge(consumed - 1);
+        }
+        limit.bucket.onSuccess();
+    }
+
+    private Limit limit(String operation) {
+        if(READS.contains(operation)) {
+            return read;
+        } else if(SCANS.contains(operation)) {
+            return scan;
+        } else if(WRITES.contains(operation)) {
+            return write;
+        }
+        return null;
+    }
+}
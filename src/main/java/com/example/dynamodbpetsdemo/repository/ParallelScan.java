@@ -0,0 +1,174 @@
+package com.example.dynamodbpetsdemo.repository;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBScanExpression;
+import com.amazonaws.services.dynamodbv2.datamodeling.ScanResultPage;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Supplier;
+
+//Runs one task per scan segment and hands their pages to a single consumer through a bounded queue,
+//so memory stays at a few pages per segment.
+//The executor is shared by every scan, so a segment never waits on a full queue while holding a thread:
+//it parks its page and gives the thread back, and the consumer resubmits it once it has taken a page.
+//A consumer that stops reading then only holds its own pages, the other scans keep the threads.
+class ParallelScan<T> implements Iterator<T>, AutoCloseable {
+
+    //marks the end of one segment
+    private static final List<Object> END_OF_SEGMENT = Collections.emptyList();
+
+    private final DynamoDBMapper mapper;
+    private final Class<T> type;
+    private final Supplier<DynamoDBScanExpression> expressionFactory;
+    private final int totalSegments;
+    private final ExecutorService executor;
+
+    private final BlockingQueue<List<?>> pages;
+    //segments waiting for room in pages
+    private final Queue<Segment> parked = new ConcurrentLinkedQueue<>();
+    private int runningSegments;
+    private volatile boolean closed;
+    private volatile RuntimeException failure;
+    private Iterator<T> current = Collections.emptyIterator();
+
+    ParallelScan(DynamoDBMapper mapper, Class<T> type, Supplier<DynamoDBScanExpression> expressionFactory,
+                 int totalSegments, ExecutorService executor) {
+        this.mapper = mapper;
+        this.type = type;
+        this.expressionFactory = expressionFactory;
+        this.totalSegments = totalSegments;
+        this.executor = executor;
+        pages = new ArrayBlockingQueue<>(totalSegments * 2);
+        runningSegments = totalSegments;
+        for (int segment = 0; segment < totalSegments; segment++) {
+            executor.execute(new Segment(segment));
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean hasNext() {
+        while(!current.hasNext()) {
+            if(closed || runningSegments == 0) {
+                return false;
+            }
+
+            List<?> page;
+            try {
+                page = pages.take();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+                throw new IllegalStateException("Interrupted while waiting for scan results", e);
+            }
+            //there is room for a page again
+            Segment waiting = parked.poll();
+            if(waiting != null) {
+                executor.execute(waiting);
+            }
+
+            if(failure != null) {
+                close();
+                throw failure;
+            }
+            if(page == END_OF_SEGMENT) {
+                runningSegments--;
+            } else {
+                current = ((List<T>) page).iterator();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if(!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    //Stops the segments, safe to call more than once. A page request already in flight still
+    //completes, its segment stops after that.
+    @Override
+    public void close() {
+        closed = true;
+        parked.clear();
+        pages.clear();
+        current = Collections.emptyIterator();
+    }
+
+    //Scans one segment a page at a time. Only ever run by one thread at a time: it is either
+    //running, parked, or queued on the executor.
+    private class Segment implements Runnable {
+        private final int segment;
+        private Map<String, AttributeValue> startKey;
+        private boolean finished;
+        private boolean ended;
+        //the next page to hand over, or END_OF_SEGMENT
+        private List<?> pending;
+
+        private Segment(int segment) {
+            this.segment = segment;
+        }
+
+        @Override
+        public void run() {
+            while(!closed) {
+                if(pending == null) {
+                    if(ended) {
+                        return;
+                    }
+                    if(finished) {
+                        pending = END_OF_SEGMENT;
+                        ended = true;
+                    } else {
+                        pending = scanPage();
+                        if(pending.isEmpty()) {
+                            pending = null;
+                            continue;
+                        }
+                    }
+                }
+                if(pages.offer(pending)) {
+                    pending = null;
+                } else {
+                    parked.add(this);
+                    //the consumer may have taken a page between the offer and parking, without seeing us
+                    if(pages.remainingCapacity() == 0 || !parked.remove(this)) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        private List<?> scanPage() {
+            try {
+                DynamoDBScanExpression scanExpression = expressionFactory.get()
+                        .withSegment(segment)
+                        .withTotalSegments(totalSegments)
+                        .withExclusiveStartKey(startKey);
+                ScanResultPage<T> page = mapper.scanPage(type, scanExpression);
+                startKey = page.getLastEvaluatedKey();
+                if(startKey == null || startKey.isEmpty()) {
+                    finished = true;
+                }
+                return page.getResults();
+            } catch(RuntimeException e) {
+                failure = e;
+                finished = true;
+                return Collections.emptyList();
+            }
+        }
+    }
+}
@@ -1,55 +1,545 @@
 package com.example.dynamodbpetsdemo.repository;
 
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
-import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBSaveExpression;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper.FailedBatch;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperFieldModel;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperTableModel;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBScanExpression;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTable;
+import com.amazonaws.services.dynamodbv2.datamodeling.QueryResultPage;
+import com.amazonaws.services.dynamodbv2.datamodeling.ScanResultPage;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
-import com.amazonaws.services.dynamodbv2.model.ExpectedAttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionCheck;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.Delete;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.ReturnValue;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItem;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItemsRequest;
+import com.amazonaws.services.dynamodbv2.model.TransactionCanceledException;
+import com.amazonaws.services.dynamodbv2.model.Update;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+import com.example.dynamodbpetsdemo.dto.PetTransactionAction;
+import com.example.dynamodbpetsdemo.dto.PetTransactionItem;
 import com.example.dynamodbpetsdemo.entity.Pet;
+import com.example.dynamodbpetsdemo.exception.VersionMismatchException;
+import io.micrometer.core.annotation.Timed;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.stereotype.Repository;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 @Repository
 public class PetRepo  {
+    //service limits for a single BatchWriteItem / BatchGetItem call
+    public static final int MAX_BATCH_WRITE_ITEMS = 25;
+    public static final int MAX_BATCH_GET_ITEMS = 100;
+    //and for a single TransactWriteItems call
+    public static final int MAX_TRANSACTION_ITEMS = 100;
+
+    public static final String TABLE_NAME = Pet.class.getAnnotation(DynamoDBTable.class).tableName();
+    //attributes of the LastEvaluatedKey of a table scan and of a name-age index query
+    public static final Set<String> TABLE_KEY = Set.of("id");
+    public static final Set<String> NAME_AGE_INDEX_KEY = Set.of("id", "name", "age");
+    public static final String UPDATED_AT = "updatedAt";
+    private static final String ITEM_EXISTS = "attribute_exists(id)";
+
     private DynamoDBMapper dynamoDBMapper;
+    private AmazonDynamoDB amazonDynamoDB;
+    private ExecutorService scanExecutor;
+    private int scanSegments;
 
     @Autowired
-    public PetRepo(DynamoDBMapper mapper) {
+    public PetRepo(DynamoDBMapper mapper,
+                   AmazonDynamoDB client,
+                   @Qualifier("petScanExecutor") ExecutorService executor,
+                   @Value("${aws.dynamodb.scan.segments:4}") int segments) {
         dynamoDBMapper = mapper;
+        amazonDynamoDB = client;
+        scanExecutor = executor;
+        scanSegments = segments;
     }
 
+    @Timed(value = "pets.repo", percentiles = {0.5, 0.99})
     public Pet save(Pet pet) {
+        //a client supplied id without a version replaces whatever is stored, like before versioning,
+        //but through an UpdateItem so the stored version keeps counting up instead of restarting at 1
+        if(pet.getId() != null && pet.getVersion() == null) {
+            Pet savedPet = updateItem(pet.getId(), pet, false, null);
+            pet.setVersion(savedPet.getVersion());
+            return pet;
+        }
         dynamoDBMapper.save(pet);
         return pet;
     }
 
+    @Timed(value = "pets.repo", percentiles = {0.5, 0.99})
     public Pet findById(String id) {
         return dynamoDBMapper.load(Pet.class, id);
     }
 
+    @Timed(value = "pets.repo", percentiles = {0.5, 0.99})
     public List<Pet> findAll() {
         return dynamoDBMapper.scan(Pet.class, new DynamoDBScanExpression());
     }
 
+    //Full scan that only reads the given attributes and only returns pets at least minAge old, both optional.
+    //Unprojected attributes are left unset on the returned pets. The filter is applied by DynamoDB after
+    //reading, so it saves network and unmarshalling but not read capacity.
+    @Timed(value = "pets.repo", percentiles = {0.5, 0.99})
+    public List<Pet> findAll(Collection<String> attributes, Integer minAge) {
+        DynamoDBScanExpression scanExpression = new DynamoDBScanExpression();
+        Map<String, String> names = new HashMap<>();
+        if(attributes != null && !attributes.isEmpty()) {
+            scanExpression.withProjectionExpression(projection(attributes, names));
+        }
+        if(minAge != null) {
+            names.put("#minAge", "age");
+            scanExpression.withFilterExpression("#minAge >= :minAge")
+                    .withExpressionAttributeValues(Collections.singletonMap(":minAge",
+                            new AttributeValue().withN(minAge.toString())));
+        }
+        if(!names.isEmpty()) {
+            scanExpression.withExpressionAttributeNames(names);
+        }
+        return dynamoDBMapper.scan(Pet.class, scanExpression);
+    }
+
+    //one Scan call, returns at most limit pets plus the key to continue from
+    @Timed(value = "pets.repo", percentiles = {0.5, 0.99})
+    public ScanResultPage<Pet> findPage(int limit, Map<String, AttributeValue> exclusiveStartKey) {
+        DynamoDBScanExpression scanExpression = new DynamoDBScanExpression()
+                .withLimit(limit)
+                .withExclusiveStartKey(exclusiveStartKey);
+        return dynamoDBMapper.scanPage(Pet.class, scanExpression);
+    }
+
+    //One Query page on the name-age index, minAge and maxAge are optional bounds on the range key.
+    //The index is eventually consistent, so a pet saved a moment ago may not show up yet.
+    @Timed(value = "pets.repo", percentiles = {0.5, 0.99})
+    public QueryResultPage<Pet> findPageByName(String name, Integer minAge, Integer maxAge, int limit,
+                                               Map<String, AttributeValue> exclusiveStartKey) {
+        Map<String, String> names = new HashMap<>();
+        Map<String, AttributeValue> values = new HashMap<>();
+        names.put("#name", "name");
+        values.put(":name", new AttributeValue().withS(name));
+
+        String keyCondition = "#name = :name";
+        if(minAge != null || maxAge != null) {
+            names.put("#age", "age");
+        }
+        if(minAge != null && maxAge != null) {
+            keyCondition += " AND #age BETWEEN :minAge AND :maxAge";
+        } else if(minAge != null) {
+            keyCondition += " AND #age >= :minAge";
+        } else if(maxAge != null) {
+            keyCondition += " AND #age <= :maxAge";
+        }
+        if(minAge != null) {
+            values.put(":minAge", new AttributeValue().withN(minAge.toString()));
+        }
+        if(maxAge != null) {
+            values.put(":maxAge", new AttributeValue().withN(maxAge.toString()));
+        }
+
+        DynamoDBQueryExpression<Pet> queryExpression = new DynamoDBQueryExpression<Pet>()
+                .withIndexName(Pet.NAME_AGE_INDEX)
+                .withConsistentRead(false)
+                .withKeyConditionExpression(keyCondition)
+                .withExpressionAttributeNames(names)
+                .withExpressionAttributeValues(values)
+                .withLimit(limit)
+                .withExclusiveStartKey(exclusiveStartKey);
+        return dynamoDBMapper.queryPage(Pet.class, queryExpression);
+    }
+
+    public Stream<Pet> parallelScan() {
+        return parallelScan(DynamoDBScanExpression::new, scanSegments);
+    }
+
+    //parallel scan that only reads the given attributes, the rest are left unset on the returned pets
+    public Stream<Pet> parallelScan(Collection<String> attributes) {
+        return parallelScan(() -> {
+            Map<String, String> names = new HashMap<>();
+            return new DynamoDBScanExpression()
+                    .withProjectionExpression(projection(attributes, names))
+                    .withExpressionAttributeNames(names);
+        }, scanSegments);
+    }
+
+    //Splits the table into totalSegments and scans them concurrently on the scan executor.
+    //The returned stream must be closed, otherwise unfinished segments stay parked with their pages.
+    //Not @Timed since the scan happens while the stream is consumed, the per-Scan-call latency
+    //shows up in dynamodb.client.requests instead.
+    public Stream<Pet> parallelScan(Supplier<DynamoDBScanExpression> expressionFactory, int totalSegments) {
+        ParallelScan<Pet> scan = new ParallelScan<>(dynamoDBMapper, Pet.class, expressionFactory, totalSegments, scanExecutor);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(scan, Spliterator.NONNULL), false)
+                .onClose(scan::close);
+    }
+
+    //Single conditional UpdateItem, returns null instead of creating the pet when the id doesn't exist.
+    //Modeled attributes that are null on the given pet are removed, the same as a mapper save would do.
+    @Timed(value = "pets.repo", percentiles = {0.5, 0.99})
     public Pet update(String id, Pet pet) {
-        dynamoDBMapper.save(pet, new DynamoDBSaveExpression().withExpectedEntry("id", new ExpectedAttributeValue(new AttributeValue().withS(id))));
-        return pet;
+        try {
+            return updateItem(id, pet, true, null);
+        } catch(ConditionalCheckFailedException e) {
+            return null;
+        }
+    }
+
+    //Same as update, but only applied while the stored version is still expectedVersion. A failed
+    //condition costs one consistent read to tell a missing pet (null) apart from a stale version.
+    @Timed(value = "pets.repo", percentiles = {0.5, 0.99})
+    public Pet update(String id, Pet pet, long expectedVersion) throws VersionMismatchException {
+        try {
+            return updateItem(id, pet, true, expectedVersion);
+        } catch(ConditionalCheckFailedException e) {
+            if(dynamoDBMapper.load(Pet.class, id, DynamoDBMapperConfig.ConsistentReads.CONSISTENT.config()) == null) {
+                return null;
+            }
+            throw new VersionMismatchException("Pet " + id + " is no longer at version " + expectedVersion);
+        }
+    }
+
+    private Pet updateItem(String id, Pet pet, boolean mustExist, Long expectedVersion) {
+        UpdateItemRequest request = updateRequest(id, pet, mustExist, expectedVersion)
+                .withReturnValues(ReturnValue.ALL_NEW);
+        return dynamoDBMapper.getTableModel(Pet.class).unconvert(amazonDynamoDB.updateItem(request).getAttributes());
+    }
+
+    private UpdateItemRequest updateRequest(String id, Pet pet, boolean mustExist, Long expectedVersion) {
+        pet.setId(id);
+        //the mapper only fills in auto generated timestamps on its own saves
+        pet.setUpdatedAt(System.currentTimeMillis());
+        DynamoDBMapperTableModel<Pet> model = dynamoDBMapper.getTableModel(Pet.class);
+
+        List<String> setActions = new ArrayList<>();
+        List<String> removeActions = new ArrayList<>();
+        Map<String, String> names = new HashMap<>();
+        Map<String, AttributeValue> values = new HashMap<>();
+        String versionName = null;
+        for (DynamoDBMapperFieldModel<Pet, Object> field : model.fields()) {
+            if(field.keyType() != null) {
+                continue;
+            }
+            String placeholder = "a" + names.size();
+            names.put("#" + placeholder, field.name());
+            if(field.versioned()) {
+                //bumped by the ADD below whatever the client sent, ADD also starts pets saved before versioning at 1
+                versionName = "#" + placeholder;
+                continue;
+            }
+            AttributeValue value = field.getAndConvert(pet);
+            if(value != null) {
+                setActions.add("#" + placeholder + " = :" + placeholder);
+                values.put(":" + placeholder, value);
+            } else {
+                removeActions.add("#" + placeholder);
+            }
+        }
+
+        String updateExpression = "";
+        if(!setActions.isEmpty()) {
+            updateExpression += "SET " + String.join(", ", setActions);
+        }
+        if(!removeActions.isEmpty()) {
+            updateExpression += " REMOVE " + String.join(", ", removeActions);
+        }
+        String condition = mustExist || expectedVersion != null ? ITEM_EXISTS : null;
+        if(versionName != null) {
+            updateExpression += " ADD " + versionName + " :versionIncrement";
+            values.put(":versionIncrement", new AttributeValue().withN("1"));
+            if(expectedVersion != null) {
+                condition += " AND " + versionName + " = :expectedVersion";
+                values.put(":expectedVersion", new AttributeValue().withN(expectedVersion.toString()));
+            }
+        }
+
+        return new UpdateItemRequest()
+                .withTableName(TABLE_NAME)
+                .withKey(key(id))
+                .withUpdateExpression(updateExpression.trim())
+                .withConditionExpression(condition)
+                .withExpressionAttributeNames(names)
+                .withExpressionAttributeValues(values.isEmpty() ? null : values);
     }
+
+    //Single conditional DeleteItem that hands back the deleted pet, or null when there was nothing to delete.
+    @Timed(value = "pets.repo", percentiles = {0.5, 0.99})
     public Pet delete(String id) {
-        //dynamoDBMapper.delete(id);
-        Pet pet = findById(id);
-        if(pet != null) {
-            dynamoDBMapper.delete(pet);
-            return pet;
-        } else {
+        DeleteItemRequest request = new DeleteItemRequest()
+                .withTableName(TABLE_NAME)
+                .withKey(key(id))
+                .withConditionExpression(ITEM_EXISTS)
+                .withReturnValues(ReturnValue.ALL_OLD);
+        try {
+            return dynamoDBMapper.getTableModel(Pet.class).unconvert(amazonDynamoDB.deleteItem(request).getAttributes());
+        } catch(ConditionalCheckFailedException e) {
             return null;
         }
     }
 
+    //Deletes the pet only while it still carries the given updatedAt, so a write that landed after it was
+    //read keeps the pet. False when it changed or is gone.
+    @Timed(value = "pets.repo", percentiles = {0.5, 0.99})
+    public boolean deleteIfNotUpdatedSince(String id, long updatedAt) {
+        DeleteItemRequest request = new DeleteItemRequest()
+                .withTableName(TABLE_NAME)
+                .withKey(key(id))
+                .withConditionExpression(ITEM_EXISTS + " AND #updatedAt = :updatedAt")
+                .withExpressionAttributeNames(Collections.singletonMap("#updatedAt", UPDATED_AT))
+                .withExpressionAttributeValues(Collections.singletonMap(":updatedAt",
+                        new AttributeValue().withN(Long.toString(updatedAt))));
+        try {
+            amazonDynamoDB.deleteItem(request);
+            return true;
+        } catch(ConditionalCheckFailedException e) {
+            return false;
+        }
+    }
+
+    //Gives a pet written before updatedAt existed one, without bumping its version since nothing the client
+    //sent changed. False when the pet is gone or already has one.
+    @Timed(value = "pets.repo", percentiles = {0.5, 0.99})
+    public boolean stampUpdatedAt(String id, long updatedAt) {
+        UpdateItemRequest request = new UpdateItemRequest()
+                .withTableName(TABLE_NAME)
+                .withKey(key(id))
+                .withUpdateExpression("SET #updatedAt = :updatedAt")
+                .withConditionExpression(ITEM_EXISTS + " AND attribute_not_exists(#updatedAt)")
+                .withExpressionAttributeNames(Collections.singletonMap("#updatedAt", UPDATED_AT))
+                .withExpressionAttributeValues(Collections.singletonMap(":updatedAt",
+                        new AttributeValue().withN(Long.toString(updatedAt))));
+        try {
+            amazonDynamoDB.updateItem(request);
+            return true;
+        } catch(ConditionalCheckFailedException e) {
+            return false;
+        }
+    }
+
+    //Writes all items in one TransactWriteItems call, or none of them. Puts and updates go through the same
+    //UpdateItem expression as update, so versions keep counting up. DynamoDB treats a retry with the same
+    //clientRequestToken within 10 minutes as the same transaction and doesn't apply it again.
+    //Throws TransactionCanceledException, with one cancellation reason per item, when a condition failed
+    //or another transaction touched one of the pets.
+    @Timed(value = "pets.repo", percentiles = {0.5, 0.99})
+    public void transactWrite(List<PetTransactionItem> items, String clientRequestToken) {
+        List<TransactWriteItem> transactItems = new ArrayList<>();
+        for (PetTransactionItem item : items) {
+            transactItems.add(transactWriteItem(item));
+        }
+        amazonDynamoDB.transactWriteItems(new TransactWriteItemsRequest()
+                .withTransactItems(transactItems)
+                .withClientRequestToken(clientRequestToken));
+    }
+
+    private TransactWriteItem transactWriteItem(PetTransactionItem item) {
+        switch (item.getAction()) {
+            case PUT:
+            case UPDATE:
+                return transactUpdate(updateRequest(item.getId(), item.getPet(),
+                        item.getAction() == PetTransactionAction.UPDATE, item.getExpectedVersion()));
+            case DELETE:
+            case CONDITION_CHECK: {
+                Map<String, String> names = new HashMap<>();
+                Map<String, AttributeValue> values = new HashMap<>();
+                String condition = ITEM_EXISTS;
+                if(item.getExpectedVersion() != null) {
+                    names.put("#version", versionAttribute());
+                    values.put(":expectedVersion", new AttributeValue().withN(item.getExpectedVersion().toString()));
+                    condition += " AND #version = :expectedVersion";
+                }
+                if(item.getAction() == PetTransactionAction.DELETE) {
+                    return new TransactWriteItem().withDelete(new Delete()
+                            .withTableName(TABLE_NAME)
+                            .withKey(key(item.getId()))
+                            .withConditionExpression(condition)
+                            .withExpressionAttributeNames(names.isEmpty() ? null : names)
+                            .withExpressionAttributeValues(values.isEmpty() ? null : values));
+                }
+                return new TransactWriteItem().withConditionCheck(new ConditionCheck()
+                        .withTableName(TABLE_NAME)
+                        .withKey(key(item.getId()))
+                        .withConditionExpression(condition)
+                        .withExpressionAttributeNames(names.isEmpty() ? null : names)
+                        .withExpressionAttributeValues(values.isEmpty() ? null : values));
+            }
+            default:
+                throw new IllegalArgumentException("Unsupported transaction action: " + item.getAction());
+        }
+    }
+
+    private static TransactWriteItem transactUpdate(UpdateItemRequest request) {
+        return new TransactWriteItem().withUpdate(new Update()
+                .withTableName(TABLE_NAME)
+                .withKey(request.getKey())
+                .withUpdateExpression(request.getUpdateExpression())
+                .withConditionExpression(request.getConditionExpression())
+                .withExpressionAttributeNames(request.getExpressionAttributeNames())
+                .withExpressionAttributeValues(request.getExpressionAttributeValues()));
+    }
+
+    private String versionAttribute() {
+        for (DynamoDBMapperFieldModel<Pet, Object> field : dynamoDBMapper.getTableModel(Pet.class).fields()) {
+            if(field.versioned()) {
+                return field.name();
+            }
+        }
+        throw new IllegalStateException("Pet has no version attribute");
+    }
+
+    //placeholders instead of raw names, since attributes like name and age are reserved words
+    private static String projection(Collection<String> attributes, Map<String, String> names) {
+        List<String> projection = new ArrayList<>();
+        for (String attribute : attributes) {
+            String placeholder = "#p" + names.size();
+            names.put(placeholder, attribute);
+            projection.add(placeholder);
+        }
+        return String.join(", ", projection);
+    }
+
+    private static Map<String, AttributeValue> key(String id) {
+        return Collections.singletonMap("id", new AttributeValue().withS(id));
+    }
+
+    //Writes pets in transactions of up to 100, each pet through the same UpdateItem expression as save, so its
+    //version keeps counting up: a BatchWriteItem put can't bump it and would store the pet without one.
+    //That costs twice the write capacity of a batch write. A transaction can't touch a pet twice, so of
+    //pets sharing an id only the last is written. The written versions are read back onto the pets; a write
+    //landing right after can make one a later version, which is safe for If-Match.
+    //Returns the ids of pets whose transaction was cancelled, e.g. by a conflicting write, to be retried.
+    @Timed(value = "pets.repo", percentiles = {0.5, 0.99})
+    public List<String> batchSave(List<Pet> pets) {
+        Map<String, Pet> latest = new LinkedHashMap<>();
+        for (Pet pet : pets) {
+            //do what @DynamoDBAutoGeneratedKey would
+            if(pet.getId() == null) {
+                pet.setId(UUID.randomUUID().toString());
+            }
+            latest.put(pet.getId(), pet);
+        }
+
+        List<String> failedIds = new ArrayList<>();
+        for (List<Pet> chunk : chunks(new ArrayList<>(latest.values()), MAX_TRANSACTION_ITEMS)) {
+            List<TransactWriteItem> transactItems = new ArrayList<>();
+            List<String> ids = new ArrayList<>();
+            for (Pet pet : chunk) {
+                transactItems.add(transactUpdate(updateRequest(pet.getId(), pet, false, null)));
+                ids.add(pet.getId());
+            }
+            try {
+                amazonDynamoDB.transactWriteItems(new TransactWriteItemsRequest().withTransactItems(transactItems));
+            } catch(TransactionCanceledException e) {
+                failedIds.addAll(ids);
+                continue;
+            }
+            Map<String, Long> versions = findVersions(ids);
+            for (Pet pet : chunk) {
+                pet.setVersion(versions.get(pet.getId()));
+            }
+        }
+        return failedIds;
+    }
+
+    //loads pets in chunks of 100, ids that don't exist are simply missing from the map
+    @Timed(value = "pets.repo", percentiles = {0.5, 0.99})
+    public Map<String, Pet> batchLoad(List<String> ids) {
+        return batchLoad(ids, DynamoDBMapperConfig.DEFAULT);
+    }
+
+    //the stored version of each pet, read consistently so it reflects a write that just completed
+    @Timed(value = "pets.repo", percentiles = {0.5, 0.99})
+    public Map<String, Long> findVersions(List<String> ids) {
+        Map<String, Long> versions = new HashMap<>();
+        batchLoad(ids, DynamoDBMapperConfig.ConsistentReads.CONSISTENT.config())
+                .forEach((id, pet) -> versions.put(id, pet.getVersion()));
+        return versions;
+    }
+
+    private Map<String, Pet> batchLoad(List<String> ids, DynamoDBMapperConfig config) {
+        Map<String, Pet> pets = new HashMap<>();
+        for (List<String> chunk : chunks(ids, MAX_BATCH_GET_ITEMS)) {
+            List<Object> keys = new ArrayList<>();
+            for (String id : chunk) {
+                Pet key = new Pet();
+                key.setId(id);
+                keys.add(key);
+            }
+
+            for (List<Object> tableResults : dynamoDBMapper.batchLoad(keys, config).values()) {
+                for (Object result : tableResults) {
+                    Pet pet = (Pet) result;
+                    pets.put(pet.getId(), pet);
+                }
+            }
+        }
+        return pets;
+    }
+
+    //deletes pets in chunks of 25 and returns the ids that could not be deleted
+    @Timed(value = "pets.repo", percentiles = {0.5, 0.99})
+    public List<String> batchDelete(List<String> ids) {
+        List<String> failedIds = new ArrayList<>();
+        for (List<String> chunk : chunks(ids, MAX_BATCH_WRITE_ITEMS)) {
+            List<Pet> keys = new ArrayList<>();
+            for (String id : chunk) {
+                Pet key = new Pet();
+                key.setId(id);
+                keys.add(key);
+            }
+            failedIds.addAll(failedIds(dynamoDBMapper.batchDelete(keys)));
+        }
+        return failedIds;
+    }
+
+    private static List<String> failedIds(List<FailedBatch> failedBatches) {
+        List<String> ids = new ArrayList<>();
+        for (FailedBatch failedBatch : failedBatches) {
+            for (List<WriteRequest> writeRequests : failedBatch.getUnprocessedItems().values()) {
+                for (WriteRequest writeRequest : writeRequests) {
+                    Map<String, AttributeValue> key = writeRequest.getPutRequest() != null
+                            ? writeRequest.getPutRequest().getItem()
+                            : writeRequest.getDeleteRequest().getKey();
+                    ids.add(key.get("id").getS());
+                }
+            }
+        }
+        return ids;
+    }
+
+    private static <T> List<List<T>> chunks(List<T> items, int size) {
+        List<List<T>> chunks = new ArrayList<>();
+        for (int i = 0; i < items.size(); i += size) {
+            chunks.add(items.subList(i, Math.min(i + size, items.size())));
+        }
+        return chunks;
+    }
+
+    @Timed(value = "pets.repo", percentiles = {0.5, 0.99})
     public int getAge(String id) {
         Pet pet = findById(id);
         return pet.getAge();
@@ -0,0 +1,96 @@
+package com.example.dynamodbpetsdemo.service;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.example.dynamodbpetsdemo.exception.InvalidInputException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+//Turns a DynamoDB LastEvaluatedKey into an opaque url-safe token and back.
+//Only string and number key attributes are supported since those are the only key types we use.
+public class PageCursorCodec {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private PageCursorCodec() {
+    }
+
+    public static String encode(Map<String, AttributeValue> key) {
+        if(key == null || key.isEmpty()) {
+            return null;
+        }
+
+        Map<String, Map<String, String>> plain = new HashMap<>();
+        for (Map.Entry<String, AttributeValue> entry : key.entrySet()) {
+            AttributeValue value = entry.getValue();
+            Map<String, String> typed = new HashMap<>();
+            if(value.getS() != null) {
+                typed.put("S", value.getS());
+            } else if(value.getN() != null) {
+                typed.put("N", value.getN());
+            } else {
+                throw new IllegalArgumentException("Unsupported key attribute type for " + entry.getKey());
+            }
+            plain.put(entry.getKey(), typed);
+        }
+
+        try {
+            byte[] json = OBJECT_MAPPER.writeValueAsBytes(plain);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(json);
+        } catch(JsonProcessingException e) {
+            throw new IllegalStateException("Could not encode page cursor", e);
+        }
+    }
+
+    //A cursor has to decode to exactly the given key attributes, each a non-null string or a number; anything
+    //else is rejected here instead of failing as a DynamoDB validation error once it is used as a start key.
+    public static Map<String, AttributeValue> decode(String cursor, Set<String> keyAttributes) throws InvalidInputException {
+        if(cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+
+        Map<String, Map<String, String>> plain;
+        try {
+            byte[] json = Base64.getUrlDecoder().decode(cursor);
+            plain = OBJECT_MAPPER.readValue(new String(json, StandardCharsets.UTF_8),
+                    new TypeReference<Map<String, Map<String, String>>>() {});
+        } catch(IllegalArgumentException | JsonProcessingException e) {
+            throw new InvalidInputException("Invalid page cursor");
+        }
+        if(plain == null || !plain.keySet().equals(keyAttributes)) {
+            throw new InvalidInputException("Invalid page cursor");
+        }
+
+        Map<String, AttributeValue> key = new HashMap<>();
+        for (Map.Entry<String, Map<String, String>> entry : plain.entrySet()) {
+            Map<String, String> typed = entry.getValue();
+            if(typed == null || typed.size() != 1) {
+                throw new InvalidInputException("Invalid page cursor");
+            }
+            if(typed.get("S") != null) {
+                key.put(entry.getKey(), new AttributeValue().withS(typed.get("S")));
+            } else if(typed.get("N") != null && isNumber(typed.get("N"))) {
+                key.put(entry.getKey(), new AttributeValue().withN(typed.get("N")));
+            } else {
+                throw new InvalidInputException("Invalid page cursor");
+            }
+        }
+        return key;
+    }
+
+    private static boolean isNumber(String value) {
+        try {
+            new BigDecimal(value);
+            return true;
+        } catch(NumberFormatException e) {
+            return false;
+        }
+    }
+}
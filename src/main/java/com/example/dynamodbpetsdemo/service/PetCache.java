@@ -0,0 +1,212 @@
+package com.example.dynamodbpetsdemo.service;
+
+import com.example.dynamodbpetsdemo.entity.Pet;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+//Bounded read-through cache in front of PetRepo.findById.
+//When disabled every call goes straight to the loader.
+//Pets warmed from a PetCacheSnapshot are served as they are on their first hit, which also starts a
+//background reload through the same loader; the pet is replaced when its version moved on and dropped
+//when it is gone. Only pets that are actually asked for are revalidated, so a cold start doesn't
+//reread the whole snapshot from DynamoDB.
+//Reloads block on DynamoDB, so they run on their own pet-cache-revalidation thread and not on the common pool.
+// pets.cache.snapshot.revalidations   outcome=current|stale|gone|failed
+@Component
+public class PetCache implements MeterBinder {
+
+    private final Cache<String, Pet> cache;
+    private final Executor revalidationExecutor;
+    //ids warmed from a snapshot that haven't been checked against the table yet
+    private final Set<String> unverified = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder current = new LongAdder();
+    private final LongAdder stale = new LongAdder();
+    private final LongAdder gone = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    //@Value doesn't do relaxed binding, the size has to be set as pets.cache.maximumSize, not maximum-size
+    @Autowired
+    public PetCache(@Value("${pets.cache.enabled:true}") boolean enabled,
+                    @Value("${pets.cache.maximumSize:10000}") long maximumSize,
+                    @Value("${pets.cache.ttl:60s}") Duration ttl) {
+        this(enabled, maximumSize, ttl, enabled ? revalidationThread() : null);
+    }
+
+    PetCache(boolean enabled, long maximumSize, Duration ttl, Executor revalidationExecutor) {
+        this.revalidationExecutor = revalidationExecutor;
+        if(enabled) {
+            cache = Caffeine.newBuilder()
+                    .maximumSize(maximumSize)
+                    .expireAfterWrite(ttl)
+                    .recordStats()
+                    .build();
+        } else {
+            cache = null;
+        }
+    }
+
+    public static PetCache disabled() {
+        return new PetCache(false, 0, Duration.ZERO);
+    }
+
+    private static ExecutorService revalidationThread() {
+        return Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "pet-cache-revalidation");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    //pending revalidations are dropped, nothing is left to serve them to
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if(revalidationExecutor instanceof ExecutorService) {
+            ExecutorService executor = (ExecutorService) revalidationExecutor;
+            executor.shutdownNow();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+    //missing pets are not cached, so a pet created elsewhere shows up on the next read
+    public Pet get(String id, Function<String, Pet> loader) {
+        if(cache == null) {
+            return loader.apply(id);
+        }
+        Pet pet = cache.get(id, loader);
+        if(pet != null && !unverified.isEmpty() && unverified.remove(id)) {
+            revalidationExecutor.execute(() -> revalidate(id, pet, loader));
+        }
+        return pet;
+    }
+
+    public void put(Pet pet) {
+        if(cache != null && pet != null && pet.getId() != null) {
+            unverified.remove(pet.getId());
+            cache.put(pet.getId(), pet);
+        }
+    }
+
+    //Replaces the pet only if it is cached already, so outside writes don't fill the cache with cold pets,
+    //and only with a newer version: stream images can be replayed or arrive late from a lagging shard.
+    //A warmed pet that isn't replaced stays marked for revalidation.
+    public void refresh(Pet pet) {
+        if(cache != null && pet != null && pet.getId() != null) {
+            cache.asMap().computeIfPresent(pet.getId(), (id, cachedPet) -> {
+                if(!isNewer(pet, cachedPet)) {
+                    return cachedPet;
+                }
+                unverified.remove(id);
+                return pet;
+            });
+        }
+    }
+
+    //pets written before versioning have no version, any versioned write came after them
+    private static boolean isNewer(Pet pet, Pet cachedPet) {
+        if(cachedPet.getVersion() == null) {
+            return true;
+        }
+        return pet.getVersion() != null && pet.getVersion() > cachedPet.getVersion();
+    }
+
+    public void invalidate(String id) {
+        if(cache != null) {
+            unverified.remove(id);
+            cache.invalidate(id);
+        }
+    }
+
+    //Fills the cache from a snapshot, pets are marked for revalidation on their first hit.
+    //Pets that are cached already were read or written since startup and are kept.
+    public void warm(Collection<Pet> pets) {
+        if(cache == null) {
+            return;
+        }
+        for (Pet pet : pets) {
+            if(pet.getId() != null && cache.asMap().putIfAbsent(pet.getId(), pet) == null) {
+                unverified.add(pet.getId());
+            }
+        }
+    }
+
+    //up to limit cached pets, the most frequently used first
+    public Collection<Pet> hottest(int limit) {
+        if(cache == null) {
+            return Collections.emptyList();
+        }
+        Map<String, Pet> hottest = cache.policy().eviction()
+                .map(eviction -> eviction.hottest(limit))
+                .orElse(cache.asMap());
+        return hottest.values();
+    }
+
+    //only swaps the entry if it still holds the snapshot pet, a write in the meantime wins
+    private void revalidate(String id, Pet snapshotPet, Function<String, Pet> loader) {
+        try {
+            Pet latest = loader.apply(id);
+            if(latest == null) {
+                cache.asMap().remove(id, snapshotPet);
+                gone.increment();
+            } else if(Objects.equals(latest.getVersion(), snapshotPet.getVersion())) {
+                current.increment();
+            } else {
+                cache.asMap().replace(id, snapshotPet, latest);
+                stale.increment();
+            }
+        } catch(RuntimeException e) {
+            //the next read loads it the normal way
+            cache.asMap().remove(id, snapshotPet);
+            failed.increment();
+        }
+    }
+
+    public CacheStats stats() {
+        return cache == null ? CacheStats.empty() : cache.stats();
+    }
+
+    //cache.gets (hit/miss), cache.evictions and cache.size tagged cache=pets
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if(cache != null) {
+            CaffeineCacheMetrics.monitor(registry, cache, "pets");
+            revalidations(registry, "current", current);
+            revalidations(registry, "stale", stale);
+            revalidations(registry, "gone", gone);
+            revalidations(registry, "failed", failed);
+        }
+    }
+
+    private static void revalidations(MeterRegistry registry, String outcome, LongAdder count) {
+        FunctionCounter.builder("pets.cache.snapshot.revalidations", count, LongAdder::sum)
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+}
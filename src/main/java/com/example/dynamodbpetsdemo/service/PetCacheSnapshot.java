@@ -0,0 +1,179 @@
+package com.example.dynamodbpetsdemo.service;
+
+import com.example.dynamodbpetsdemo.entity.Pet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+//Keeps the hot part of PetCache across restarts. On shutdown, after the web server stopped taking requests,
+//the most used pets are written to a binary file. On startup the file is memory-mapped and decoded into
+//the cache while the context is still refreshing, so the app only reports ready once it is warm.
+//PetCache revalidates each warmed pet against its version the first time it is read.
+//
+//File layout, big-endian: int magic "PETS", int format, long written at (epoch millis), int count,
+//then per pet: id, name (length -1 for null), int age, long version, long updatedAt, long expiresAt (-1 for null).
+//Strings are an int length followed by that many UTF-8 bytes.
+@Component
+@ConditionalOnProperty(name = "pets.cache.snapshot.enabled", havingValue = "true")
+public class PetCacheSnapshot {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PetCacheSnapshot.class);
+
+    static final int MAGIC = 0x50455453;
+    static final int FORMAT = 2;
+
+    private final PetCache petCache;
+    private final Path file;
+    private final int maxEntries;
+    private final Duration maxAge;
+
+    @Autowired
+    public PetCacheSnapshot(PetCache cache,
+                            @Value("${pets.cache.snapshot.file:pets-cache.snapshot}") String file,
+                            @Value("${pets.cache.snapshot.maxEntries:10000}") int maxEntries,
+                            @Value("${pets.cache.snapshot.maxAge:15m}") Duration maxAge) {
+        petCache = cache;
+        this.file = Paths.get(file);
+        this.maxEntries = maxEntries;
+        this.maxAge = maxAge;
+    }
+
+    //a missing, outdated or unreadable snapshot just means a cold start
+    @PostConstruct
+    public void load() {
+        if(!petCache.isEnabled() || !Files.exists(file)) {
+            return;
+        }
+        try {
+            List<Pet> pets = read(file, System.currentTimeMillis() - maxAge.toMillis());
+            if(pets == null) {
+                LOGGER.info("Pet cache snapshot {} is older than {}, starting cold", file, maxAge);
+                return;
+            }
+            petCache.warm(pets);
+            LOGGER.info("Warmed the pet cache with {} pets from {}", pets.size(), file);
+        } catch(IOException | RuntimeException e) {
+            LOGGER.warn("Could not read pet cache snapshot {}, starting cold", file, e);
+        }
+    }
+
+    @PreDestroy
+    public void save() {
+        if(!petCache.isEnabled()) {
+            return;
+        }
+        try {
+            Collection<Pet> pets = petCache.hottest(maxEntries);
+            write(file, pets);
+            LOGGER.info("Wrote {} pets to the pet cache snapshot {}", pets.size(), file);
+        } catch(IOException | RuntimeException e) {
+            LOGGER.warn("Could not write pet cache snapshot {}", file, e);
+        }
+    }
+
+    //written next to the target and moved over it, so a crash never leaves half a snapshot behind
+    static void write(Path file, Collection<Pet> pets) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT);
+                out.writeLong(System.currentTimeMillis());
+                out.writeInt(pets.size());
+                for (Pet pet : pets) {
+                    writeString(out, pet.getId());
+                    writeString(out, pet.getName());
+                    out.writeInt(pet.getAge());
+                    writeLong(out, pet.getVersion());
+                    writeLong(out, pet.getUpdatedAt());
+                    writeLong(out, pet.getExpiresAt());
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    //null when the snapshot was written before notBefore
+    static List<Pet> read(Path file, long notBefore) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if(buffer.getInt() != MAGIC || buffer.getInt() != FORMAT) {
+                throw new IOException("Not a pet cache snapshot: " + file);
+            }
+            if(buffer.getLong() < notBefore) {
+                return null;
+            }
+            int count = buffer.getInt();
+            List<Pet> pets = new ArrayList<>(Math.min(count, 100_000));
+            for (int i = 0; i < count; i++) {
+                Pet pet = new Pet();
+                pet.setId(readString(buffer));
+                pet.setName(readString(buffer));
+                pet.setAge(buffer.getInt());
+                pet.setVersion(readLong(buffer));
+                pet.setUpdatedAt(readLong(buffer));
+                pet.setExpiresAt(readLong(buffer));
+                pets.add(pet);
+            }
+            return pets;
+        } catch(BufferUnderflowException e) {
+            throw new IOException("Truncated pet cache snapshot: " + file, e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if(value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeLong(DataOutputStream out, Long value) throws IOException {
+        out.writeLong(value == null ? -1 : value);
+    }
+
+    private static Long readLong(ByteBuffer buffer) {
+        long value = buffer.getLong();
+        return value < 0 ? null : value;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if(length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
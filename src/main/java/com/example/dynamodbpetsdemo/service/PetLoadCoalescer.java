@@ -0,0 +1,140 @@
+package com.example.dynamodbpetsdemo.service;
+
+import com.example.dynamodbpetsdemo.entity.Pet;
+import com.example.dynamodbpetsdemo.repository.PetRepo;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+//Single-flight loads for PetService.findPetById. Concurrent lookups of the same id share one
+//in-flight load, and distinct ids requested within the batch window go out as one batchLoad.
+//There is no background thread: the first caller of a window waits it out, then loads the whole
+//window on its own thread while the other callers wait on their futures.
+//A window is only opened while other loads are in flight, an uncontended miss loads straight away
+//instead of paying the window on every call.
+// pets.coalescer.requests         lookups that came through the coalescer
+// pets.coalescer.dynamodb.calls   findById / batchLoad calls actually made
+// pets.coalescer.saved.calls      lookups that didn't need a call of their own
+@Component
+public class PetLoadCoalescer implements MeterBinder {
+
+    private final PetRepo petRepo;
+    private final boolean enabled;
+    private final long windowNanos;
+    private final int maxBatchSize;
+
+    private final Map<String, CompletableFuture<Pet>> inFlight = new ConcurrentHashMap<>();
+    private final Object lock = new Object();
+    private List<String> pending = new ArrayList<>();
+    private boolean collecting;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder calls = new LongAdder();
+
+    @Autowired
+    public PetLoadCoalescer(PetRepo repo,
+                            @Value("${pets.coalescing.enabled:true}") boolean enabled,
+                            @Value("${pets.coalescing.window:200us}") Duration window,
+                            @Value("${pets.coalescing.maxBatchSize:100}") int maxBatchSize) {
+        this.petRepo = repo;
+        this.enabled = enabled;
+        this.windowNanos = window.toNanos();
+        this.maxBatchSize = Math.max(1, Math.min(maxBatchSize, PetRepo.MAX_BATCH_GET_ITEMS));
+    }
+
+    //every lookup goes straight to findById
+    public static PetLoadCoalescer disabled(PetRepo repo) {
+        return new PetLoadCoalescer(repo, false, Duration.ZERO, 1);
+    }
+
+    public Pet load(String id) {
+        if(!enabled) {
+            return petRepo.findById(id);
+        }
+        requests.increment();
+
+        CompletableFuture<Pet> future = new CompletableFuture<>();
+        CompletableFuture<Pet> existing = inFlight.putIfAbsent(id, future);
+        if(existing != null) {
+            return join(existing);
+        }
+
+        List<String> batch = null;
+        boolean leader = false;
+        synchronized (lock) {
+            pending.add(id);
+            if(pending.size() >= maxBatchSize) {
+                batch = pending;
+                pending = new ArrayList<>();
+            } else if(!collecting) {
+                collecting = true;
+                leader = true;
+            }
+        }
+        if(leader) {
+            //ours is the only load, nothing is likely to join it
+            if(inFlight.size() > 1) {
+                LockSupport.parkNanos(windowNanos);
+            }
+            synchronized (lock) {
+                batch = pending;
+                pending = new ArrayList<>();
+                collecting = false;
+            }
+        }
+        if(batch != null && !batch.isEmpty()) {
+            loadBatch(batch);
+        }
+        return join(future);
+    }
+
+    private void loadBatch(List<String> ids) {
+        calls.increment();
+        try {
+            Map<String, Pet> pets = ids.size() == 1
+                    ? Collections.singletonMap(ids.get(0), petRepo.findById(ids.get(0)))
+                    : petRepo.batchLoad(ids);
+            for (String id : ids) {
+                inFlight.remove(id).complete(pets.get(id));
+            }
+        } catch(RuntimeException e) {
+            for (String id : ids) {
+                inFlight.remove(id).completeExceptionally(e);
+            }
+        }
+    }
+
+    //rethrows what the shared load threw, e.g. a throttling exception, instead of a CompletionException
+    private static Pet join(CompletableFuture<Pet> future) {
+        try {
+            return future.join();
+        } catch(CompletionException e) {
+            if(e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("pets.coalescer.requests", requests, LongAdder::sum).register(registry);
+        FunctionCounter.builder("pets.coalescer.dynamodb.calls", calls, LongAdder::sum).register(registry);
+        FunctionCounter.builder("pets.coalescer.saved.calls", this, coalescer -> coalescer.requests.sum() - coalescer.calls.sum())
+                .register(registry);
+    }
+}
@@ -1,60 +1,468 @@
 package com.example.dynamodbpetsdemo.service;
 
+import com.amazonaws.services.dynamodbv2.datamodeling.QueryResultPage;
+import com.amazonaws.services.dynamodbv2.datamodeling.ScanResultPage;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.CancellationReason;
+import com.amazonaws.services.dynamodbv2.model.IdempotentParameterMismatchException;
+import com.amazonaws.services.dynamodbv2.model.TransactionCanceledException;
+import com.amazonaws.services.dynamodbv2.model.TransactionInProgressException;
+import com.example.dynamodbpetsdemo.archive.PetArchive;
+import com.example.dynamodbpetsdemo.dto.BatchItemResult;
+import com.example.dynamodbpetsdemo.dto.BatchItemStatus;
+import com.example.dynamodbpetsdemo.dto.BatchResult;
+import com.example.dynamodbpetsdemo.dto.PetPage;
+import com.example.dynamodbpetsdemo.dto.PetTransaction;
+import com.example.dynamodbpetsdemo.dto.PetTransactionAction;
+import com.example.dynamodbpetsdemo.dto.PetTransactionItem;
+import com.example.dynamodbpetsdemo.dto.PetTransactionResult;
 import com.example.dynamodbpetsdemo.entity.Pet;
 import com.example.dynamodbpetsdemo.exception.InvalidInputException;
+import com.example.dynamodbpetsdemo.exception.PetTransactionCanceledException;
+import com.example.dynamodbpetsdemo.exception.VersionMismatchException;
+import com.example.dynamodbpetsdemo.exception.WriteBufferClosedException;
+import com.example.dynamodbpetsdemo.exception.WriteBufferFullException;
 import com.example.dynamodbpetsdemo.repository.PetRepo;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.json.simple.JSONObject;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 @Service
 public class PetService {
 
+    public static final int DEFAULT_PAGE_SIZE = 100;
+    public static final int MAX_PAGE_SIZE = 1000;
+    public static final int MAX_BATCH_SIZE = 1000;
+    //DynamoDB's limit for ClientRequestToken
+    public static final int MAX_CLIENT_REQUEST_TOKEN_LENGTH = 36;
+    //fields a client can ask for with ?fields=, in the order they are returned when none are given
+    public static final List<String> PET_FIELDS = List.of("id", "name", "age", "dogAge");
+
     private PetRepo petRepo;
+    private PetCache petCache;
+    private PetWriteBuffer petWriteBuffer;
+    private PetLoadCoalescer petLoadCoalescer;
+    private PetArchive petArchive;
 
     @Autowired
-    public PetService(PetRepo repo) {
+    public PetService(PetRepo repo, PetCache cache, PetWriteBuffer writeBuffer, PetLoadCoalescer loadCoalescer,
+                      PetArchive archive) {
         petRepo = repo;
+        petCache = cache;
+        petWriteBuffer = writeBuffer;
+        petLoadCoalescer = loadCoalescer;
+        petArchive = archive;
     }
+
     public Pet savePet(Pet pet) throws InvalidInputException {
         if(pet.getAge() < 0) {
             throw new InvalidInputException("Age cannot be negative");
         }
 
         pet.setName(pet.getName().toUpperCase());
-        return petRepo.save(pet);
+        Pet savedPet = petRepo.save(pet);
+        petCache.put(savedPet);
+        return savedPet;
+    }
+
+    public boolean isWriteBehindEnabled() {
+        return petWriteBuffer.isEnabled();
+    }
+
+    public boolean isWriteBehindAwaitFlush() {
+        return petWriteBuffer.isAwaitFlush();
+    }
+
+    //Validates the pet and queues it for the next batch write. The id is assigned here,
+    //so the caller can hand it back before the pet is actually written.
+    public CompletableFuture<Pet> enqueuePet(Pet pet)
+            throws InvalidInputException, WriteBufferFullException, WriteBufferClosedException {
+        if(pet.getAge() < 0) {
+            throw new InvalidInputException("Age cannot be negative");
+        }
+
+        pet.setName(pet.getName().toUpperCase());
+        if(pet.getId() == null) {
+            pet.setId(UUID.randomUUID().toString());
+        }
+        return petWriteBuffer.enqueue(pet).thenApply(savedPet -> {
+            petCache.put(savedPet);
+            return savedPet;
+        });
     }
 
     public Pet findPetById(String id) {
-        Pet pet = petRepo.findById(id);
-        if(pet != null) {
-            pet.setDogAge(convertToDogYears(pet.getAge()));
-            return pet;
-        } else {
+        //cache misses for the same id share one load, distinct ids close together share a batchLoad
+        Pet pet = petCache.get(id, this::loadPet);
+        if(pet != null && pet.isExpiredAt(nowSeconds())) {
+            //DynamoDB deletes expired pets some time later, until then they are hidden here
             return null;
         }
+        return pet;
+    }
+
+    private static long nowSeconds() {
+        return System.currentTimeMillis() / 1000;
+    }
+
+    //the pets that haven't expired yet, every read that returns pets goes through this
+    private static List<Pet> live(List<Pet> pets) {
+        long now = nowSeconds();
+        List<Pet> live = new ArrayList<>(pets.size());
+        for (Pet pet : pets) {
+            if(!pet.isExpiredAt(now)) {
+                live.add(pet);
+            }
+        }
+        return live;
     }
 
+    //pets that aren't in the table anymore may have been archived, those are read from the archive
+    private Pet loadPet(String id) {
+        Pet pet = petLoadCoalescer.load(id);
+        return pet == null ? petArchive.find(id) : pet;
+    }
+
+    //The whole table ends up in memory: expired pets are filtered out into a new list, and even without that
+    //Jackson asks the mapper's lazy scan list for its size() first. /pets/stream or ?limit= for big tables.
     public List<Pet> getAllPets() {
-        List<Pet> pets = petRepo.findAll();
+        return live(petRepo.findAll());
+    }
+
+    //Only the requested fields of each pet, in the requested order. dogAge isn't read from the table,
+    //it is derived from age, so asking for it reads age instead.
+    public List<Map<String, Object>> getPets(List<String> fields, Integer minAge) throws InvalidInputException {
+        if(fields == null || fields.isEmpty()) {
+            fields = PET_FIELDS;
+        }
+        Set<String> attributes = new LinkedHashSet<>();
+        for (String field : fields) {
+            if(!PET_FIELDS.contains(field)) {
+                throw new InvalidInputException("Unknown field " + field + ", expected one of " + PET_FIELDS);
+            }
+            attributes.add(field.equals("dogAge") ? "age" : field);
+        }
+        attributes.add("expiresAt");
+
+        List<Pet> pets = live(petRepo.findAll(attributes, minAge));
+        List<Map<String, Object>> results = new ArrayList<>(pets.size());
         for (Pet pet : pets) {
-            pet.setDogAge(convertToDogYears(pet.getAge()));
+            Map<String, Object> result = new LinkedHashMap<>();
+            for (String field : fields) {
+                result.put(field, fieldValue(pet, field));
+            }
+            results.add(result);
+        }
+        return results;
+    }
+
+    private Object fieldValue(Pet pet, String field) {
+        switch (field) {
+            case "id":
+                return pet.getId();
+            case "name":
+                return pet.getName();
+            case "age":
+                return pet.getAge();
+            default:
+                return pet.getDogAge();
+        }
+    }
+
+    public PetPage getPetPage(int limit, String cursor) throws InvalidInputException {
+        if(limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new InvalidInputException("Limit must be between 1 and " + MAX_PAGE_SIZE);
+        }
+
+        //a page can come back short of limit once expired pets are taken out, the cursor still continues after them
+        ScanResultPage<Pet> page = petRepo.findPage(limit, PageCursorCodec.decode(cursor, PetRepo.TABLE_KEY));
+        return new PetPage(live(page.getResults()), PageCursorCodec.encode(page.getLastEvaluatedKey()));
+    }
+
+    //names are stored upper case by every save and update, so the search is case insensitive
+    public PetPage searchPets(String name, Integer minAge, Integer maxAge, int limit, String cursor) throws InvalidInputException {
+        if(name == null || name.isEmpty()) {
+            throw new InvalidInputException("Name is required");
+        }
+        if(minAge != null && maxAge != null && minAge > maxAge) {
+            throw new InvalidInputException("minAge cannot be greater than maxAge");
         }
+        if(limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new InvalidInputException("Limit must be between 1 and " + MAX_PAGE_SIZE);
+        }
+
+        QueryResultPage<Pet> page = petRepo.findPageByName(name.toUpperCase(), minAge, maxAge, limit,
+                PageCursorCodec.decode(cursor, PetRepo.NAME_AGE_INDEX_KEY));
+        return new PetPage(live(page.getResults()), PageCursorCodec.encode(page.getLastEvaluatedKey()));
+    }
 
-        return pets;
+    //walks the table one page at a time so only a single page is ever held in memory
+    public void forEachPet(int pageSize, Consumer<Pet> action) {
+        Map<String, AttributeValue> startKey = null;
+        do {
+            ScanResultPage<Pet> page = petRepo.findPage(pageSize, startKey);
+            live(page.getResults()).forEach(action);
+            startKey = page.getLastEvaluatedKey();
+        } while(startKey != null && !startKey.isEmpty());
+    }
+
+    //Merges the segments of a parallel scan into one stream, in no particular order.
+    //Callers must close the stream (try-with-resources) to release the scan workers.
+    public Stream<Pet> streamAllPets() {
+        long now = nowSeconds();
+        return petRepo.parallelScan().filter(pet -> !pet.isExpiredAt(now));
+    }
+
+    //Invalid pets are reported per item and skipped, the rest are written with batch writes.
+    public BatchResult savePets(List<Pet> pets) throws InvalidInputException {
+        checkBatchSize(pets);
+
+        List<Pet> validPets = new ArrayList<>();
+        Map<Pet, String> errors = new IdentityHashMap<>();
+        Set<String> seenIds = new HashSet<>();
+        for (Pet pet : pets) {
+            if(pet.getName() == null) {
+                errors.put(pet, "Name is required");
+            } else if(pet.getAge() < 0) {
+                errors.put(pet, "Age cannot be negative");
+            } else if(pet.getId() != null && !seenIds.add(pet.getId())) {
+                errors.put(pet, "Duplicate id in batch");
+            } else {
+                //assigned up front so the result can report the pet by id
+                if(pet.getId() == null) {
+                    pet.setId(UUID.randomUUID().toString());
+                }
+                pet.setName(pet.getName().toUpperCase());
+                validPets.add(pet);
+            }
+        }
+
+        Set<String> failedIds = new HashSet<>(petRepo.batchSave(validPets));
+        BatchResult result = new BatchResult();
+        for (Pet pet : pets) {
+            if(errors.containsKey(pet)) {
+                result.add(new BatchItemResult(pet.getId(), BatchItemStatus.INVALID, pet, errors.get(pet)));
+            } else if(failedIds.contains(pet.getId())) {
+                result.add(new BatchItemResult(pet.getId(), BatchItemStatus.FAILED, pet, "Write was cancelled, retry it"));
+            } else {
+                petCache.put(pet);
+                result.add(new BatchItemResult(pet.getId(), BatchItemStatus.SAVED, pet, null));
+            }
+        }
+        return result;
+    }
+
+    public BatchResult findPetsByIds(List<String> ids) throws InvalidInputException {
+        checkBatchSize(ids);
+
+        Map<String, Pet> pets = petRepo.batchLoad(new ArrayList<>(new LinkedHashSet<>(ids)));
+        BatchResult result = new BatchResult();
+        for (String id : ids) {
+            Pet pet = pets.get(id);
+            if(pet != null) {
+                result.add(new BatchItemResult(id, BatchItemStatus.FOUND, pet, null));
+            } else {
+                result.add(new BatchItemResult(id, BatchItemStatus.NOT_FOUND, null, null));
+            }
+        }
+        return result;
+    }
+
+    //batch deletes are unconditional, so ids that never existed are reported as deleted too
+    public BatchResult deletePets(List<String> ids) throws InvalidInputException {
+        checkBatchSize(ids);
+
+        Set<String> failedIds = new HashSet<>(petRepo.batchDelete(new ArrayList<>(new LinkedHashSet<>(ids))));
+        BatchResult result = new BatchResult();
+        for (String id : ids) {
+            petCache.invalidate(id);
+            if(failedIds.contains(id)) {
+                result.add(new BatchItemResult(id, BatchItemStatus.FAILED, null, "Unprocessed after retries"));
+            } else {
+                petArchive.delete(id);
+                result.add(new BatchItemResult(id, BatchItemStatus.DELETED, null, null));
+            }
+        }
+        return result;
+    }
+
+    private void checkBatchSize(List<?> items) throws InvalidInputException {
+        if(items == null || items.isEmpty()) {
+            throw new InvalidInputException("Batch cannot be empty");
+        }
+        if(items.size() > MAX_BATCH_SIZE) {
+            throw new InvalidInputException("Batch cannot contain more than " + MAX_BATCH_SIZE + " items");
+        }
+    }
+
+    //All items are written in one round trip or not at all. A transaction can't be split without losing
+    //that, so one over the DynamoDB limit is rejected rather than chunked. The token is generated when
+    //the client didn't send one and returned, so the client can retry safely with it.
+    public PetTransactionResult transactPets(PetTransaction transaction)
+            throws InvalidInputException, PetTransactionCanceledException {
+        List<PetTransactionItem> items = transaction.getItems();
+        if(items == null || items.isEmpty()) {
+            throw new InvalidInputException("Transaction cannot be empty");
+        }
+        if(items.size() > PetRepo.MAX_TRANSACTION_ITEMS) {
+            throw new InvalidInputException("Transaction cannot contain more than " + PetRepo.MAX_TRANSACTION_ITEMS + " items");
+        }
+        String token = transaction.getClientRequestToken();
+        if(token == null) {
+            token = UUID.randomUUID().toString();
+        } else if(token.isEmpty() || token.length() > MAX_CLIENT_REQUEST_TOKEN_LENGTH) {
+            throw new InvalidInputException("Client request token must be 1 to " + MAX_CLIENT_REQUEST_TOKEN_LENGTH + " characters");
+        }
+
+        Set<String> seenIds = new HashSet<>();
+        for (PetTransactionItem item : items) {
+            checkTransactionItem(item);
+            //a transaction may touch each pet only once
+            if(!seenIds.add(item.getId())) {
+                throw new InvalidInputException("Pet " + item.getId() + " appears more than once in the transaction");
+            }
+        }
+
+        try {
+            petRepo.transactWrite(items, token);
+        } catch(TransactionCanceledException e) {
+            List<String> reasons = new ArrayList<>();
+            if(e.getCancellationReasons() != null) {
+                for (CancellationReason reason : e.getCancellationReasons()) {
+                    reasons.add(reason.getCode());
+                }
+            }
+            throw new PetTransactionCanceledException("Transaction canceled: " + reasons, reasons);
+        } catch(TransactionInProgressException e) {
+            throw new PetTransactionCanceledException("A transaction with the same client request token is still in progress",
+                    Collections.emptyList());
+        } catch(IdempotentParameterMismatchException e) {
+            throw new InvalidInputException("Client request token was already used for a different transaction");
+        } finally {
+            //new versions aren't returned by the transaction, so the cached copies can't be updated in place
+            for (PetTransactionItem item : items) {
+                if(item.getAction() != PetTransactionAction.CONDITION_CHECK) {
+                    petCache.invalidate(item.getId());
+                }
+            }
+        }
+
+        //A write without an expected version increments whatever version was stored, so that one is read back.
+        //Another write landing right after the transaction can make it a later version, a client using it
+        //for If-Match then just gets a 412 and rereads.
+        List<String> unversioned = new ArrayList<>();
+        for (PetTransactionItem item : items) {
+            if(item.getPet() != null && item.getExpectedVersion() == null) {
+                unversioned.add(item.getId());
+            }
+        }
+        Map<String, Long> versions = unversioned.isEmpty() ? Collections.emptyMap() : petRepo.findVersions(unversioned);
+
+        PetTransactionResult result = new PetTransactionResult();
+        result.setClientRequestToken(token);
+        for (PetTransactionItem item : items) {
+            if(item.getAction() == PetTransactionAction.DELETE) {
+                petArchive.delete(item.getId());
+            }
+            if(item.getPet() != null) {
+                item.getPet().setVersion(item.getExpectedVersion() == null
+                        ? versions.get(item.getId())
+                        : item.getExpectedVersion() + 1);
+            }
+            result.getItems().add(item);
+        }
+        return result;
+    }
+
+    private void checkTransactionItem(PetTransactionItem item) throws InvalidInputException {
+        if(item == null || item.getAction() == null) {
+            throw new InvalidInputException("Every transaction item needs an action");
+        }
+        if(item.getAction() == PetTransactionAction.PUT || item.getAction() == PetTransactionAction.UPDATE) {
+            Pet pet = item.getPet();
+            if(pet == null || pet.getName() == null) {
+                throw new InvalidInputException(item.getAction() + " needs a pet with a name");
+            }
+            if(pet.getAge() < 0) {
+                throw new InvalidInputException("Age cannot be negative");
+            }
+            if(item.getId() == null) {
+                item.setId(pet.getId());
+            }
+            //same as savePet, so the pet stays findable by name
+            pet.setName(pet.getName().toUpperCase());
+        }
+        if(item.getAction() == PetTransactionAction.PUT) {
+            //transactions don't generate keys either
+            if(item.getId() == null) {
+                item.setId(UUID.randomUUID().toString());
+            }
+        }
+        if(item.getId() == null) {
+            throw new InvalidInputException(item.getAction() + " needs an id");
+        }
+        if(item.getPet() != null) {
+            item.getPet().setId(item.getId());
+        }
     }
 
     public Pet updatePetInfo(String id, Pet pet) {
-        return petRepo.update(id, pet);
+        upperCaseName(pet);
+        return cacheUpdate(id, petRepo.update(id, pet));
     }
 
-    public Pet deletePet(String id) {
-        return petRepo.delete(id);
+    //optimistic update, only applied if nobody else wrote the pet since expectedVersion
+    public Pet updatePetInfo(String id, Pet pet, long expectedVersion) throws VersionMismatchException {
+        upperCaseName(pet);
+        try {
+            return cacheUpdate(id, petRepo.update(id, pet, expectedVersion));
+        } catch(VersionMismatchException e) {
+            petCache.invalidate(id);
+            throw e;
+        }
+    }
+
+    //same as savePet, so a renamed pet is still found by searchPets
+    private static void upperCaseName(Pet pet) {
+        if(pet.getName() != null) {
+            pet.setName(pet.getName().toUpperCase());
+        }
     }
 
-    public int convertToDogYears(int age) {
-        return age * 7;
+    private Pet cacheUpdate(String id, Pet updatedPet) {
+        if(updatedPet != null) {
+            petCache.put(updatedPet);
+        } else {
+            petCache.invalidate(id);
+        }
+        return updatedPet;
+    }
+
+    //An archived pet is deleted like a live one. A live pet saved again under an archived id can also
+    //still have its old archived copy, which must not come back through findPetById either.
+    public Pet deletePet(String id) {
+        Pet deletedPet = petRepo.delete(id);
+        if(petArchive.isEnabled()) {
+            if(deletedPet == null) {
+                deletedPet = petArchive.find(id);
+            }
+            petArchive.delete(id);
+        }
+        petCache.invalidate(id);
+        return deletedPet;
     }
 }
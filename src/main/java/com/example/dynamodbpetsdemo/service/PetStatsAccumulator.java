@@ -0,0 +1,67 @@
+package com.example.dynamodbpetsdemo.service;
+
+import com.example.dynamodbpetsdemo.dto.PetStats;
+import com.example.dynamodbpetsdemo.entity.Pet;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+//Running count/sum/histogram over pet ages. Only the histogram is kept, never the pets,
+//so memory is bounded by the number of distinct ages. Not thread safe.
+public class PetStatsAccumulator {
+
+    private long count;
+    private long ageSum;
+    private final TreeMap<Integer, Long> histogram = new TreeMap<>();
+
+    //rebuilds an accumulator from a histogram saved earlier, count and sum follow from it
+    public static PetStatsAccumulator fromHistogram(Map<Integer, Long> histogram) {
+        PetStatsAccumulator accumulator = new PetStatsAccumulator();
+        histogram.forEach((age, pets) -> {
+            accumulator.count += pets;
+            accumulator.ageSum += age * pets;
+            accumulator.histogram.put(age, pets);
+        });
+        return accumulator;
+    }
+
+    public void add(int age) {
+        count++;
+        ageSum += age;
+        histogram.merge(age, 1L, Long::sum);
+    }
+
+    //min and max come from the histogram, so they stay correct when the oldest or youngest pet goes away
+    public void remove(int age) {
+        Long pets = histogram.get(age);
+        if(pets == null) {
+            return;
+        }
+        if(pets == 1) {
+            histogram.remove(age);
+        } else {
+            histogram.put(age, pets - 1);
+        }
+        count--;
+        ageSum -= age;
+    }
+
+    public Map<Integer, Long> histogram() {
+        return Collections.unmodifiableMap(histogram);
+    }
+
+    public PetStats toStats() {
+        PetStats stats = new PetStats();
+        stats.setCount(count);
+        stats.getAgeHistogram().putAll(histogram);
+        if(count > 0) {
+            double averageAge = (double) ageSum / count;
+            stats.setMinAge(histogram.firstKey());
+            stats.setMaxAge(histogram.lastKey());
+            stats.setAverageAge(averageAge);
+            stats.setAverageDogAge(averageAge * Pet.DOG_YEARS_PER_YEAR);
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.dynamodbpetsdemo.service;
+
+import com.example.dynamodbpetsdemo.dto.PetStats;
+import com.example.dynamodbpetsdemo.entity.Pet;
+import com.example.dynamodbpetsdemo.repository.PetRepo;
+import com.example.dynamodbpetsdemo.stream.PetStreamConsumer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+//Table wide pet statistics from a parallel scan that only reads age and expiresAt. Pets are folded into
+//the accumulator as the scan streams them in, so the full table is never held in memory. Expired pets
+//are left out, like everywhere else pets are read.
+//With a positive ttl the last result is reused until it is that old. When the stream consumer is
+//running its histogram is always current, so no scan is needed at all; it follows the table though,
+//so an expired pet stays counted there until DynamoDB's TTL deletes it.
+@Service
+public class PetStatsService {
+
+    static final List<String> SCAN_ATTRIBUTES = List.of("age", "expiresAt");
+
+    private PetRepo petRepo;
+    private PetStreamConsumer petStreamConsumer;
+    private final long ttlNanos;
+
+    private volatile PetStats cachedStats;
+    private volatile long cachedAt;
+
+    @Autowired
+    public PetStatsService(PetRepo repo, @Value("${pets.stats.ttl:10s}") Duration ttl,
+                           Optional<PetStreamConsumer> streamConsumer) {
+        petRepo = repo;
+        ttlNanos = ttl.toNanos();
+        petStreamConsumer = streamConsumer.orElse(null);
+    }
+
+    public PetStats getStats() {
+        if(petStreamConsumer != null && petStreamConsumer.isReady()) {
+            return petStreamConsumer.currentStats();
+        }
+        PetStats stats = cachedStats;
+        if(stats != null && System.nanoTime() - cachedAt < ttlNanos) {
+            return stats;
+        }
+        return refresh();
+    }
+
+    //synchronized so concurrent callers after expiry share one scan instead of starting one each
+    private synchronized PetStats refresh() {
+        if(cachedStats != null && System.nanoTime() - cachedAt < ttlNanos) {
+            return cachedStats;
+        }
+
+        PetStatsAccumulator accumulator = new PetStatsAccumulator();
+        long now = System.currentTimeMillis() / 1000;
+        try (Stream<Pet> pets = petRepo.parallelScan(SCAN_ATTRIBUTES)) {
+            pets.filter(pet -> !pet.isExpiredAt(now)).forEach(pet -> accumulator.add(pet.getAge()));
+        }
+        PetStats stats = accumulator.toStats();
+        if(ttlNanos > 0) {
+            cachedStats = stats;
+            cachedAt = System.nanoTime();
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,194 @@
+package com.example.dynamodbpetsdemo.service;
+
+import com.example.dynamodbpetsdemo.entity.Pet;
+import com.example.dynamodbpetsdemo.exception.WriteBufferClosedException;
+import com.example.dynamodbpetsdemo.exception.WriteBufferFullException;
+import com.example.dynamodbpetsdemo.repository.PetRepo;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+//Write-behind buffer for POST /pets. Pets wait in a bounded queue and a single flusher thread writes them
+//with batchSave once batchSize pets are waiting or flushInterval has passed since the first one arrived.
+//Disabled unless pets.writeBehind.enabled=true, in which case nothing is started.
+@Component
+public class PetWriteBuffer implements MeterBinder {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PetWriteBuffer.class);
+
+    private final PetRepo petRepo;
+    private final boolean enabled;
+    private final boolean awaitFlush;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final BlockingQueue<PendingWrite> queue;
+    private final Thread flusher;
+    private volatile boolean running;
+    //enqueue holds the read lock from checking running to the offer, so nothing lands in the queue
+    //after shutdown() stopped taking writes and the flusher may already have drained it
+    private final ReadWriteLock runningLock = new ReentrantReadWriteLock();
+
+    @Autowired
+    public PetWriteBuffer(PetRepo repo,
+                          @Value("${pets.writeBehind.enabled:false}") boolean enabled,
+                          @Value("${pets.writeBehind.awaitFlush:false}") boolean awaitFlush,
+                          @Value("${pets.writeBehind.capacity:10000}") int capacity,
+                          @Value("${pets.writeBehind.batchSize:25}") int batchSize,
+                          @Value("${pets.writeBehind.flushInterval:50ms}") Duration flushInterval) {
+        this.petRepo = repo;
+        this.enabled = enabled;
+        this.awaitFlush = awaitFlush;
+        this.batchSize = Math.min(batchSize, PetRepo.MAX_BATCH_WRITE_ITEMS);
+        this.flushIntervalNanos = flushInterval.toNanos();
+        this.queue = new ArrayBlockingQueue<>(Math.max(capacity, 1));
+
+        if(enabled) {
+            running = true;
+            flusher = new Thread(this::flushLoop, "pet-write-behind");
+            flusher.setDaemon(true);
+            flusher.start();
+        } else {
+            flusher = null;
+        }
+    }
+
+    public static PetWriteBuffer disabled() {
+        return new PetWriteBuffer(null, false, false, 1, 1, Duration.ZERO);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    //true when callers should wait for the flush instead of getting 202 Accepted straight away
+    public boolean isAwaitFlush() {
+        return awaitFlush;
+    }
+
+    public int size() {
+        return queue.size();
+    }
+
+    //the future completes once the pet is written, or exceptionally if the write failed
+    public CompletableFuture<Pet> enqueue(Pet pet) throws WriteBufferFullException, WriteBufferClosedException {
+        PendingWrite write = new PendingWrite(pet);
+        runningLock.readLock().lock();
+        try {
+            if(!running) {
+                throw new WriteBufferClosedException("Write-behind buffer is not running");
+            }
+            if(!queue.offer(write)) {
+                throw new WriteBufferFullException("Write-behind queue is full");
+            }
+        } finally {
+            runningLock.readLock().unlock();
+        }
+        return write.future;
+    }
+
+    private void flushLoop() {
+        while(running || !queue.isEmpty()) {
+            try {
+                PendingWrite first = queue.poll(flushIntervalNanos, TimeUnit.NANOSECONDS);
+                if(first == null) {
+                    continue;
+                }
+
+                List<PendingWrite> batch = new ArrayList<>();
+                batch.add(first);
+                long deadline = System.nanoTime() + flushIntervalNanos;
+                while(batch.size() < batchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingWrite next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if(next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                flush(batch);
+            } catch(InterruptedException e) {
+                //keep going until the queue is drained, shutdown() is what ends the loop
+            }
+        }
+    }
+
+    //A pet saved twice within one batch is written once, as its last save: a transaction can't write the
+    //same pet twice. Every save completes with the pet as written, carrying the version batchSave gave it,
+    //so an earlier save gets the content that actually ended up stored rather than its own.
+    private void flush(List<PendingWrite> batch) {
+        Map<String, Pet> latest = new LinkedHashMap<>();
+        for (PendingWrite write : batch) {
+            latest.put(write.pet.getId(), write.pet);
+        }
+        List<Pet> pets = new ArrayList<>(latest.values());
+
+        try {
+            Set<String> failedIds = new HashSet<>(petRepo.batchSave(pets));
+            for (PendingWrite write : batch) {
+                if(failedIds.contains(write.pet.getId())) {
+                    write.future.completeExceptionally(new IllegalStateException("Pet " + write.pet.getId() + " was not written"));
+                } else {
+                    write.future.complete(latest.get(write.pet.getId()));
+                }
+            }
+        } catch(RuntimeException e) {
+            LOGGER.error("Write-behind flush of {} pets failed", batch.size(), e);
+            for (PendingWrite write : batch) {
+                write.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    //stop taking writes and wait for everything already queued to be flushed
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if(flusher == null) {
+            return;
+        }
+        //not interrupted, that would abort a batchSave that is in flight
+        runningLock.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            runningLock.writeLock().unlock();
+        }
+        flusher.join(TimeUnit.SECONDS.toMillis(30));
+        if(!queue.isEmpty()) {
+            LOGGER.warn("Write-behind shutdown timed out with {} pets still queued", queue.size());
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("pets.writebehind.queue.size", queue, BlockingQueue::size).register(registry);
+    }
+
+    private static class PendingWrite {
+        private final Pet pet;
+        private final CompletableFuture<Pet> future = new CompletableFuture<>();
+
+        PendingWrite(Pet pet) {
+            this.pet = pet;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.dynamodbpetsdemo.stream;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+//What PetStreamConsumer needs to pick up where it left off: the last sequence number applied per shard
+//and the age histogram those records produced. Stored as a properties file, replaced atomically.
+class PetStreamCheckpoint {
+
+    //marks a shard that was read to its end
+    static final String CLOSED = "CLOSED";
+
+    private static final String SHARD_PREFIX = "shard.";
+    private static final String AGE_PREFIX = "age.";
+    private static final String STREAM_ARN = "streamArn";
+    private static final String SINCE = "since";
+
+    private String streamArn;
+    //records older than this were already counted by the scan that seeded the histogram
+    private long since;
+    private final Map<String, String> sequenceNumbers = new HashMap<>();
+    private final Map<Integer, Long> histogram = new TreeMap<>();
+
+    String getStreamArn() {
+        return streamArn;
+    }
+
+    void setStreamArn(String streamArn) {
+        this.streamArn = streamArn;
+    }
+
+    long getSince() {
+        return since;
+    }
+
+    void setSince(long since) {
+        this.since = since;
+    }
+
+    Map<String, String> getSequenceNumbers() {
+        return sequenceNumbers;
+    }
+
+    Map<Integer, Long> getHistogram() {
+        return histogram;
+    }
+
+    //null when there is no checkpoint yet
+    static PetStreamCheckpoint load(Path file) throws IOException {
+        if(!Files.exists(file)) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file)) {
+            properties.load(reader);
+        }
+
+        PetStreamCheckpoint checkpoint = new PetStreamCheckpoint();
+        checkpoint.streamArn = properties.getProperty(STREAM_ARN);
+        checkpoint.since = Long.parseLong(properties.getProperty(SINCE, "0"));
+        for (String key : properties.stringPropertyNames()) {
+            if(key.startsWith(SHARD_PREFIX)) {
+                checkpoint.sequenceNumbers.put(key.substring(SHARD_PREFIX.length()), properties.getProperty(key));
+            } else if(key.startsWith(AGE_PREFIX)) {
+                checkpoint.histogram.put(Integer.parseInt(key.substring(AGE_PREFIX.length())),
+                        Long.parseLong(properties.getProperty(key)));
+            }
+        }
+        return checkpoint;
+    }
+
+    //written next to the target and moved over it, so a crash never leaves half a checkpoint behind
+    void save(Path file) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(STREAM_ARN, streamArn);
+        properties.setProperty(SINCE, Long.toString(since));
+        sequenceNumbers.forEach((shardId, sequenceNumber) -> properties.setProperty(SHARD_PREFIX + shardId, sequenceNumber));
+        histogram.forEach((age, pets) -> properties.setProperty(AGE_PREFIX + age, Long.toString(pets)));
+
+        Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp)) {
+            properties.store(writer, "Pets stream checkpoint");
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,333 @@
+package com.example.dynamodbpetsdemo.stream;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBStreams;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperTableModel;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.DescribeStreamRequest;
+import com.amazonaws.services.dynamodbv2.model.ExpiredIteratorException;
+import com.amazonaws.services.dynamodbv2.model.GetRecordsRequest;
+import com.amazonaws.services.dynamodbv2.model.GetRecordsResult;
+import com.amazonaws.services.dynamodbv2.model.GetShardIteratorRequest;
+import com.amazonaws.services.dynamodbv2.model.Record;
+import com.amazonaws.services.dynamodbv2.model.Shard;
+import com.amazonaws.services.dynamodbv2.model.ShardIteratorType;
+import com.amazonaws.services.dynamodbv2.model.StreamDescription;
+import com.amazonaws.services.dynamodbv2.model.StreamRecord;
+import com.amazonaws.services.dynamodbv2.model.StreamViewType;
+import com.amazonaws.services.dynamodbv2.model.TrimmedDataAccessException;
+import com.example.dynamodbpetsdemo.dto.PetStats;
+import com.example.dynamodbpetsdemo.entity.Pet;
+import com.example.dynamodbpetsdemo.repository.PetRepo;
+import com.example.dynamodbpetsdemo.service.PetCache;
+import com.example.dynamodbpetsdemo.service.PetStatsAccumulator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+//Tails the Pets table's stream so writes made by other services reach this node too: changed pets
+//replace their cached copy, removed ones are evicted, and the age histogram behind GET /pets/stats
+//is kept up to date without rescanning. Plain DescribeStream/GetRecords polling, so it also runs
+//against DynamoDB Local. Needs the stream enabled with NEW_AND_OLD_IMAGES, as an update has to take
+//the old age out of the histogram. Enabled with pets.stream.enabled=true.
+//
+//The first start seeds the histogram with a scan and only applies records written after it began.
+//From then on the checkpoint file carries the histogram and the last sequence number per shard.
+@Component
+@ConditionalOnProperty(name = "pets.stream.enabled", havingValue = "true")
+public class PetStreamConsumer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PetStreamConsumer.class);
+
+    private final AmazonDynamoDB amazonDynamoDB;
+    private final AmazonDynamoDBStreams amazonDynamoDBStreams;
+    private final DynamoDBMapperTableModel<Pet> tableModel;
+    private final PetRepo petRepo;
+    private final PetCache petCache;
+    private final Path checkpointFile;
+    private final long pollIntervalMillis;
+    private final int maxRecords;
+
+    //only touched by the reader thread
+    private final Map<String, String> shardIterators = new HashMap<>();
+    private String streamArn;
+    private boolean checkpointExpired;
+
+    //guarded by this, read by request threads through currentStats
+    private PetStreamCheckpoint checkpoint;
+    private PetStatsAccumulator stats;
+
+    private volatile boolean ready;
+    private volatile boolean running;
+    private Thread reader;
+
+    @Autowired
+    public PetStreamConsumer(AmazonDynamoDB client,
+                             AmazonDynamoDBStreams streamsClient,
+                             DynamoDBMapper mapper,
+                             PetRepo repo,
+                             PetCache cache,
+                             @Value("${pets.stream.checkpointFile:pets-stream.checkpoint}") String checkpointFile,
+                             @Value("${pets.stream.pollInterval:1s}") Duration pollInterval,
+                             @Value("${pets.stream.maxRecords:1000}") int maxRecords) {
+        this.amazonDynamoDB = client;
+        this.amazonDynamoDBStreams = streamsClient;
+        this.tableModel = mapper.getTableModel(Pet.class);
+        this.petRepo = repo;
+        this.petCache = cache;
+        this.checkpointFile = Paths.get(checkpointFile);
+        this.pollIntervalMillis = pollInterval.toMillis();
+        this.maxRecords = maxRecords;
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        reader = new Thread(this::readLoop, "pet-stream-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        reader.interrupt();
+        reader.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    //false until the histogram is seeded or restored from the checkpoint
+    public boolean isReady() {
+        return ready;
+    }
+
+    public synchronized PetStats currentStats() {
+        return stats.toStats();
+    }
+
+    private void readLoop() {
+        while(running) {
+            try {
+                if(!ready) {
+                    initialize();
+                }
+                if(poll()) {
+                    saveCheckpoint();
+                }
+                Thread.sleep(pollIntervalMillis);
+            } catch(InterruptedException e) {
+                break;
+            } catch(TrimmedDataAccessException e) {
+                //the checkpoint is older than the stream's 24h retention, records in between are gone
+                LOGGER.warn("Pets stream checkpoint is past the stream retention, reseeding from a scan");
+                ready = false;
+                shardIterators.clear();
+                checkpointExpired = true;
+            } catch(IOException | RuntimeException e) {
+                if(!running) {
+                    break;
+                }
+                LOGGER.warn("Pets stream poll failed, retrying in {} ms", pollIntervalMillis, e);
+                try {
+                    Thread.sleep(pollIntervalMillis);
+                } catch(InterruptedException interrupted) {
+                    break;
+                }
+            }
+        }
+
+        if(ready) {
+            //clear a pending interrupt from shutdown, it would close the checkpoint file channel mid write
+            Thread.interrupted();
+            try {
+                saveCheckpoint();
+            } catch(IOException e) {
+                LOGGER.warn("Could not save the pets stream checkpoint on shutdown", e);
+            }
+        }
+    }
+
+    private void initialize() throws IOException {
+        String arn = amazonDynamoDB.describeTable(PetRepo.TABLE_NAME).getTable().getLatestStreamArn();
+        if(arn == null) {
+            throw new IllegalStateException("Table " + PetRepo.TABLE_NAME + " has no stream enabled");
+        }
+        streamArn = arn;
+
+        PetStreamCheckpoint saved = checkpointExpired ? null : PetStreamCheckpoint.load(checkpointFile);
+        if(saved != null && arn.equals(saved.getStreamArn())) {
+            synchronized (this) {
+                checkpoint = saved;
+                stats = PetStatsAccumulator.fromHistogram(saved.getHistogram());
+            }
+            LOGGER.info("Resuming pets stream from checkpoint {}", checkpointFile);
+        } else {
+            seed(arn);
+        }
+        checkpointExpired = false;
+        ready = true;
+    }
+
+    //Records written once the scan starts are applied on top of it. A write racing the scan can be
+    //seen by both, which the per-second creation time of stream records can't rule out.
+    private void seed(String arn) throws IOException {
+        PetStreamCheckpoint fresh = new PetStreamCheckpoint();
+        fresh.setStreamArn(arn);
+        fresh.setSince(System.currentTimeMillis());
+
+        PetStatsAccumulator seeded = new PetStatsAccumulator();
+        try (Stream<Pet> pets = petRepo.parallelScan(List.of("age"))) {
+            pets.forEach(pet -> seeded.add(pet.getAge()));
+        }
+        synchronized (this) {
+            checkpoint = fresh;
+            stats = seeded;
+        }
+        LOGGER.info("Seeded pets stream statistics from a scan of {} pets", seeded.toStats().getCount());
+        saveCheckpoint();
+    }
+
+    //one GetRecords per readable shard, returns true when the checkpoint moved
+    private boolean poll() {
+        List<Shard> shards = shards();
+        Set<String> shardIds = new HashSet<>();
+        for (Shard shard : shards) {
+            shardIds.add(shard.getShardId());
+        }
+
+        boolean changed = false;
+        Map<String, String> sequenceNumbers = checkpoint.getSequenceNumbers();
+        for (Shard shard : shards) {
+            String shardId = shard.getShardId();
+            if(PetStreamCheckpoint.CLOSED.equals(sequenceNumbers.get(shardId))) {
+                continue;
+            }
+            //a child shard waits for its parent, so updates to one pet are applied in order
+            String parentId = shard.getParentShardId();
+            if(parentId != null && shardIds.contains(parentId)
+                    && !PetStreamCheckpoint.CLOSED.equals(sequenceNumbers.get(parentId))) {
+                continue;
+            }
+
+            String iterator = shardIterators.get(shardId);
+            if(iterator == null) {
+                iterator = shardIterator(shardId, sequenceNumbers.get(shardId));
+            }
+            GetRecordsResult result;
+            try {
+                result = amazonDynamoDBStreams.getRecords(new GetRecordsRequest()
+                        .withShardIterator(iterator)
+                        .withLimit(maxRecords));
+            } catch(ExpiredIteratorException e) {
+                shardIterators.remove(shardId);
+                continue;
+            }
+
+            for (Record record : result.getRecords()) {
+                apply(record);
+                synchronized (this) {
+                    sequenceNumbers.put(shardId, record.getDynamodb().getSequenceNumber());
+                }
+                changed = true;
+            }
+            if(result.getNextShardIterator() == null) {
+                shardIterators.remove(shardId);
+                synchronized (this) {
+                    sequenceNumbers.put(shardId, PetStreamCheckpoint.CLOSED);
+                }
+                changed = true;
+            } else {
+                shardIterators.put(shardId, result.getNextShardIterator());
+            }
+        }
+
+        //shards past the retention period drop out of DescribeStream, and out of the checkpoint with them
+        synchronized (this) {
+            changed |= sequenceNumbers.keySet().retainAll(shardIds);
+        }
+        return changed;
+    }
+
+    private void apply(Record record) {
+        StreamRecord streamRecord = record.getDynamodb();
+        String id = streamRecord.getKeys().get("id").getS();
+        Pet oldPet = unconvert(streamRecord.getOldImage());
+        Pet newPet = unconvert(streamRecord.getNewImage());
+
+        if(newPet != null) {
+            petCache.refresh(newPet);
+        } else {
+            petCache.invalidate(id);
+        }
+
+        boolean seededAlready = streamRecord.getApproximateCreationDateTime() != null
+                && streamRecord.getApproximateCreationDateTime().getTime() < checkpoint.getSince();
+        if(!seededAlready) {
+            synchronized (this) {
+                if(oldPet != null) {
+                    stats.remove(oldPet.getAge());
+                }
+                if(newPet != null) {
+                    stats.add(newPet.getAge());
+                }
+            }
+        }
+    }
+
+    private Pet unconvert(Map<String, AttributeValue> image) {
+        return image == null || image.isEmpty() ? null : tableModel.unconvert(image);
+    }
+
+    private List<Shard> shards() {
+        List<Shard> shards = new ArrayList<>();
+        String lastShardId = null;
+        do {
+            StreamDescription description = amazonDynamoDBStreams.describeStream(new DescribeStreamRequest()
+                    .withStreamArn(streamArn)
+                    .withExclusiveStartShardId(lastShardId)).getStreamDescription();
+            if(!StreamViewType.NEW_AND_OLD_IMAGES.toString().equals(description.getStreamViewType())) {
+                throw new IllegalStateException("Pets stream must use " + StreamViewType.NEW_AND_OLD_IMAGES
+                        + ", it uses " + description.getStreamViewType());
+            }
+            shards.addAll(description.getShards());
+            lastShardId = description.getLastEvaluatedShardId();
+        } while(lastShardId != null);
+        return shards;
+    }
+
+    private String shardIterator(String shardId, String sequenceNumber) {
+        GetShardIteratorRequest request = new GetShardIteratorRequest()
+                .withStreamArn(streamArn)
+                .withShardId(shardId);
+        if(sequenceNumber == null) {
+            request.withShardIteratorType(ShardIteratorType.TRIM_HORIZON);
+        } else {
+            request.withShardIteratorType(ShardIteratorType.AFTER_SEQUENCE_NUMBER).withSequenceNumber(sequenceNumber);
+        }
+        return amazonDynamoDBStreams.getShardIterator(request).getShardIterator();
+    }
+
+    private synchronized void saveCheckpoint() throws IOException {
+        checkpoint.getHistogram().clear();
+        checkpoint.getHistogram().putAll(stats.histogram());
+        checkpoint.save(checkpointFile);
+    }
+}
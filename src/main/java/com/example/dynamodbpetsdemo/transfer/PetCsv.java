@@ -0,0 +1,139 @@
+package com.example.dynamodbpetsdemo.transfer;
+
+import com.example.dynamodbpetsdemo.entity.Pet;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//RFC 4180 CSV for pets. Fields holding a comma, quote or line break are quoted with quotes doubled,
+//so a quoted name may span lines. The header names the columns, which may come in any order
+//on import, and an empty id or version is read as null.
+class PetCsv {
+
+    static final String[] COLUMNS = {"id", "name", "age", "version"};
+
+    private PetCsv() {
+    }
+
+    static PetTransferFormat.PetRecordWriter writer(Writer out) throws IOException {
+        writeRecord(out, List.of(COLUMNS));
+        return pet -> writeRecord(out, List.of(
+                pet.getId() == null ? "" : pet.getId(),
+                pet.getName() == null ? "" : pet.getName(),
+                Integer.toString(pet.getAge()),
+                pet.getVersion() == null ? "" : pet.getVersion().toString()));
+    }
+
+    static PetTransferFormat.PetRecordReader reader(BufferedReader in) throws IOException {
+        List<String> header = readRecord(in);
+        if(header == null) {
+            return () -> null;
+        }
+        Map<String, Integer> columns = new HashMap<>();
+        for (int i = 0; i < header.size(); i++) {
+            columns.put(header.get(i).trim(), i);
+        }
+        if(!columns.containsKey("name") || !columns.containsKey("age")) {
+            throw new IOException("CSV header needs at least name and age columns, was " + header);
+        }
+
+        return () -> {
+            List<String> record;
+            do {
+                record = readRecord(in);
+                if(record == null) {
+                    return null;
+                }
+            } while(record.size() == 1 && record.get(0).isEmpty());
+
+            Pet pet = new Pet();
+            pet.setId(emptyToNull(field(record, columns, "id")));
+            pet.setName(emptyToNull(field(record, columns, "name")));
+            String age = field(record, columns, "age");
+            String version = emptyToNull(field(record, columns, "version"));
+            try {
+                pet.setAge(Integer.parseInt(age.trim()));
+                pet.setVersion(version == null ? null : Long.valueOf(version.trim()));
+            } catch(NumberFormatException e) {
+                throw new IOException("Invalid number in CSV record " + record, e);
+            }
+            return pet;
+        };
+    }
+
+    private static void writeRecord(Writer out, List<String> fields) throws IOException {
+        for (int i = 0; i < fields.size(); i++) {
+            if(i > 0) {
+                out.write(',');
+            }
+            String field = fields.get(i);
+            if(field.indexOf(',') >= 0 || field.indexOf('"') >= 0 || field.indexOf('\n') >= 0 || field.indexOf('\r') >= 0) {
+                out.write('"');
+                out.write(field.replace("\"", "\"\""));
+                out.write('"');
+            } else {
+                out.write(field);
+            }
+        }
+        out.write("\r\n");
+    }
+
+    //null at the end of the input, a record is ended by CRLF or LF outside of quotes
+    static List<String> readRecord(BufferedReader in) throws IOException {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        boolean any = false;
+        int c;
+        while((c = in.read()) != -1) {
+            any = true;
+            if(quoted) {
+                if(c == '"') {
+                    in.mark(1);
+                    int next = in.read();
+                    if(next == '"') {
+                        field.append('"');
+                    } else {
+                        quoted = false;
+                        if(next != -1) {
+                            in.reset();
+                        }
+                    }
+                } else {
+                    field.append((char) c);
+                }
+            } else if(c == '"') {
+                quoted = true;
+            } else if(c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if(c == '\n') {
+                break;
+            } else if(c != '\r') {
+                field.append((char) c);
+            }
+        }
+        if(!any) {
+            return null;
+        }
+        if(quoted) {
+            throw new IOException("Unterminated quoted field in CSV");
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static String field(List<String> record, Map<String, Integer> columns, String name) {
+        Integer index = columns.get(name);
+        return index == null || index >= record.size() ? "" : record.get(index);
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+}
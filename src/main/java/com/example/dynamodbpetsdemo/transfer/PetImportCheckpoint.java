@@ -0,0 +1,108 @@
+package com.example.dynamodbpetsdemo.transfer;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Properties;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+//How far an import got: every record before `records` in the file has been written or found invalid,
+//except the ones listed in failedRecords (0-based record numbers), which a rerun writes again.
+//Stored as a properties file, replaced atomically after each chunk.
+class PetImportCheckpoint {
+
+    private static final String FILE = "file";
+    private static final String RECORDS = "records";
+    private static final String IMPORTED = "imported";
+    private static final String FAILED_RECORDS = "failedRecords";
+    private static final String INVALID = "invalid";
+
+    private String file;
+    private long records;
+    private long imported;
+    private long invalid;
+    private final SortedSet<Long> failedRecords = new TreeSet<>();
+
+    PetImportCheckpoint(String file) {
+        this.file = file;
+    }
+
+    String getFile() {
+        return file;
+    }
+
+    long getRecords() {
+        return records;
+    }
+
+    long getImported() {
+        return imported;
+    }
+
+    long getFailed() {
+        return failedRecords.size();
+    }
+
+    SortedSet<Long> getFailedRecords() {
+        return failedRecords;
+    }
+
+    long getInvalid() {
+        return invalid;
+    }
+
+    //retried records are taken off the failed list, the ones that failed (again) are put on it
+    void advance(long records, long imported, long invalid, Collection<Long> retried, Collection<Long> failed) {
+        this.records += records;
+        this.imported += imported;
+        this.invalid += invalid;
+        failedRecords.removeAll(retried);
+        failedRecords.addAll(failed);
+    }
+
+    //null when there is no checkpoint yet
+    static PetImportCheckpoint load(Path path) throws IOException {
+        if(!Files.exists(path)) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(path)) {
+            properties.load(reader);
+        }
+
+        PetImportCheckpoint checkpoint = new PetImportCheckpoint(properties.getProperty(FILE));
+        checkpoint.records = Long.parseLong(properties.getProperty(RECORDS, "0"));
+        checkpoint.imported = Long.parseLong(properties.getProperty(IMPORTED, "0"));
+        checkpoint.invalid = Long.parseLong(properties.getProperty(INVALID, "0"));
+        for (String record : properties.getProperty(FAILED_RECORDS, "").split(",")) {
+            if(!record.isBlank()) {
+                checkpoint.failedRecords.add(Long.parseLong(record.trim()));
+            }
+        }
+        return checkpoint;
+    }
+
+    //written next to the target and moved over it, so a crash never leaves half a checkpoint behind
+    void save(Path path) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(FILE, file);
+        properties.setProperty(RECORDS, Long.toString(records));
+        properties.setProperty(IMPORTED, Long.toString(imported));
+        properties.setProperty(INVALID, Long.toString(invalid));
+        properties.setProperty(FAILED_RECORDS, failedRecords.stream().map(String::valueOf).collect(Collectors.joining(",")));
+
+        Path directory = path.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp)) {
+            properties.store(writer, "Pets import checkpoint");
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
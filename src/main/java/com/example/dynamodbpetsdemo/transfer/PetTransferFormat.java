@@ -0,0 +1,98 @@
+package com.example.dynamodbpetsdemo.transfer;
+
+import com.example.dynamodbpetsdemo.entity.Pet;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+//File formats of the export and import jobs. Both are written and read one pet at a time,
+//so neither side ever holds more than the pet it is working on.
+public enum PetTransferFormat {
+
+    //one pet as JSON per line, the same representation as GET /pets/stream
+    NDJSON("application/x-ndjson") {
+        @Override
+        PetRecordWriter writer(Writer out) {
+            ObjectWriter json = OBJECT_MAPPER.writerFor(Pet.class);
+            return pet -> {
+                out.write(json.writeValueAsString(pet));
+                out.write('\n');
+            };
+        }
+
+        @Override
+        PetRecordReader reader(BufferedReader in) {
+            ObjectReader json = OBJECT_MAPPER.readerFor(Pet.class);
+            return () -> {
+                String line;
+                do {
+                    line = in.readLine();
+                    if(line == null) {
+                        return null;
+                    }
+                } while(line.isBlank());
+                return json.readValue(line);
+            };
+        }
+    },
+
+    //RFC 4180 with an id,name,age,version header, see PetCsv
+    CSV("text/csv") {
+        @Override
+        PetRecordWriter writer(Writer out) throws IOException {
+            return PetCsv.writer(out);
+        }
+
+        @Override
+        PetRecordReader reader(BufferedReader in) throws IOException {
+            return PetCsv.reader(in);
+        }
+    };
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final String contentType;
+
+    PetTransferFormat(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    abstract PetRecordWriter writer(Writer out) throws IOException;
+
+    abstract PetRecordReader reader(BufferedReader in) throws IOException;
+
+    public static PetTransferFormat fromName(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch(IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown transfer format: " + name);
+        }
+    }
+
+    //pets.csv.gz -> CSV, anything else is NDJSON
+    public static PetTransferFormat fromFileName(String fileName) {
+        String name = fileName.toLowerCase(Locale.ROOT);
+        if(name.endsWith(".gz")) {
+            name = name.substring(0, name.length() - ".gz".length());
+        }
+        return name.endsWith(".csv") ? CSV : NDJSON;
+    }
+
+    interface PetRecordWriter {
+        void write(Pet pet) throws IOException;
+    }
+
+    interface PetRecordReader {
+        //null at the end of the input
+        Pet next() throws IOException;
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.dynamodbpetsdemo.transfer;
+
+import com.example.dynamodbpetsdemo.dto.PetTransferResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+
+//Runs one export or import at startup and exits with 0 when it succeeded, for backfills and environment refreshes:
+//
+//java -jar app.jar --spring.main.web-application-type=none --pets.transfer.job=export --pets.transfer.file=pets.ndjson.gz
+//java -jar app.jar --spring.main.web-application-type=none --pets.transfer.job=import --pets.transfer.file=pets.ndjson.gz
+//
+//The format follows the file name (.csv or .csv.gz is CSV, anything else NDJSON) unless pets.transfer.format is set.
+//An import that fails, or finishes with failed records (exit code 1), can be started again with the same file;
+//it picks up from pets.transfer.checkpointFile and retries the failed records.
+@Component
+@ConditionalOnProperty(name = "pets.transfer.job")
+public class PetTransferJob implements ApplicationRunner {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PetTransferJob.class);
+
+    private final PetTransferService petTransferService;
+    private final ConfigurableApplicationContext context;
+    private final String job;
+    private final Path file;
+    private final PetTransferFormat format;
+    private final Path checkpointFile;
+
+    @Autowired
+    public PetTransferJob(PetTransferService transferService,
+                          ConfigurableApplicationContext context,
+                          @Value("${pets.transfer.job}") String job,
+                          @Value("${pets.transfer.file}") String file,
+                          @Value("${pets.transfer.format:}") String format,
+                          @Value("${pets.transfer.checkpointFile:}") String checkpointFile) {
+        petTransferService = transferService;
+        this.context = context;
+        this.job = job.trim().toLowerCase(Locale.ROOT);
+        this.file = Paths.get(file);
+        this.format = format.isBlank() ? PetTransferFormat.fromFileName(file) : PetTransferFormat.fromName(format);
+        this.checkpointFile = checkpointFile.isBlank() ? Paths.get(file + ".checkpoint") : Paths.get(checkpointFile);
+        if(!this.job.equals("export") && !this.job.equals("import")) {
+            throw new IllegalArgumentException("pets.transfer.job must be export or import, was " + job);
+        }
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        int exitCode;
+        try {
+            PetTransferResult result = job.equals("export")
+                    ? petTransferService.exportToFile(file, format)
+                    : petTransferService.importFromFile(file, format, checkpointFile);
+            LOGGER.info("Pet {} finished: {}", job, result);
+            exitCode = result.getFailed() == 0 ? 0 : 1;
+        } catch(Exception e) {
+            LOGGER.error("Pet {} of {} failed", job, file, e);
+            exitCode = 1;
+        }
+        int code = exitCode;
+        System.exit(SpringApplication.exit(context, () -> code));
+    }
+}
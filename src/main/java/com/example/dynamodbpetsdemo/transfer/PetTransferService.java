@@ -0,0 +1,344 @@
+package com.example.dynamodbpetsdemo.transfer;
+
+import com.example.dynamodbpetsdemo.dto.PetTransferResult;
+import com.example.dynamodbpetsdemo.entity.Pet;
+import com.example.dynamodbpetsdemo.repository.PetRepo;
+import com.example.dynamodbpetsdemo.service.PetCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+//Bulk export and import of the Pets table with bounded memory.
+//Export streams a parallel scan straight into the output, the scan's bounded page queue holds it back
+//when the output is slower than DynamoDB. Import reads the file one record at a time and writes chunks
+//of importChunkSize pets with batchSave on importWriters threads. After each chunk, in file order,
+//a checkpoint records how many records are done and which of them failed, so a failed or killed import
+//resumes after them and retries the failed ones.
+@Service
+public class PetTransferService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PetTransferService.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final PetRepo petRepo;
+    private final PetCache petCache;
+    private final int importChunkSize;
+    private final int importWriters;
+    private final Duration progressInterval;
+
+    @Autowired
+    public PetTransferService(PetRepo repo,
+                              PetCache cache,
+                              @Value("${pets.transfer.importChunkSize:500}") int chunkSize,
+                              @Value("${pets.transfer.importWriters:4}") int writers,
+                              @Value("${pets.transfer.progressInterval:10s}") Duration progressInterval) {
+        if(chunkSize < 1 || writers < 1) {
+            throw new IllegalArgumentException("pets.transfer.importChunkSize and importWriters must be positive");
+        }
+        petRepo = repo;
+        petCache = cache;
+        importChunkSize = chunkSize;
+        importWriters = writers;
+        this.progressInterval = progressInterval;
+    }
+
+    //writes every pet to out, which is flushed but left open
+    public PetTransferResult export(OutputStream out, PetTransferFormat format) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+        PetTransferFormat.PetRecordWriter records = format.writer(writer);
+        Progress progress = new Progress("Exported");
+        try (Stream<Pet> pets = petRepo.parallelScan()) {
+            Iterator<Pet> iterator = pets.iterator();
+            while(iterator.hasNext()) {
+                records.write(iterator.next());
+                progress.add(1);
+            }
+        }
+        writer.flush();
+        return progress.finish();
+    }
+
+    //gzip compressed when the file name ends with .gz. Written to a temp file first,
+    //so the target only ever holds a complete export
+    public PetTransferResult exportToFile(Path file, PetTransferFormat format) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            PetTransferResult result;
+            try (OutputStream out = isGzip(file)
+                    ? new GZIPOutputStream(Files.newOutputStream(temp), BUFFER_SIZE)
+                    : Files.newOutputStream(temp)) {
+                result = export(out, format);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            LOGGER.info("Exported {} pets to {} in {} s", result.getPets(), file, Math.round(result.getSeconds()));
+            return result;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    //Gzip input is recognized by its magic bytes. Pets are written with their ids, and records without one
+    //get an id derived from the file and their position in it, so replaying a chunk on resume just overwrites
+    //the same items. Names are uppercased like savePet does. The checkpoint is deleted once every record
+    //is written; while some failed it is kept, and running the import again retries just those.
+    public PetTransferResult importFromFile(Path file, PetTransferFormat format, Path checkpointFile) throws IOException {
+        String source = file.toAbsolutePath().normalize().toString();
+        PetImportCheckpoint checkpoint = PetImportCheckpoint.load(checkpointFile);
+        if(checkpoint != null && !source.equals(checkpoint.getFile())) {
+            LOGGER.warn("Ignoring import checkpoint {}, it belongs to {}", checkpointFile, checkpoint.getFile());
+            checkpoint = null;
+        }
+        if(checkpoint == null) {
+            checkpoint = new PetImportCheckpoint(source);
+        } else {
+            LOGGER.info("Resuming import of {} after {} records, retrying {} failed ones",
+                    file, checkpoint.getRecords(), checkpoint.getFailed());
+        }
+        long resumeAt = checkpoint.getRecords();
+        Set<Long> retry = new HashSet<>(checkpoint.getFailedRecords());
+
+        Progress progress = new Progress("Imported");
+        progress.resumedAfter = checkpoint.getRecords();
+        ExecutorService writers = Executors.newFixedThreadPool(importWriters, importThreads());
+        Deque<Future<Chunk>> pending = new ArrayDeque<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(open(file), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            PetTransferFormat.PetRecordReader records = format.reader(in);
+            Chunk chunk = new Chunk(importChunkSize);
+            Pet pet;
+            for (long record = 0; (pet = records.next()) != null; record++) {
+                if(record < resumeAt) {
+                    //done by an earlier run, unless it failed there
+                    if(!retry.contains(record)) {
+                        continue;
+                    }
+                    chunk.retry(record, prepare(pet, source, record));
+                } else {
+                    chunk.add(record, prepare(pet, source, record));
+                }
+                if(chunk.size == importChunkSize) {
+                    Chunk full = chunk;
+                    pending.add(writers.submit(() -> write(full)));
+                    chunk = new Chunk(importChunkSize);
+                    //at most importWriters chunks in flight, so memory stays bounded however big the file is
+                    if(pending.size() >= importWriters) {
+                        complete(pending.poll(), checkpoint, checkpointFile, progress);
+                    }
+                }
+            }
+            if(chunk.size > 0) {
+                Chunk last = chunk;
+                pending.add(writers.submit(() -> write(last)));
+            }
+            while(!pending.isEmpty()) {
+                complete(pending.poll(), checkpoint, checkpointFile, progress);
+            }
+        } finally {
+            writers.shutdownNow();
+        }
+
+        if(checkpoint.getFailed() == 0) {
+            Files.deleteIfExists(checkpointFile);
+        } else {
+            LOGGER.warn("{} records of {} could not be written, run the import again to retry them from {}",
+                    checkpoint.getFailed(), file, checkpointFile);
+        }
+        PetTransferResult result = progress.finish();
+        LOGGER.info("Imported {} pets from {} in {} s, {} failed, {} invalid",
+                result.getPets(), file, Math.round(result.getSeconds()), result.getFailed(), result.getInvalid());
+        return result;
+    }
+
+    //null for an invalid record, which is counted but not written
+    private static Pet prepare(Pet pet, String source, long record) {
+        if(pet.getName() == null || pet.getAge() < 0) {
+            return null;
+        }
+        pet.setName(pet.getName().toUpperCase());
+        //batchSave would generate a random key, which would duplicate the pet when a chunk is replayed
+        if(pet.getId() == null) {
+            pet.setId(UUID.nameUUIDFromBytes((source + "#" + record).getBytes(StandardCharsets.UTF_8)).toString());
+        }
+        return pet;
+    }
+
+    private Chunk write(Chunk chunk) {
+        if(!chunk.pets.isEmpty()) {
+            List<Pet> pets = new ArrayList<>(chunk.pets.values());
+            for (String failedId : petRepo.batchSave(pets)) {
+                chunk.failed.add(chunk.records.get(failedId));
+            }
+            for (Pet pet : pets) {
+                petCache.invalidate(pet.getId());
+            }
+        }
+        return chunk;
+    }
+
+    //chunks complete in file order, so the checkpoint never skips over a chunk that wasn't written
+    private void complete(Future<Chunk> future, PetImportCheckpoint checkpoint, Path checkpointFile,
+                          Progress progress) throws IOException {
+        Chunk chunk;
+        try {
+            chunk = future.get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted, resume from " + checkpointFile, e);
+        } catch(ExecutionException e) {
+            throw new IOException("Import chunk failed, resume from " + checkpointFile, e.getCause());
+        }
+        int imported = chunk.pets.size() - chunk.failed.size();
+        checkpoint.advance(chunk.newRecords, imported, chunk.invalid, chunk.retried, chunk.failed);
+        checkpoint.save(checkpointFile);
+        progress.failed += chunk.failed.size();
+        progress.invalid += chunk.invalid;
+        progress.add(imported);
+    }
+
+    private static InputStream open(Path file) throws IOException {
+        InputStream in = new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE);
+        in.mark(2);
+        int first = in.read();
+        int second = in.read();
+        in.reset();
+        if(first == (GZIPInputStream.GZIP_MAGIC & 0xff) && second == (GZIPInputStream.GZIP_MAGIC >> 8)) {
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        }
+        return in;
+    }
+
+    private static boolean isGzip(Path file) {
+        return file.getFileName().toString().endsWith(".gz");
+    }
+
+    private static ThreadFactory importThreads() {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "pet-import-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    //Records read from the file in one batchSave, invalid ones are counted but not written.
+    //A pet that appears twice is written once, as its last record: a transaction can't write
+    //the same pet twice.
+    private static class Chunk {
+        private final Map<String, Pet> pets;
+        //record number of the pet written for each id
+        private final Map<String, Long> records;
+        private final List<Long> retried = new ArrayList<>();
+        private final List<Long> failed = new ArrayList<>();
+        private int size;
+        private int newRecords;
+        private int invalid;
+
+        private Chunk(int size) {
+            pets = new LinkedHashMap<>(size * 2);
+            records = new HashMap<>(size * 2);
+        }
+
+        private void add(long record, Pet pet) {
+            newRecords++;
+            size++;
+            if(pet == null) {
+                invalid++;
+            } else {
+                put(record, pet);
+            }
+        }
+
+        //a record that failed in an earlier run, it no longer counts as failed once this chunk is written
+        private void retry(long record, Pet pet) {
+            retried.add(record);
+            size++;
+            if(pet != null) {
+                put(record, pet);
+            }
+        }
+
+        private void put(long record, Pet pet) {
+            pets.put(pet.getId(), pet);
+            records.put(pet.getId(), record);
+        }
+    }
+
+    //counts pets and logs the rate every progressInterval
+    private class Progress {
+        private final String action;
+        private final long start = System.nanoTime();
+        private long lastLog = start;
+        private long pets;
+        private long failed;
+        private long invalid;
+        private long resumedAfter;
+
+        private Progress(String action) {
+            this.action = action;
+        }
+
+        private void add(long count) {
+            pets += count;
+            long now = System.nanoTime();
+            if(now - lastLog >= progressInterval.toNanos()) {
+                lastLog = now;
+                LOGGER.info("{} {} pets so far, {} pets/s", action, pets, Math.round(pets / seconds(now)));
+            }
+        }
+
+        private PetTransferResult finish() {
+            double seconds = seconds(System.nanoTime());
+            PetTransferResult result = new PetTransferResult();
+            result.setPets(pets);
+            result.setFailed(failed);
+            result.setInvalid(invalid);
+            result.setResumedAfter(resumedAfter);
+            result.setSeconds(seconds);
+            result.setPetsPerSecond(seconds > 0 ? pets / seconds : 0);
+            return result;
+        }
+
+        private double seconds(long now) {
+            return (now - start) / 1e9;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.example.dynamodbpetsdemo.archive;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.example.dynamodbpetsdemo.entity.Pet;
+import com.example.dynamodbpetsdemo.repository.PetRepo;
+import com.example.dynamodbpetsdemo.service.PetCache;
+import com.example.dynamodbpetsdemo.service.PetLoadCoalescer;
+import com.example.dynamodbpetsdemo.service.PetService;
+import com.example.dynamodbpetsdemo.service.PetWriteBuffer;
+import com.example.dynamodbpetsdemo.support.InMemoryAmazonDynamoDB;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PetArchiverTest {
+
+    private static final Duration INACTIVE_AFTER = Duration.ofDays(90);
+
+    @TempDir
+    Path directory;
+
+    private ExecutorService executor;
+    private InMemoryAmazonDynamoDB client;
+    private PetRepo petRepo;
+
+    @BeforeEach
+    void beforeMethod() {
+        executor = Executors.newFixedThreadPool(4);
+        client = new InMemoryAmazonDynamoDB().withTableFor(Pet.class);
+        petRepo = new PetRepo(new DynamoDBMapper(client), client, executor, 3);
+    }
+
+    @AfterEach
+    void afterMethod() {
+        executor.shutdownNow();
+    }
+
+    private PetArchiver archiver(PetArchive archive, long now) {
+        return new PetArchiver(petRepo, PetCache.disabled(), archive, INACTIVE_AFTER, Duration.ofHours(1), () -> now);
+    }
+
+    private PetService petService(PetArchive archive) {
+        return new PetService(petRepo, PetCache.disabled(), PetWriteBuffer.disabled(), PetLoadCoalescer.disabled(petRepo),
+                archive);
+    }
+
+    private static long daysFromNow(int days) {
+        return System.currentTimeMillis() + Duration.ofDays(days).toMillis();
+    }
+
+    @Test
+    void inactivePetsMoveToTheArchiveAndAreStillFoundById() {
+        //given
+        client.createTable(DynamoDBPetArchive.createTableRequest("PetsArchive"));
+        PetArchive archive = new DynamoDBPetArchive(client, "PetsArchive");
+        petRepo.save(new Pet("old", "REX", 3));
+        long savedAt = petRepo.findById("old").getUpdatedAt();
+        PetArchiver archiver = archiver(archive, daysFromNow(91));
+
+        //when
+        int archived = archiver.archiveInactive();
+
+        //then
+        assertEquals(1, archived);
+        assertNull(petRepo.findById("old"));
+        Pet found = petService(archive).findPetById("old");
+        assertAll(
+                () -> assertEquals("REX", found.getName()),
+                () -> assertEquals(3, found.getAge()),
+                () -> assertEquals(savedAt, found.getUpdatedAt()),
+                () -> assertEquals(0, archiver.archiveInactive())
+        );
+    }
+
+    @Test
+    void recentlyWrittenPetsStayInTheTable() {
+        //given
+        PetArchive archive = new FilePetArchive(directory);
+        petRepo.save(new Pet("pet1", "REX", 3));
+
+        //when
+        int archived = archiver(archive, daysFromNow(89)).archiveInactive();
+
+        //then
+        assertAll(
+                () -> assertEquals(0, archived),
+                () -> assertNotNull(petRepo.findById("pet1")),
+                () -> assertNull(archive.find("pet1"))
+        );
+    }
+
+    @Test
+    void withoutAnArchiveStoreNothingIsArchived() throws Exception {
+        //given
+        petRepo.save(new Pet("pet1", "REX", 3));
+        PetArchiver archiver = archiver(PetArchive.none(), daysFromNow(91));
+
+        //when
+        archiver.start();
+        int archived = archiver.archiveInactive();
+        archiver.shutdown();
+
+        //then
+        assertAll(
+                () -> assertEquals(0, archived),
+                () -> assertNotNull(petRepo.findById("pet1"))
+        );
+    }
+
+    @Test
+    void noArchiveShouldKeepNothingWithoutThrowing() {
+        //given
+        PetArchive archive = PetArchive.none();
+
+        //when
+        archive.put(new Pet("pet1", "REX", 3));
+
+        //then
+        assertAll(
+                () -> assertFalse(archive.isEnabled()),
+                () -> assertNull(archive.find("pet1")),
+                () -> assertDoesNotThrow(() -> archive.delete("pet1"))
+        );
+    }
+
+    @Test
+    void petsWithoutUpdatedAtAreStampedInsteadOfArchived() {
+        //given
+        PetArchive archive = new FilePetArchive(directory);
+        client.putItem(new PutItemRequest().withTableName(PetRepo.TABLE_NAME).withItem(Map.of(
+                "id", new AttributeValue().withS("legacy"),
+                "name", new AttributeValue().withS("REX"),
+                "age", new AttributeValue().withN("3"))));
+        long now = daysFromNow(0);
+
+        //when
+        int archived = archiver(archive, now).archiveInactive();
+
+        //then
+        assertAll(
+                () -> assertEquals(0, archived),
+                () -> assertEquals(now, petRepo.findById("legacy").getUpdatedAt()),
+                () -> assertNull(petRepo.findById("legacy").getVersion())
+        );
+    }
+
+    @Test
+    void petWrittenWhileBeingArchivedStaysLive() {
+        //given
+        PetArchive files = new FilePetArchive(directory);
+        PetArchive racing = new PetArchive() {
+            @Override
+            public Pet find(String id) {
+                return files.find(id);
+            }
+
+            @Override
+            public void put(Pet pet) {
+                files.put(pet);
+                //a client updates the pet between the archive write and the delete
+                petRepo.save(new Pet(pet.getId(), "UPDATED", pet.getAge()));
+            }
+
+            @Override
+            public void delete(String id) {
+                files.delete(id);
+            }
+        };
+        petRepo.save(new Pet("pet1", "REX", 3));
+
+        //when
+        int archived = archiver(racing, daysFromNow(91)).archiveInactive();
+
+        //then
+        assertAll(
+                () -> assertEquals(0, archived),
+                () -> assertEquals("UPDATED", petRepo.findById("pet1").getName()),
+                () -> assertNull(files.find("pet1"))
+        );
+    }
+
+    @Test
+    void deletingAnArchivedPetRemovesItFromTheArchive() {
+        //given
+        PetArchive archive = new FilePetArchive(directory);
+        petRepo.save(new Pet("pet1", "REX", 3));
+        archiver(archive, daysFromNow(91)).archiveInactive();
+        PetService petService = petService(archive);
+
+        //when
+        Pet deleted = petService.deletePet("pet1");
+
+        //then
+        assertAll(
+                () -> assertEquals("REX", deleted.getName()),
+                () -> assertNull(petService.findPetById("pet1")),
+                () -> assertNull(petService.deletePet("pet1"))
+        );
+    }
+
+    @Test
+    void expiredPetsAreNotFoundAndLeftToTheTtl() {
+        //given
+        PetArchive archive = new FilePetArchive(directory);
+        Pet pet = new Pet("pet1", "REX", 3);
+        pet.setExpiresAt(System.currentTimeMillis() / 1000 - 1);
+        petRepo.save(pet);
+
+        //when
+        int archived = archiver(archive, daysFromNow(91)).archiveInactive();
+
+        //then
+        assertAll(
+                () -> assertEquals(0, archived),
+                () -> assertNotNull(petRepo.findById("pet1")),
+                () -> assertNull(petService(archive).findPetById("pet1"))
+        );
+    }
+}
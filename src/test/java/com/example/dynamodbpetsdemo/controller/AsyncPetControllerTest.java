@@ -0,0 +1,85 @@
+package com.example.dynamodbpetsdemo.controller;
+
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.example.dynamodbpetsdemo.entity.Pet;
+import com.example.dynamodbpetsdemo.exception.InvalidInputException;
+import com.example.dynamodbpetsdemo.idempotency.IdempotencyService;
+import com.example.dynamodbpetsdemo.service.PetService;
+import com.example.dynamodbpetsdemo.service.PetStatsService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class AsyncPetControllerTest {
+
+    private AsyncPetController asyncPetController;
+    private PetService petServiceMock;
+
+    @BeforeEach
+    void beforeMethod() {
+        petServiceMock = Mockito.mock(PetService.class);
+        //run the futures on the calling thread so the tests stay deterministic
+        PetController petController = new PetController(petServiceMock, Mockito.mock(PetStatsService.class),
+                IdempotencyService.disabled());
+        asyncPetController = new AsyncPetController(petController, Runnable::run);
+    }
+
+    @Test
+    void findByIdShouldCompleteWithThePetAndItsETag() {
+        //given
+        String id = "abc123";
+        Pet pet = new Pet(id, "Lucy", 6);
+        pet.setVersion(3L);
+        //when
+        when(petServiceMock.findPetById(id)).thenReturn(pet);
+        ResponseEntity<Pet> entity = asyncPetController.findById(id, null).join();
+        ResponseEntity<Pet> revalidated = asyncPetController.findById(id, "\"3\"").join();
+        //then
+        assertAll(
+                () -> assertEquals(HttpStatus.OK, entity.getStatusCode()),
+                () -> assertEquals(pet, entity.getBody()),
+                () -> assertEquals("\"3\"", entity.getHeaders().getETag()),
+                () -> assertEquals(HttpStatus.NOT_MODIFIED, revalidated.getStatusCode())
+        );
+    }
+
+    @Test
+    void missingPetShouldCompleteWithNotFound() {
+        //when
+        when(petServiceMock.findPetById("abc123")).thenReturn(null);
+        ResponseEntity<Pet> entity = asyncPetController.findById("abc123", null).join();
+        //then
+        assertEquals(HttpStatus.NOT_FOUND, entity.getStatusCode());
+    }
+
+    @Test
+    void invalidPetShouldCompleteWithBadRequest() throws InvalidInputException {
+        //given
+        Pet pet = new Pet("abc123", "Lucy", -6);
+        //when
+        when(petServiceMock.savePet(pet)).thenThrow(new InvalidInputException("Age cannot be negative"));
+        ResponseEntity<?> entity = asyncPetController.save(pet, null).join();
+        //then
+        assertEquals(HttpStatus.BAD_REQUEST, entity.getStatusCode());
+    }
+
+    @Test
+    void versionConflictOnSaveShouldCompleteWithConflict() throws InvalidInputException {
+        //given
+        Pet pet = new Pet("abc123", "Lucy", 6);
+        pet.setVersion(2L);
+        //when
+        when(petServiceMock.savePet(pet)).thenThrow(new ConditionalCheckFailedException("version moved"));
+        ResponseEntity<?> entity = asyncPetController.save(pet, null).join();
+        //then
+        assertEquals(HttpStatus.CONFLICT, entity.getStatusCode());
+    }
+}
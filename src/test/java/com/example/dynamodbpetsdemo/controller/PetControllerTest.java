@@ -1,8 +1,27 @@
 package com.example.dynamodbpetsdemo.controller;
 
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.example.dynamodbpetsdemo.dto.PetPage;
+import com.example.dynamodbpetsdemo.dto.PetTransaction;
+import com.example.dynamodbpetsdemo.dto.PetTransactionAction;
+import com.example.dynamodbpetsdemo.dto.PetTransactionItem;
+import com.example.dynamodbpetsdemo.dto.PetTransactionResult;
 import com.example.dynamodbpetsdemo.entity.Pet;
+import com.example.dynamodbpetsdemo.exception.IdempotencyKeyInProgressException;
+import com.example.dynamodbpetsdemo.exception.IdempotencyKeyReusedException;
 import com.example.dynamodbpetsdemo.exception.InvalidInputException;
+import com.example.dynamodbpetsdemo.exception.PetTransactionCanceledException;
+import com.example.dynamodbpetsdemo.exception.VersionMismatchException;
+import com.example.dynamodbpetsdemo.exception.WriteBufferClosedException;
+import com.example.dynamodbpetsdemo.exception.WriteBufferFullException;
+import com.example.dynamodbpetsdemo.idempotency.IdempotencyKeyStore;
+import com.example.dynamodbpetsdemo.idempotency.IdempotencyService;
 import com.example.dynamodbpetsdemo.service.PetService;
+import com.example.dynamodbpetsdemo.service.PetStatsService;
+import com.example.dynamodbpetsdemo.support.InMemoryAmazonDynamoDB;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import io.restassured.RestAssured;
 import io.restassured.http.ContentType;
 import io.restassured.response.Response;
@@ -15,13 +34,25 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static io.restassured.RestAssured.*;
@@ -39,7 +70,8 @@ class PetControllerTest {
     @BeforeEach
     void beforeMethod() {
         petServiceMock = Mockito.mock(PetService.class);
-        petController = new PetController(petServiceMock);
+        petController = new PetController(petServiceMock, Mockito.mock(PetStatsService.class),
+                IdempotencyService.disabled());
     }
 
     @Nested
@@ -76,6 +108,158 @@ class PetControllerTest {
 
     }
 
+    @Nested
+    class WriteBehindSaveMethodTests {
+        @Test
+        void queuedPetShouldBeAccepted() throws Exception {
+            //given
+            Pet pet = new Pet("abc123", "Lucy", 6);
+            //when
+            when(petServiceMock.isWriteBehindEnabled()).thenReturn(true);
+            when(petServiceMock.enqueuePet(pet)).thenReturn(new CompletableFuture<>());
+            ResponseEntity<Pet> entity = petController.save(pet);
+            //then
+            assertEquals(HttpStatus.ACCEPTED, entity.getStatusCode());
+            verify(petServiceMock, never()).savePet(pet);
+        }
+
+        @Test
+        void fullQueueShouldBeTooManyRequests() throws Exception {
+            //given
+            Pet pet = new Pet("abc123", "Lucy", 6);
+            //when
+            when(petServiceMock.isWriteBehindEnabled()).thenReturn(true);
+            when(petServiceMock.enqueuePet(pet)).thenThrow(new WriteBufferFullException("full"));
+            ResponseEntity<Pet> entity = petController.save(pet);
+            //then
+            assertEquals(HttpStatus.TOO_MANY_REQUESTS, entity.getStatusCode());
+        }
+
+        @Test
+        void closedBufferShouldBeServiceUnavailable() throws Exception {
+            //given
+            Pet pet = new Pet("abc123", "Lucy", 6);
+            //when
+            when(petServiceMock.isWriteBehindEnabled()).thenReturn(true);
+            when(petServiceMock.enqueuePet(pet)).thenThrow(new WriteBufferClosedException("closed"));
+            ResponseEntity<Pet> entity = petController.save(pet);
+            //then
+            assertEquals(HttpStatus.SERVICE_UNAVAILABLE, entity.getStatusCode());
+        }
+
+        @Test
+        void failedFlushShouldBeServiceUnavailable() throws Exception {
+            //given
+            Pet pet = new Pet("abc123", "Lucy", 6);
+            //when
+            when(petServiceMock.isWriteBehindEnabled()).thenReturn(true);
+            when(petServiceMock.isWriteBehindAwaitFlush()).thenReturn(true);
+            when(petServiceMock.enqueuePet(pet)).thenReturn(
+                    CompletableFuture.failedFuture(new IllegalStateException("Pet abc123 was not written")));
+            ResponseEntity<Pet> entity = petController.save(pet);
+            //then
+            assertEquals(HttpStatus.SERVICE_UNAVAILABLE, entity.getStatusCode());
+        }
+
+        @Test
+        void conflictingFlushShouldBeAConflict() throws Exception {
+            //given
+            Pet pet = new Pet("abc123", "Lucy", 6);
+            //when
+            when(petServiceMock.isWriteBehindEnabled()).thenReturn(true);
+            when(petServiceMock.isWriteBehindAwaitFlush()).thenReturn(true);
+            when(petServiceMock.enqueuePet(pet)).thenReturn(
+                    CompletableFuture.failedFuture(new ConditionalCheckFailedException("version moved")));
+            ResponseEntity<Pet> entity = petController.save(pet);
+            //then
+            assertEquals(HttpStatus.CONFLICT, entity.getStatusCode());
+        }
+    }
+
+    @Nested
+    class IdempotentSaveMethodTests {
+        private IdempotencyService idempotencyServiceMock;
+
+        @BeforeEach
+        void beforeMethod() {
+            idempotencyServiceMock = Mockito.mock(IdempotencyService.class);
+            petController = new PetController(petServiceMock, Mockito.mock(PetStatsService.class), idempotencyServiceMock);
+        }
+
+        @Test
+        void keyedSaveShouldRunThroughTheIdempotencyService() throws Exception {
+            //given
+            Pet pet = new Pet(null, "Lucy", 6);
+            //when
+            when(idempotencyServiceMock.execute(Mockito.eq("key-1"), Mockito.eq(pet), Mockito.any()))
+                    .thenAnswer(invocation -> invocation.<IdempotencyService.Action>getArgument(2).run(pendingWrite -> { }));
+            when(petServiceMock.savePet(pet)).thenReturn(new Pet("abc123", "LUCY", 6));
+            ResponseEntity<?> entity = petController.save(pet, "key-1");
+            //then
+            assertAll(
+                    () -> assertEquals(HttpStatus.OK, entity.getStatusCode()),
+                    () -> assertEquals("abc123", ((Pet) entity.getBody()).getId())
+            );
+        }
+
+        @Test
+        void reusedKeyShouldBeUnprocessable() throws Exception {
+            //given
+            Pet pet = new Pet(null, "Lucy", 6);
+            //when
+            when(idempotencyServiceMock.execute(Mockito.eq("key-1"), Mockito.eq(pet), Mockito.any()))
+                    .thenThrow(new IdempotencyKeyReusedException("reused"));
+            ResponseEntity<?> entity = petController.save(pet, "key-1");
+            //then
+            assertEquals(HttpStatus.UNPROCESSABLE_ENTITY, entity.getStatusCode());
+            verify(petServiceMock, never()).savePet(pet);
+        }
+
+        @Test
+        void keyInProgressShouldBeAConflict() throws Exception {
+            //given
+            Pet pet = new Pet(null, "Lucy", 6);
+            //when
+            when(idempotencyServiceMock.execute(Mockito.eq("key-1"), Mockito.eq(pet), Mockito.any()))
+                    .thenThrow(new IdempotencyKeyInProgressException("in progress"));
+            ResponseEntity<?> entity = petController.save(pet, "key-1");
+            //then
+            assertEquals(HttpStatus.CONFLICT, entity.getStatusCode());
+        }
+    }
+
+    @Nested
+    class TransactionMethodTests {
+        @Test
+        void canceledTransactionShouldBeAConflictWithReasons() throws Exception {
+            //given
+            PetTransaction transaction = new PetTransaction();
+            transaction.setClientRequestToken("token-1");
+            transaction.getItems().add(new PetTransactionItem(PetTransactionAction.DELETE, "abc123", null, 3L));
+            //when
+            when(petServiceMock.transactPets(transaction)).thenThrow(
+                    new PetTransactionCanceledException("canceled", List.of("ConditionalCheckFailed")));
+            ResponseEntity<PetTransactionResult> entity = petController.transact(transaction);
+            //then
+            assertAll(
+                    () -> assertEquals(HttpStatus.CONFLICT, entity.getStatusCode()),
+                    () -> assertEquals("token-1", entity.getBody().getClientRequestToken()),
+                    () -> assertEquals(List.of("ConditionalCheckFailed"), entity.getBody().getCancellationReasons())
+            );
+        }
+
+        @Test
+        void invalidTransactionShouldBeABadRequest() throws Exception {
+            //given
+            PetTransaction transaction = new PetTransaction();
+            //when
+            when(petServiceMock.transactPets(transaction)).thenThrow(new InvalidInputException("Transaction cannot be empty"));
+            ResponseEntity<PetTransactionResult> entity = petController.transact(transaction);
+            //then
+            assertEquals(HttpStatus.BAD_REQUEST, entity.getStatusCode());
+        }
+    }
+
     @Nested
     class FindByIdMethodTests {
 
@@ -86,13 +270,47 @@ class PetControllerTest {
             Pet pet = new Pet(id, "Lucy", 6);
             //when
             when(petServiceMock.findPetById(id)).thenReturn(pet);
-            ResponseEntity entity = petController.findById(id);
+            ResponseEntity entity = petController.findById(id, null);
             Pet returnedPet = (Pet) entity.getBody();
             //then
             verify(petServiceMock).findPetById(id);
             assertEquals(returnedPet, pet);
         }
 
+        @Test
+        void matchingIfNoneMatchShouldBeNotModified() {
+            //given
+            String id = "abc123";
+            Pet pet = new Pet(id, "Lucy", 6);
+            pet.setVersion(3L);
+            //when
+            when(petServiceMock.findPetById(id)).thenReturn(pet);
+            ResponseEntity<Pet> entity = petController.findById(id, "\"2\", W/\"3\"");
+            //then
+            assertAll(
+                    () -> assertEquals(HttpStatus.NOT_MODIFIED, entity.getStatusCode()),
+                    () -> assertEquals("\"3\"", entity.getHeaders().getETag()),
+                    () -> assertNull(entity.getBody())
+            );
+        }
+
+        @Test
+        void staleIfNoneMatchShouldReturnThePet() {
+            //given
+            String id = "abc123";
+            Pet pet = new Pet(id, "Lucy", 6);
+            pet.setVersion(4L);
+            //when
+            when(petServiceMock.findPetById(id)).thenReturn(pet);
+            ResponseEntity<Pet> entity = petController.findById(id, "\"3\"");
+            //then
+            assertAll(
+                    () -> assertEquals(HttpStatus.OK, entity.getStatusCode()),
+                    () -> assertEquals("\"4\"", entity.getHeaders().getETag()),
+                    () -> assertEquals(pet, entity.getBody())
+            );
+        }
+
         @Test
         void petsInfoStaysTheSame() throws InvalidInputException {
             //given
@@ -136,6 +354,97 @@ class PetControllerTest {
         }
     }
 
+    @Nested
+    class ContentNegotiationTests {
+
+        @Test
+        void smileShouldBeServedWhenAccepted() throws Exception {
+            //given
+            MediaType smile = MediaType.parseMediaType("application/x-jackson-smile");
+            MockMvc mockMvc = MockMvcBuilders.standaloneSetup(petController).build();
+            //when
+            when(petServiceMock.getAllPets()).thenReturn(List.of(new Pet("abc123", "LUCY", 6)));
+            byte[] body = mockMvc.perform(MockMvcRequestBuilders.get("/pets").accept(smile))
+                    .andExpect(MockMvcResultMatchers.content().contentType(smile))
+                    .andReturn().getResponse().getContentAsByteArray();
+            //then
+            List<Pet> returnedPets = new ObjectMapper(new SmileFactory()).readValue(body, new TypeReference<List<Pet>>() {});
+            assertEquals("abc123", returnedPets.get(0).getId());
+        }
+
+        @Test
+        void idempotentReplayShouldBeServedInTheAcceptedFormat() throws Exception {
+            //given a key that was first used with a JSON request
+            MediaType smile = MediaType.parseMediaType("application/x-jackson-smile");
+            InMemoryAmazonDynamoDB client = new InMemoryAmazonDynamoDB();
+            client.createTable(IdempotencyKeyStore.createTableRequest("PetIdempotencyKeys"));
+            IdempotencyService idempotencyService = new IdempotencyService(new IdempotencyKeyStore(client, "PetIdempotencyKeys"),
+                    true, Duration.ofHours(24), Duration.ofSeconds(30), 100);
+            MockMvc mockMvc = MockMvcBuilders.standaloneSetup(new PetController(petServiceMock,
+                    Mockito.mock(PetStatsService.class), idempotencyService)).build();
+            when(petServiceMock.savePet(any())).thenReturn(new Pet("abc123", "LUCY", 6));
+            mockMvc.perform(MockMvcRequestBuilders.post("/pets")
+                            .header("Idempotency-Key", "key-1")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content("{\"name\":\"Lucy\",\"age\":6}")
+                            .accept(MediaType.APPLICATION_JSON))
+                    .andExpect(MockMvcResultMatchers.content().contentType(MediaType.APPLICATION_JSON));
+            //when
+            byte[] body = mockMvc.perform(MockMvcRequestBuilders.post("/pets")
+                            .header("Idempotency-Key", "key-1")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content("{\"name\":\"Lucy\",\"age\":6}")
+                            .accept(smile))
+                    .andExpect(MockMvcResultMatchers.header().string(IdempotencyService.REPLAYED_HEADER, "true"))
+                    .andExpect(MockMvcResultMatchers.content().contentType(smile))
+                    .andReturn().getResponse().getContentAsByteArray();
+            //then
+            Pet replayedPet = new ObjectMapper(new SmileFactory()).readValue(body, Pet.class);
+            assertEquals("abc123", replayedPet.getId());
+            verify(petServiceMock).savePet(any());
+        }
+    }
+
+    @Nested
+    class FindPageMethodTests {
+
+        @Test
+        void theServicesGetPetPageMethodShouldBeCalled() throws InvalidInputException {
+            //given
+            List<Pet> pets = new ArrayList<Pet>();
+            pets.add(new Pet("abc123", "Lucy", 6));
+            PetPage page = new PetPage(pets, "cursor");
+            //when
+            when(petServiceMock.getPetPage(1, null)).thenReturn(page);
+            ResponseEntity<PetPage> entity = petController.findPage(1, null);
+            //then
+            assertEquals(page, entity.getBody());
+            verify(petServiceMock).getPetPage(1, null);
+        }
+
+        @Test
+        void invalidLimitShouldBeABadRequest() throws InvalidInputException {
+            //when
+            when(petServiceMock.getPetPage(0, null)).thenThrow(new InvalidInputException("bad limit"));
+            ResponseEntity<PetPage> entity = petController.findPage(0, null);
+            //then
+            assertEquals(HttpStatus.BAD_REQUEST, entity.getStatusCode());
+        }
+
+        @Test
+        void fieldsOrMinAgeWithALimitShouldBeABadRequest() throws InvalidInputException {
+            //when
+            ResponseEntity<PetPage> withFields = petController.findPage(1, null, List.of("id", "name"), null);
+            ResponseEntity<PetPage> withMinAge = petController.findPage(1, null, null, 3);
+            //then
+            assertAll(
+                    () -> assertEquals(HttpStatus.BAD_REQUEST, withFields.getStatusCode()),
+                    () -> assertEquals(HttpStatus.BAD_REQUEST, withMinAge.getStatusCode())
+            );
+            verify(petServiceMock, never()).getPetPage(anyInt(), any());
+        }
+    }
+
     @Nested
     class UpdateMethodTests {
         @Test
@@ -146,8 +455,7 @@ class PetControllerTest {
             Pet updatedPet = new Pet(id, "Lucy", 7);
             //when
             when(petServiceMock.updatePetInfo(id, pet)).thenReturn(updatedPet);
-            when(petServiceMock.findPetById(id)).thenReturn(pet);
-            Pet returnedPet = petController.update(id, pet).getBody();
+            Pet returnedPet = petController.update(id, pet, null).getBody();
             //then
             //Check to see if the updated pet is returned
             assertEquals(updatedPet, returnedPet);
@@ -155,6 +463,72 @@ class PetControllerTest {
             verify(petServiceMock).updatePetInfo("abc123", pet);
         }
 
+        @Test
+        void missingPetShouldBeNotFoundWithoutALookup() {
+            //given
+            String id = "abc123";
+            Pet pet = new Pet(id, "Lucy", 6);
+            //when
+            when(petServiceMock.updatePetInfo(id, pet)).thenReturn(null);
+            ResponseEntity<Pet> entity = petController.update(id, pet, null);
+            //then
+            assertEquals(HttpStatus.NOT_FOUND, entity.getStatusCode());
+            verify(petServiceMock, never()).findPetById(id);
+        }
+
+        @Test
+        void ifMatchAnyOnAMissingPetShouldBePreconditionFailed() {
+            //given
+            String id = "abc123";
+            Pet pet = new Pet(id, "Lucy", 6);
+            //when
+            when(petServiceMock.updatePetInfo(id, pet)).thenReturn(null);
+            ResponseEntity<Pet> entity = petController.update(id, pet, "*");
+            //then
+            assertEquals(HttpStatus.PRECONDITION_FAILED, entity.getStatusCode());
+        }
+
+        @Test
+        void ifMatchShouldMakeTheUpdateConditional() throws VersionMismatchException {
+            //given
+            String id = "abc123";
+            Pet pet = new Pet(id, "Lucy", 6);
+            Pet updatedPet = new Pet(id, "LUCY", 6);
+            updatedPet.setVersion(4L);
+            //when
+            when(petServiceMock.updatePetInfo(id, pet, 3L)).thenReturn(updatedPet);
+            ResponseEntity<Pet> entity = petController.update(id, pet, "\"3\"");
+            //then
+            assertAll(
+                    () -> assertEquals(HttpStatus.OK, entity.getStatusCode()),
+                    () -> assertEquals("\"4\"", entity.getHeaders().getETag())
+            );
+        }
+
+        @Test
+        void staleIfMatchShouldBePreconditionFailed() throws VersionMismatchException {
+            //given
+            String id = "abc123";
+            Pet pet = new Pet(id, "Lucy", 6);
+            //when
+            when(petServiceMock.updatePetInfo(id, pet, 3L)).thenThrow(new VersionMismatchException("stale"));
+            ResponseEntity<Pet> entity = petController.update(id, pet, "\"3\"");
+            //then
+            assertEquals(HttpStatus.PRECONDITION_FAILED, entity.getStatusCode());
+        }
+
+        @Test
+        void weakIfMatchShouldBePreconditionFailed() {
+            //given
+            String id = "abc123";
+            Pet pet = new Pet(id, "Lucy", 6);
+            //when
+            ResponseEntity<Pet> entity = petController.update(id, pet, "W/\"3\"");
+            //then
+            assertEquals(HttpStatus.PRECONDITION_FAILED, entity.getStatusCode());
+            verify(petServiceMock, never()).updatePetInfo(id, pet);
+        }
+
     }
 
     @Nested
@@ -0,0 +1,269 @@
+package com.example.dynamodbpetsdemo.idempotency;
+
+import com.example.dynamodbpetsdemo.entity.Pet;
+import com.example.dynamodbpetsdemo.exception.IdempotencyKeyInProgressException;
+import com.example.dynamodbpetsdemo.exception.IdempotencyKeyReusedException;
+import com.example.dynamodbpetsdemo.exception.InvalidInputException;
+import com.example.dynamodbpetsdemo.support.InMemoryAmazonDynamoDB;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdempotencyServiceTest {
+
+    private static final String TABLE = "PetIdempotencyKeys";
+
+    private InMemoryAmazonDynamoDB client;
+    private IdempotencyKeyStore store;
+    private final AtomicLong now = new AtomicLong(1_000_000_000_000L);
+    private final AtomicInteger saves = new AtomicInteger();
+
+    @BeforeEach
+    void beforeMethod() {
+        client = new InMemoryAmazonDynamoDB();
+        client.createTable(IdempotencyKeyStore.createTableRequest(TABLE));
+        store = new IdempotencyKeyStore(client, TABLE);
+    }
+
+    //each instance has its own in-memory cache, like separate app instances sharing the table
+    private IdempotencyService idempotencyService() {
+        return new IdempotencyService(store, Duration.ofHours(24), Duration.ofSeconds(30), 100, now::get);
+    }
+
+    private IdempotencyService.Action saveAs(String id, HttpStatus status) {
+        return pendingWrite -> {
+            saves.incrementAndGet();
+            return new ResponseEntity<>(new Pet(id, "REX", 3), status);
+        };
+    }
+
+    //a write-behind save, answered 202 before write is done
+    private IdempotencyService.Action acceptAs(String id, CompletableFuture<Pet> write) {
+        return pendingWrite -> {
+            saves.incrementAndGet();
+            pendingWrite.accept(write);
+            return new ResponseEntity<>(new Pet(id, "REX", 3), HttpStatus.ACCEPTED);
+        };
+    }
+
+    //the id of a fresh response, the JSON of a replayed one
+    private static String body(ResponseEntity<?> response) {
+        return response.getBody() instanceof Pet ? ((Pet) response.getBody()).getId() : response.getBody().toString();
+    }
+
+    //completions run on their own thread, wait until the stored key reflects the finished write
+    private void awaitStatus(String key, String status) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while(System.nanoTime() < deadline) {
+            IdempotencyRecord record = store.load(key);
+            if(status == null ? record == null : record != null && status.equals(record.getStatus())) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        fail("Idempotency-Key " + key + " never became " + status);
+    }
+
+    @Test
+    void replayReturnsTheStoredResponseWithoutSavingAgain() throws Exception {
+        //given
+        IdempotencyService service = idempotencyService();
+        service.execute("key-1", new Pet(null, "rex", 3), saveAs("generated-1", HttpStatus.OK));
+
+        //when
+        ResponseEntity<?> replayed = service.execute("key-1", new Pet(null, "rex", 3), saveAs("generated-2", HttpStatus.OK));
+
+        //then
+        assertAll(
+                () -> assertEquals(1, saves.get()),
+                () -> assertEquals(HttpStatus.OK, replayed.getStatusCode()),
+                () -> assertTrue(body(replayed).contains("\"id\":\"generated-1\"")),
+                () -> assertEquals("true", replayed.getHeaders().getFirst(IdempotencyService.REPLAYED_HEADER))
+        );
+    }
+
+    @Test
+    void replayOnAnotherInstanceComesFromTheTable() throws Exception {
+        //given
+        idempotencyService().execute("key-1", new Pet(null, "rex", 3), saveAs("generated-1", HttpStatus.ACCEPTED));
+
+        //when
+        ResponseEntity<?> replayed = idempotencyService().execute("key-1", new Pet(null, "rex", 3),
+                saveAs("generated-2", HttpStatus.OK));
+
+        //then
+        assertAll(
+                () -> assertEquals(1, saves.get()),
+                () -> assertEquals(HttpStatus.ACCEPTED, replayed.getStatusCode()),
+                () -> assertTrue(body(replayed).contains("\"id\":\"generated-1\""))
+        );
+    }
+
+    @Test
+    void replayReturnsFieldsThatAreOnlyEverSerialized() throws Exception {
+        //given
+        IdempotencyService service = idempotencyService();
+        service.execute("key-1", new Pet(null, "rex", 3), pendingWrite -> {
+            Pet saved = new Pet("generated-1", "REX", 3);
+            saved.setUpdatedAt(1234L);
+            return new ResponseEntity<>(saved, HttpStatus.OK);
+        });
+
+        //when
+        ResponseEntity<?> replayed = idempotencyService().execute("key-1", new Pet(null, "rex", 3),
+                saveAs("generated-2", HttpStatus.OK));
+
+        //then
+        assertAll(
+                () -> assertTrue(body(replayed).contains("\"updatedAt\":1234")),
+                () -> assertTrue(body(replayed).contains("\"dogAge\":21")),
+                //left to content negotiation, so a Smile or CBOR request gets its replay in that format too
+                () -> assertTrue(replayed.getBody() instanceof JsonNode),
+                () -> assertNull(replayed.getHeaders().getContentType())
+        );
+    }
+
+    @Test
+    void acceptedWriteIsOnlyStoredOnceItIsFlushed() throws Exception {
+        //given
+        IdempotencyService service = idempotencyService();
+        CompletableFuture<Pet> write = new CompletableFuture<>();
+        service.execute("key-1", new Pet(null, "rex", 3), acceptAs("generated-1", write));
+
+        //when
+        assertThrows(IdempotencyKeyInProgressException.class,
+                () -> idempotencyService().execute("key-1", new Pet(null, "rex", 3), saveAs("generated-2", HttpStatus.OK)));
+        write.complete(new Pet("generated-1", "REX", 3));
+        awaitStatus("key-1", IdempotencyRecord.COMPLETED);
+        ResponseEntity<?> replayed = idempotencyService().execute("key-1", new Pet(null, "rex", 3),
+                saveAs("generated-2", HttpStatus.OK));
+
+        //then
+        assertAll(
+                () -> assertEquals(1, saves.get()),
+                () -> assertEquals(HttpStatus.ACCEPTED, replayed.getStatusCode()),
+                () -> assertTrue(body(replayed).contains("\"id\":\"generated-1\""))
+        );
+    }
+
+    @Test
+    void failedFlushGivesTheKeyBack() throws Exception {
+        //given
+        IdempotencyService service = idempotencyService();
+        CompletableFuture<Pet> write = new CompletableFuture<>();
+        service.execute("key-1", new Pet(null, "rex", 3), acceptAs("generated-1", write));
+
+        //when
+        write.completeExceptionally(new IllegalStateException("Pet generated-1 was not written"));
+        awaitStatus("key-1", null);
+        ResponseEntity<?> retried = service.execute("key-1", new Pet(null, "rex", 3), saveAs("generated-2", HttpStatus.OK));
+
+        //then
+        assertAll(
+                () -> assertEquals(2, saves.get()),
+                () -> assertEquals("generated-2", body(retried)),
+                () -> assertNull(retried.getHeaders().getFirst(IdempotencyService.REPLAYED_HEADER))
+        );
+    }
+
+    @Test
+    void sameKeyWithAnotherBodyIsRejected() throws Exception {
+        //given
+        IdempotencyService service = idempotencyService();
+        service.execute("key-1", new Pet(null, "rex", 3), saveAs("generated-1", HttpStatus.OK));
+
+        //when //then
+        assertThrows(IdempotencyKeyReusedException.class,
+                () -> service.execute("key-1", new Pet(null, "rex", 4), saveAs("generated-2", HttpStatus.OK)));
+        assertThrows(IdempotencyKeyReusedException.class,
+                () -> idempotencyService().execute("key-1", new Pet(null, "fido", 3), saveAs("generated-3", HttpStatus.OK)));
+        assertEquals(1, saves.get());
+    }
+
+    @Test
+    void failedRequestReleasesTheKey() throws Exception {
+        //given
+        IdempotencyService service = idempotencyService();
+        service.execute("key-1", new Pet(null, "rex", 3), saveAs("generated-1", HttpStatus.TOO_MANY_REQUESTS));
+        assertThrows(IllegalStateException.class, () -> service.execute("key-1", new Pet(null, "rex", 3), pendingWrite -> {
+            throw new IllegalStateException("DynamoDB unavailable");
+        }));
+
+        //when
+        ResponseEntity<?> retried = service.execute("key-1", new Pet(null, "rex", 3), saveAs("generated-2", HttpStatus.OK));
+
+        //then
+        assertAll(
+                () -> assertEquals(2, saves.get()),
+                () -> assertEquals("generated-2", body(retried)),
+                () -> assertNull(retried.getHeaders().getFirst(IdempotencyService.REPLAYED_HEADER))
+        );
+    }
+
+    @Test
+    void keyOfARunningRequestIsInProgressUntilItsLockTimesOut() throws Exception {
+        //given
+        IdempotencyService service = idempotencyService();
+        IdempotencyRecord pending = new IdempotencyRecord("key-1", "claim-1", "hash", IdempotencyRecord.PENDING, 0, null,
+                now.get() + 30_000, now.get() / 1000 + 86_400);
+        assertTrue(store.claim(pending));
+
+        //when
+        assertThrows(IdempotencyKeyInProgressException.class,
+                () -> service.execute("key-1", new Pet(null, "rex", 3), saveAs("generated-1", HttpStatus.OK)));
+        now.addAndGet(30_000);
+        ResponseEntity<?> takenOver = service.execute("key-1", new Pet(null, "rex", 3), saveAs("generated-2", HttpStatus.OK));
+
+        //then
+        assertAll(
+                () -> assertEquals(1, saves.get()),
+                () -> assertEquals("generated-2", body(takenOver)),
+                () -> assertTrue(store.load("key-1").isCompleted()),
+                //the abandoned request can no longer store its response over the new one
+                () -> assertFalse(store.complete(pending))
+        );
+    }
+
+    @Test
+    void expiredKeyRunsAgain() throws Exception {
+        //given
+        idempotencyService().execute("key-1", new Pet(null, "rex", 3), saveAs("generated-1", HttpStatus.OK));
+        now.addAndGet(Duration.ofHours(25).toMillis());
+
+        //when
+        ResponseEntity<?> response = idempotencyService().execute("key-1", new Pet(null, "rex", 4),
+                saveAs("generated-2", HttpStatus.OK));
+
+        //then
+        assertAll(
+                () -> assertEquals(2, saves.get()),
+                () -> assertEquals("generated-2", body(response))
+        );
+    }
+
+    @Test
+    void requestsWithoutAKeyAlwaysRun() throws Exception {
+        //given
+        IdempotencyService service = idempotencyService();
+
+        //when
+        service.execute(null, new Pet(null, "rex", 3), saveAs("generated-1", HttpStatus.OK));
+        service.execute(null, new Pet(null, "rex", 3), saveAs("generated-2", HttpStatus.OK));
+        IdempotencyService.disabled().execute("key-1", new Pet(null, "rex", 3), saveAs("generated-3", HttpStatus.OK));
+
+        //then
+        assertEquals(3, saves.get());
+        assertThrows(InvalidInputException.class,
+                () -> service.execute(" ", new Pet(null, "rex", 3), saveAs("generated-4", HttpStatus.OK)));
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.dynamodbpetsdemo.metrics;
+
+import com.amazonaws.DefaultRequest;
+import com.amazonaws.Response;
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class DynamoDBMetricsTest {
+
+    private SimpleMeterRegistry registry;
+    private DynamoDBMetrics dynamoDBMetrics;
+
+    @BeforeEach
+    void beforeMethod() {
+        registry = new SimpleMeterRegistry();
+        dynamoDBMetrics = new DynamoDBMetrics(registry);
+    }
+
+    @Test
+    void consumedCapacityShouldBeRequested() {
+        GetItemRequest request = new GetItemRequest();
+        dynamoDBMetrics.beforeExecution(request);
+        assertEquals(ReturnConsumedCapacity.TOTAL.toString(), request.getReturnConsumedCapacity());
+    }
+
+    @Test
+    void consumedCapacityShouldBeCountedPerOperation() {
+        //given
+        GetItemResult result = new GetItemResult().withConsumedCapacity(new ConsumedCapacity().withCapacityUnits(0.5));
+        //when
+        dynamoDBMetrics.afterResponse(new DefaultRequest<>(new GetItemRequest(), "AmazonDynamoDBv2"), new Response<>(result, null));
+        dynamoDBMetrics.afterResponse(new DefaultRequest<>(new GetItemRequest(), "AmazonDynamoDBv2"), new Response<>(result, null));
+        //then
+        assertEquals(1.0, registry.counter("dynamodb.consumed.capacity", "operation", "GetItem").count());
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.dynamodbpetsdemo.ratelimit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptiveTokenBucketTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private AtomicLong now;
+    private AdaptiveTokenBucket bucket;
+
+    @BeforeEach
+    void beforeMethod() {
+        now = new AtomicLong();
+        //10 units per second, 1 second of burst
+        bucket = new AdaptiveTokenBucket(10, 1, 100, 1, 0.5, 2, SECOND, now::get);
+    }
+
+    @Test
+    void burstShouldBeAvailableImmediately() {
+        //when
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, bucket.reserve(1, 0));
+        }
+        //then
+        assertEquals(-1, bucket.reserve(1, 0));
+    }
+
+    @Test
+    void queuedCallersShouldWaitForTheRefill() {
+        //given
+        bucket.reserve(10, 0);
+        //when
+        long waitNanos = bucket.reserve(1, SECOND);
+        //then
+        assertEquals(SECOND / 10, waitNanos);
+    }
+
+    @Test
+    void consumedCapacityShouldBeChargedOnTopOfTheReservation() {
+        //given
+        bucket.reserve(1, 0);
+        //when a call reserved 1 unit but consumed 9
+        bucket.charge(8);
+        //then
+        assertEquals(-1, bucket.reserve(2, 0));
+        assertEquals(0, bucket.reserve(1, 0));
+    }
+
+    @Test
+    void throttlesShouldHalveTheRateAndSuccessShouldRaiseItAgain() {
+        //when
+        bucket.onThrottle();
+        bucket.onThrottle();
+        double throttledRate = bucket.getRate();
+        bucket.onSuccess();
+        double rateRightAfter = bucket.getRate();
+        now.addAndGet(SECOND);
+        bucket.onSuccess();
+        //then
+        assertAll(
+                () -> assertEquals(2.5, throttledRate),
+                () -> assertEquals(2.5, rateRightAfter),
+                () -> assertEquals(5.0, bucket.getRate())
+        );
+    }
+
+    @Test
+    void theRateShouldStayWithinItsBounds() {
+        //when
+        for (int i = 0; i < 10; i++) {
+            bucket.onThrottle();
+        }
+        //then
+        assertEquals(1, bucket.getRate());
+    }
+}
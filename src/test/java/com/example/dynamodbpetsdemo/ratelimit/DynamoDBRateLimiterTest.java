@@ -0,0 +1,66 @@
+package com.example.dynamodbpetsdemo.ratelimit;
+
+import com.amazonaws.DefaultRequest;
+import com.amazonaws.Response;
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+import com.example.dynamodbpetsdemo.config.DynamoDBRateLimitProperties;
+import com.example.dynamodbpetsdemo.exception.ThroughputLimitExceededException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DynamoDBRateLimiterTest {
+
+    private SimpleMeterRegistry registry;
+    private DynamoDBRateLimiter rateLimiter;
+
+    @BeforeEach
+    void beforeMethod() {
+        registry = new SimpleMeterRegistry();
+        DynamoDBRateLimitProperties properties = new DynamoDBRateLimitProperties();
+        properties.setEnabled(true);
+        //scans fail fast here so the test can see the scan bucket is drained without sleeping
+        properties.getScan().setMaxWait(Duration.ZERO);
+        rateLimiter = new DynamoDBRateLimiter(properties, registry);
+    }
+
+    //a full 1MB scan page
+    private void scanPage() {
+        ScanRequest request = new ScanRequest();
+        rateLimiter.beforeExecution(request);
+        ScanResult result = new ScanResult().withConsumedCapacity(new ConsumedCapacity().withCapacityUnits(128.0));
+        rateLimiter.afterResponse(new DefaultRequest<>(request, "AmazonDynamoDBv2"), new Response<>(result, null));
+    }
+
+    @Test
+    void pointReadsGetThroughWhileAScanDrainsItsBucket() {
+        //given, four pages take the 500 unit scan bucket into debt
+        for (int i = 0; i < 4; i++) {
+            scanPage();
+        }
+
+        //when
+        long started = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            rateLimiter.beforeExecution(new GetItemRequest());
+            rateLimiter.beforeExecution(new QueryRequest());
+        }
+        long elapsed = System.nanoTime() - started;
+
+        //then
+        assertAll(
+                () -> assertThrows(ThroughputLimitExceededException.class, () -> rateLimiter.beforeExecution(new ScanRequest())),
+                () -> assertEquals(0, registry.counter("dynamodb.ratelimit.rejected", "type", "read").count()),
+                () -> assertEquals(1, registry.counter("dynamodb.ratelimit.rejected", "type", "scan").count()),
+                () -> assertTrue(elapsed < Duration.ofMillis(100).toNanos(), "point reads waited " + elapsed + "ns")
+        );
+    }
+}
@@ -1,14 +1,77 @@
 package com.example.dynamodbpetsdemo.repository;
 
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBScanExpression;
+import com.amazonaws.services.dynamodbv2.datamodeling.QueryResultPage;
+import com.amazonaws.services.dynamodbv2.datamodeling.ScanResultPage;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemResult;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItem;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItemsRequest;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItemsResult;
+import com.amazonaws.services.dynamodbv2.model.TransactionCanceledException;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemResult;
+import com.example.dynamodbpetsdemo.dto.PetTransactionAction;
+import com.example.dynamodbpetsdemo.dto.PetTransactionItem;
+import com.example.dynamodbpetsdemo.entity.Pet;
+import com.example.dynamodbpetsdemo.exception.VersionMismatchException;
+import com.example.dynamodbpetsdemo.support.InMemoryAmazonDynamoDB;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
 class PetRepoTest {
 
+    private PetRepo petRepo;
+    private DynamoDBMapper mapperMock;
+    private AmazonDynamoDB clientMock;
+    private ExecutorService executor;
+
+    @BeforeEach
+    void beforeMethod() {
+        mapperMock = Mockito.mock(DynamoDBMapper.class);
+        clientMock = Mockito.mock(AmazonDynamoDB.class);
+        executor = Executors.newFixedThreadPool(2);
+        petRepo = new PetRepo(mapperMock, clientMock, executor, 3);
+    }
+
+    //a real mapper over the mocked client, for the methods that marshal items themselves
+    private PetRepo marshallingPetRepo() {
+        return new PetRepo(new DynamoDBMapper(clientMock), clientMock, executor, 3);
+    }
+
+    @AfterEach
+    void afterMethod() {
+        executor.shutdownNow();
+    }
+
     @Test
     void checkIfCorrectPetIsSaved() {
     }
@@ -21,12 +84,275 @@ class PetRepoTest {
     void findAll() {
     }
 
+    @Test
+    void findPageByNameShouldQueryTheAgeRangeInOrder() {
+        //given
+        InMemoryAmazonDynamoDB client = new InMemoryAmazonDynamoDB().withTableFor(Pet.class);
+        PetRepo inMemoryPetRepo = new PetRepo(new DynamoDBMapper(client), client, executor, 3);
+        inMemoryPetRepo.save(new Pet("a", "LUCY", 9));
+        inMemoryPetRepo.save(new Pet("b", "LUCY", 3));
+        inMemoryPetRepo.save(new Pet("c", "LUCY", 5));
+        inMemoryPetRepo.save(new Pet("d", "MAX", 4));
+        //when
+        QueryResultPage<Pet> firstPage = inMemoryPetRepo.findPageByName("LUCY", 3, 6, 1, null);
+        QueryResultPage<Pet> secondPage = inMemoryPetRepo.findPageByName("LUCY", 3, 6, 1, firstPage.getLastEvaluatedKey());
+        //then
+        assertAll(
+                () -> assertEquals("b", firstPage.getResults().get(0).getId()),
+                () -> assertEquals("c", secondPage.getResults().get(0).getId()),
+                () -> assertEquals(1, secondPage.getResults().size())
+        );
+    }
+
+    @Test
+    void findAllShouldOnlyReadTheProjectedAttributesOfMatchingPets() {
+        //given
+        InMemoryAmazonDynamoDB client = new InMemoryAmazonDynamoDB().withTableFor(Pet.class);
+        PetRepo inMemoryPetRepo = new PetRepo(new DynamoDBMapper(client), client, executor, 3);
+        inMemoryPetRepo.save(new Pet("a", "LUCY", 9));
+        inMemoryPetRepo.save(new Pet("b", "MAX", 2));
+        //when
+        List<Pet> pets = new ArrayList<>(inMemoryPetRepo.findAll(List.of("id", "name"), 3));
+        //then
+        assertAll(
+                () -> assertEquals(1, pets.size()),
+                () -> assertEquals("a", pets.get(0).getId()),
+                () -> assertEquals("LUCY", pets.get(0).getName()),
+                () -> assertEquals(0, pets.get(0).getAge())
+        );
+    }
+
+    @Test
+    void parallelScanShouldMergeEverySegment() {
+        //given one pet per segment
+        when(mapperMock.scanPage(eq(Pet.class), any(DynamoDBScanExpression.class))).thenAnswer(invocation -> {
+            DynamoDBScanExpression expression = invocation.getArgument(1);
+            ScanResultPage<Pet> page = new ScanResultPage<>();
+            page.setResults(Collections.singletonList(new Pet("pet" + expression.getSegment(), "Lucy", 6)));
+            return page;
+        });
+        //when
+        Set<String> ids;
+        try (Stream<Pet> pets = petRepo.parallelScan()) {
+            ids = pets.map(Pet::getId).collect(Collectors.toSet());
+        }
+        //then
+        assertEquals(Set.of("pet0", "pet1", "pet2"), ids);
+    }
+
+    @Test
+    void parallelScanShouldRethrowSegmentFailures() {
+        //when
+        when(mapperMock.scanPage(eq(Pet.class), any(DynamoDBScanExpression.class))).thenThrow(new IllegalStateException("boom"));
+        //then
+        try (Stream<Pet> pets = petRepo.parallelScan()) {
+            assertThrows(IllegalStateException.class, () -> pets.collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    void stalledParallelScanShouldNotStarveOtherScans() {
+        //given 20 pages per segment, more than the two threads and the page queue can hold
+        when(mapperMock.scanPage(eq(Pet.class), any(DynamoDBScanExpression.class))).thenAnswer(invocation -> {
+            DynamoDBScanExpression expression = invocation.getArgument(1);
+            Map<String, AttributeValue> startKey = expression.getExclusiveStartKey();
+            int number = startKey == null ? 0 : Integer.parseInt(startKey.get("id").getN());
+            ScanResultPage<Pet> page = new ScanResultPage<>();
+            page.setResults(Collections.singletonList(new Pet("pet" + expression.getSegment() + "-" + number, "Lucy", 6)));
+            if(number < 19) {
+                page.setLastEvaluatedKey(Map.of("id", new AttributeValue().withN(Integer.toString(number + 1))));
+            }
+            return page;
+        });
+        //when a consumer stops after one pet without closing its scan
+        Stream<Pet> stalled = petRepo.parallelScan();
+        assertNotNull(stalled.iterator().next());
+        //then
+        try (Stream<Pet> pets = petRepo.parallelScan()) {
+            assertEquals(60, assertTimeoutPreemptively(Duration.ofSeconds(5), () -> pets.count()));
+        } finally {
+            stalled.close();
+        }
+    }
+
+    @Test
+    void closedParallelScanShouldHaveNoMoreElements() {
+        //given
+        when(mapperMock.scanPage(eq(Pet.class), any(DynamoDBScanExpression.class))).thenAnswer(invocation -> {
+            ScanResultPage<Pet> page = new ScanResultPage<>();
+            page.setResults(Collections.singletonList(new Pet("pet1", "Lucy", 6)));
+            page.setLastEvaluatedKey(Map.of("id", new AttributeValue().withS("pet1")));
+            return page;
+        });
+        ParallelScan<Pet> scan = new ParallelScan<>(mapperMock, Pet.class, DynamoDBScanExpression::new, 3, executor);
+        //when the segments have filled the page queue and been parked
+        assertTrue(scan.hasNext());
+        scan.close();
+        //then
+        assertFalse(assertTimeoutPreemptively(Duration.ofSeconds(5), scan::hasNext));
+    }
+
+    @Test
+    void batchSaveShouldChunkToTheServiceLimit() {
+        //given
+        InMemoryAmazonDynamoDB client = Mockito.spy(new InMemoryAmazonDynamoDB().withTableFor(Pet.class));
+        PetRepo inMemoryPetRepo = new PetRepo(new DynamoDBMapper(client), client, executor, 3);
+        List<Pet> pets = new ArrayList<Pet>();
+        for (int i = 0; i < 250; i++) {
+            pets.add(new Pet("pet" + i, "Lucy", 6));
+        }
+        //when
+        List<String> failedIds = inMemoryPetRepo.batchSave(pets);
+        //then
+        assertTrue(failedIds.isEmpty());
+        assertEquals(250, client.itemCount(PetRepo.TABLE_NAME));
+        verify(client, times(3)).transactWriteItems(any(TransactWriteItemsRequest.class));
+    }
+
+    @Test
+    void batchSaveShouldBumpTheVersionOfAnExistingPet() {
+        //given, the ETag of GET /pets/{id} is the version
+        InMemoryAmazonDynamoDB client = new InMemoryAmazonDynamoDB().withTableFor(Pet.class);
+        PetRepo inMemoryPetRepo = new PetRepo(new DynamoDBMapper(client), client, executor, 3);
+        Pet savedPet = inMemoryPetRepo.save(new Pet("abc123", "LUCY", 6));
+        Pet newPet = new Pet(null, "MAX", 3);
+        //when
+        Pet overwrittenPet = new Pet("abc123", "LUCY", 7);
+        List<String> failedIds = inMemoryPetRepo.batchSave(List.of(overwrittenPet, newPet));
+        //then
+        assertAll(
+                () -> assertTrue(failedIds.isEmpty()),
+                () -> assertEquals(1L, savedPet.getVersion()),
+                () -> assertEquals(2L, overwrittenPet.getVersion()),
+                () -> assertEquals(2L, inMemoryPetRepo.findById("abc123").getVersion()),
+                () -> assertEquals(7, inMemoryPetRepo.findById("abc123").getAge()),
+                () -> assertNotNull(newPet.getId()),
+                () -> assertEquals(1L, inMemoryPetRepo.findById(newPet.getId()).getVersion()),
+                () -> assertEquals(3L, inMemoryPetRepo.update("abc123", new Pet(null, "LUCY", 8)).getVersion())
+        );
+    }
+
+    @Test
+    void cancelledBatchSaveShouldReturnTheIdsOfItsChunk() {
+        //given
+        TransactionCanceledException canceled = new TransactionCanceledException("canceled");
+        //when
+        when(clientMock.transactWriteItems(any(TransactWriteItemsRequest.class))).thenThrow(canceled);
+        List<String> failedIds = marshallingPetRepo().batchSave(List.of(new Pet("a", "LUCY", 6), new Pet("b", "MAX", 3)));
+        //then
+        assertEquals(List.of("a", "b"), failedIds);
+    }
+
     @Test
     void update() {
+        //given
+        Map<String, AttributeValue> item = Map.of(
+                "id", new AttributeValue().withS("abc123"),
+                "name", new AttributeValue().withS("LUCY"),
+                "age", new AttributeValue().withN("7"));
+        ArgumentCaptor<UpdateItemRequest> requestCaptor = ArgumentCaptor.forClass(UpdateItemRequest.class);
+        //when
+        when(clientMock.updateItem(requestCaptor.capture())).thenReturn(new UpdateItemResult().withAttributes(item));
+        Pet returnedPet = marshallingPetRepo().update("abc123", new Pet(null, "LUCY", 7));
+        //then
+        UpdateItemRequest request = requestCaptor.getValue();
+        assertAll(
+                () -> assertEquals("attribute_exists(id)", request.getConditionExpression()),
+                () -> assertEquals("abc123", request.getKey().get("id").getS()),
+                () -> assertEquals(7, returnedPet.getAge())
+        );
+    }
+
+    @Test
+    void updateOfMissingPetShouldReturnNull() {
+        //when
+        when(clientMock.updateItem(any(UpdateItemRequest.class))).thenThrow(new ConditionalCheckFailedException("missing"));
+        //then
+        assertNull(marshallingPetRepo().update("abc123", new Pet(null, "LUCY", 7)));
+    }
+
+    @Test
+    void versionedUpdateShouldOnlyApplyToTheExpectedVersion() throws VersionMismatchException {
+        //given
+        InMemoryAmazonDynamoDB client = new InMemoryAmazonDynamoDB().withTableFor(Pet.class);
+        PetRepo inMemoryPetRepo = new PetRepo(new DynamoDBMapper(client), client, executor, 3);
+        Pet savedPet = inMemoryPetRepo.save(new Pet("abc123", "LUCY", 6));
+        //when
+        Pet updatedPet = inMemoryPetRepo.update("abc123", new Pet(null, "LUCY", 7), savedPet.getVersion());
+        //then
+        assertAll(
+                () -> assertEquals(1L, savedPet.getVersion()),
+                () -> assertEquals(2L, updatedPet.getVersion()),
+                () -> assertThrows(VersionMismatchException.class,
+                        () -> inMemoryPetRepo.update("abc123", new Pet(null, "LUCY", 8), 1L)),
+                () -> assertNull(inMemoryPetRepo.update("missing", new Pet(null, "LUCY", 8), 1L)),
+                () -> assertEquals(3L, inMemoryPetRepo.save(new Pet("abc123", "LUCY", 9)).getVersion())
+        );
+    }
+
+    @Test
+    void transactWriteShouldSendAllItemsInOneCallWithTheToken() {
+        //given
+        List<PetTransactionItem> items = List.of(
+                new PetTransactionItem(PetTransactionAction.PUT, "a", new Pet(null, "LUCY", 6), null),
+                new PetTransactionItem(PetTransactionAction.UPDATE, "b", new Pet(null, "MAX", 3), 4L),
+                new PetTransactionItem(PetTransactionAction.DELETE, "c", null, 2L),
+                new PetTransactionItem(PetTransactionAction.CONDITION_CHECK, "d", null, null));
+        ArgumentCaptor<TransactWriteItemsRequest> requestCaptor = ArgumentCaptor.forClass(TransactWriteItemsRequest.class);
+        //when
+        when(clientMock.transactWriteItems(requestCaptor.capture())).thenReturn(new TransactWriteItemsResult());
+        marshallingPetRepo().transactWrite(items, "token-1");
+        //then
+        TransactWriteItemsRequest request = requestCaptor.getValue();
+        List<TransactWriteItem> writes = request.getTransactItems();
+        assertAll(
+                () -> assertEquals("token-1", request.getClientRequestToken()),
+                () -> assertEquals(4, writes.size()),
+                //a put creates the pet when it is missing, so it has no condition
+                () -> assertNull(writes.get(0).getUpdate().getConditionExpression()),
+                () -> assertEquals("a", writes.get(0).getUpdate().getKey().get("id").getS()),
+                () -> assertTrue(writes.get(1).getUpdate().getConditionExpression().startsWith("attribute_exists(id) AND ")),
+                () -> assertEquals("4", writes.get(1).getUpdate().getExpressionAttributeValues().get(":expectedVersion").getN()),
+                () -> assertEquals("attribute_exists(id) AND #version = :expectedVersion", writes.get(2).getDelete().getConditionExpression()),
+                () -> assertEquals("version", writes.get(2).getDelete().getExpressionAttributeNames().get("#version")),
+                () -> assertEquals("attribute_exists(id)", writes.get(3).getConditionCheck().getConditionExpression())
+        );
+    }
+
+    @Test
+    void findVersionsShouldReturnTheStoredVersionOfExistingPets() {
+        //given
+        InMemoryAmazonDynamoDB client = new InMemoryAmazonDynamoDB().withTableFor(Pet.class);
+        PetRepo inMemoryPetRepo = new PetRepo(new DynamoDBMapper(client), client, executor, 3);
+        inMemoryPetRepo.save(new Pet("a", "LUCY", 6));
+        inMemoryPetRepo.save(new Pet("a", "LUCY", 7));
+        inMemoryPetRepo.save(new Pet("b", "MAX", 3));
+        //when
+        Map<String, Long> versions = inMemoryPetRepo.findVersions(List.of("a", "b", "missing"));
+        //then
+        assertEquals(Map.of("a", 2L, "b", 1L), versions);
     }
 
     @Test
     void delete() {
+        //given
+        Map<String, AttributeValue> item = Map.of(
+                "id", new AttributeValue().withS("abc123"),
+                "name", new AttributeValue().withS("LUCY"),
+                "age", new AttributeValue().withN("6"));
+        //when
+        when(clientMock.deleteItem(any(DeleteItemRequest.class))).thenReturn(new DeleteItemResult().withAttributes(item));
+        Pet returnedPet = marshallingPetRepo().delete("abc123");
+        //then
+        assertEquals("LUCY", returnedPet.getName());
+    }
+
+    @Test
+    void deleteOfMissingPetShouldReturnNull() {
+        //when
+        when(clientMock.deleteItem(any(DeleteItemRequest.class))).thenThrow(new ConditionalCheckFailedException("missing"));
+        //then
+        assertNull(marshallingPetRepo().delete("abc123"));
     }
 
     @Test
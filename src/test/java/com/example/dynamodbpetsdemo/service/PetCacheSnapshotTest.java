@@ -0,0 +1,199 @@
+package com.example.dynamodbpetsdemo.service;
+
+import com.example.dynamodbpetsdemo.entity.Pet;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PetCacheSnapshotTest {
+
+    @TempDir
+    Path directory;
+
+    //revalidation runs on the calling thread, so its outcome is visible right after get
+    private PetCache petCache() {
+        return new PetCache(true, 100, Duration.ofMinutes(1), Runnable::run);
+    }
+
+    private static Pet pet(String id, String name, int age, Long version) {
+        Pet pet = new Pet(id, name, age);
+        pet.setVersion(version);
+        return pet;
+    }
+
+    @Test
+    void snapshotRoundTripsPetsWithNullFields() throws Exception {
+        //given
+        Path file = directory.resolve("pets.snapshot");
+        Pet expiring = pet("4", "MAX", 1, 3L);
+        expiring.setUpdatedAt(1_700_000_000_000L);
+        expiring.setExpiresAt(1_800_000_000L);
+        List<Pet> pets = List.of(pet("1", "REX", 3, 2L), pet("2", null, 0, null), pet("3", "\u00c9LODIE", 7, 1L), expiring);
+
+        //when
+        PetCacheSnapshot.write(file, pets);
+        List<Pet> read = PetCacheSnapshot.read(file, 0);
+
+        //then
+        assertEquals(pets, read);
+    }
+
+    @Test
+    void snapshotOlderThanMaxAgeIsIgnored() throws Exception {
+        //given
+        Path file = directory.resolve("pets.snapshot");
+        PetCacheSnapshot.write(file, List.of(pet("1", "REX", 3, 2L)));
+
+        //when
+        List<Pet> read = PetCacheSnapshot.read(file, System.currentTimeMillis() + 60_000);
+
+        //then
+        assertNull(read);
+    }
+
+    @Test
+    void shutdownSnapshotWarmsTheNextCache() {
+        //given
+        Path file = directory.resolve("pets.snapshot");
+        PetCache before = petCache();
+        before.put(pet("1", "REX", 3, 2L));
+        before.put(pet("2", "FIDO", 5, 1L));
+        new PetCacheSnapshot(before, file.toString(), 100, Duration.ofMinutes(15)).save();
+        PetCache after = petCache();
+        AtomicInteger loads = new AtomicInteger();
+
+        //when
+        new PetCacheSnapshot(after, file.toString(), 100, Duration.ofMinutes(15)).load();
+        Pet pet = after.get("2", id -> {
+            loads.incrementAndGet();
+            return null;
+        });
+
+        //then
+        assertAll(
+                () -> assertTrue(Files.exists(file)),
+                () -> assertEquals("FIDO", pet.getName()),
+                () -> assertEquals(0, loads.get())
+        );
+    }
+
+    @Test
+    void corruptSnapshotStartsCold() throws Exception {
+        //given
+        Path file = directory.resolve("pets.snapshot");
+        Files.write(file, new byte[] {1, 2, 3});
+        PetCache cache = petCache();
+
+        //when
+        new PetCacheSnapshot(cache, file.toString(), 100, Duration.ofMinutes(15)).load();
+
+        //then
+        assertTrue(cache.hottest(10).isEmpty());
+    }
+
+    @Test
+    void firstHitOfAWarmedPetRevalidatesItsVersion() {
+        //given
+        PetCache cache = petCache();
+        cache.warm(List.of(pet("current", "REX", 3, 2L), pet("stale", "FIDO", 5, 1L), pet("gone", "MAX", 1, 4L)));
+        Map<String, Pet> table = new HashMap<>();
+        table.put("current", pet("current", "REX", 3, 2L));
+        table.put("stale", pet("stale", "FIDO", 6, 2L));
+        AtomicInteger loads = new AtomicInteger();
+        Function<String, Pet> loader = id -> {
+            loads.incrementAndGet();
+            return table.get(id);
+        };
+
+        //when
+        Pet firstCurrent = cache.get("current", loader);
+        Pet firstStale = cache.get("stale", loader);
+        Pet firstGone = cache.get("gone", loader);
+        int loadsAfterFirstHits = loads.get();
+        Pet secondCurrent = cache.get("current", loader);
+        Pet secondStale = cache.get("stale", loader);
+        Pet secondGone = cache.get("gone", loader);
+
+        //then
+        assertAll(
+                //the snapshot pet is served while it is checked
+                () -> assertEquals(1L, firstStale.getVersion()),
+                () -> assertNotNull(firstGone),
+                () -> assertEquals(3, loadsAfterFirstHits),
+                () -> assertSame(firstCurrent, secondCurrent),
+                () -> assertEquals(2L, secondStale.getVersion()),
+                () -> assertEquals(6, secondStale.getAge()),
+                () -> assertNull(secondGone),
+                //only the gone pet had to be looked up again
+                () -> assertEquals(4, loads.get())
+        );
+    }
+
+    @Test
+    void olderStreamImageKeepsAWarmedPetUnverified() {
+        //given
+        PetCache cache = petCache();
+        cache.warm(List.of(pet("1", "REX", 3, 3L)));
+        AtomicInteger loads = new AtomicInteger();
+
+        //when
+        cache.refresh(pet("1", "REX", 2, 2L));
+        Pet pet = cache.get("1", id -> {
+            loads.incrementAndGet();
+            return pet("1", "REX", 4, 4L);
+        });
+        Pet revalidated = cache.get("1", id -> null);
+
+        //then
+        assertAll(
+                () -> assertEquals(3L, pet.getVersion()),
+                () -> assertEquals(1, loads.get()),
+                () -> assertEquals(4L, revalidated.getVersion())
+        );
+    }
+
+    @Test
+    void newerStreamImageReplacesAWarmedPet() {
+        //given
+        PetCache cache = petCache();
+        cache.warm(List.of(pet("1", "REX", 3, 3L)));
+        AtomicInteger loads = new AtomicInteger();
+
+        //when
+        cache.refresh(pet("1", "REX", 4, 4L));
+        Pet pet = cache.get("1", id -> {
+            loads.incrementAndGet();
+            return null;
+        });
+
+        //then
+        assertAll(
+                () -> assertEquals(4L, pet.getVersion()),
+                () -> assertEquals(0, loads.get())
+        );
+    }
+
+    @Test
+    void warmKeepsPetsWrittenSinceStartup() {
+        //given
+        PetCache cache = petCache();
+        cache.put(pet("1", "NEWER", 3, 5L));
+
+        //when
+        cache.warm(List.of(pet("1", "OLDER", 3, 4L)));
+        Pet pet = cache.get("1", id -> null);
+
+        //then
+        assertEquals("NEWER", pet.getName());
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.dynamodbpetsdemo.service;
+
+import com.example.dynamodbpetsdemo.entity.Pet;
+import com.example.dynamodbpetsdemo.repository.PetRepo;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PetLoadCoalescerTest {
+
+    private PetRepo petRepoMock;
+    private PetLoadCoalescer petLoadCoalescer;
+    private ExecutorService executor;
+
+    @BeforeEach
+    void beforeMethod() {
+        petRepoMock = Mockito.mock(PetRepo.class);
+        //wide window so every concurrent caller below lands in the same one
+        petLoadCoalescer = new PetLoadCoalescer(petRepoMock, true, Duration.ofMillis(200), 100);
+        executor = Executors.newFixedThreadPool(8);
+    }
+
+    @AfterEach
+    void afterMethod() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void concurrentLookupsOfOneIdShouldShareOneLoad() throws Exception {
+        //given
+        Pet pet = new Pet("abc123", "LUCY", 6);
+        //slow enough for every caller to find the load in flight
+        when(petRepoMock.findById("abc123")).thenAnswer(invocation -> {
+            Thread.sleep(100);
+            return pet;
+        });
+        //when
+        List<Pet> returnedPets = loadConcurrently(List.of("abc123", "abc123", "abc123", "abc123"));
+        //then
+        assertTrue(returnedPets.stream().allMatch(pet::equals));
+        verify(petRepoMock, times(1)).findById("abc123");
+    }
+
+    @Test
+    void distinctIdsInOneWindowShouldShareABatchLoad() throws Exception {
+        //given a load in flight, so the next one opens a window
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(petRepoMock.findById("busy")).thenAnswer(invocation -> {
+            loading.countDown();
+            release.await();
+            return new Pet("busy", "REX", 3);
+        });
+        Future<Pet> busy = executor.submit(() -> petLoadCoalescer.load("busy"));
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+        when(petRepoMock.batchLoad(anyList())).thenAnswer(invocation -> {
+            List<String> ids = invocation.getArgument(0);
+            Map<String, Pet> pets = new HashMap<>();
+            for (String id : ids) {
+                if(!id.equals("missing")) {
+                    pets.put(id, new Pet(id, "LUCY", 6));
+                }
+            }
+            return pets;
+        });
+        //when
+        List<Pet> returnedPets = loadConcurrently(List.of("a", "b", "c", "missing"));
+        //then
+        Set<String> ids = new HashSet<>();
+        for (Pet returnedPet : returnedPets) {
+            ids.add(returnedPet == null ? null : returnedPet.getId());
+        }
+        assertEquals(new HashSet<>(Arrays.asList("a", "b", "c", null)), ids);
+        verify(petRepoMock, times(1)).batchLoad(anyList());
+        verify(petRepoMock, times(1)).findById(anyString());
+        release.countDown();
+        assertEquals("busy", busy.get(5, TimeUnit.SECONDS).getId());
+    }
+
+    @Test
+    void uncontendedLookupShouldNotWaitOutTheWindow() {
+        //given
+        when(petRepoMock.findById("abc123")).thenReturn(new Pet("abc123", "LUCY", 6));
+        //when
+        long started = System.nanoTime();
+        Pet returnedPet = petLoadCoalescer.load("abc123");
+        long elapsed = System.nanoTime() - started;
+        //then
+        assertEquals("abc123", returnedPet.getId());
+        assertTrue(elapsed < Duration.ofMillis(100).toNanos(), "lookup waited " + elapsed + "ns");
+    }
+
+    @Test
+    void failedLoadsShouldReachEveryWaitingCaller() {
+        //when
+        when(petRepoMock.findById("abc123")).thenThrow(new IllegalStateException("boom"));
+        //then
+        assertThrows(IllegalStateException.class, () -> petLoadCoalescer.load("abc123"));
+    }
+
+    private List<Pet> loadConcurrently(List<String> ids) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Pet>> futures = new ArrayList<>();
+        for (String id : ids) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                return petLoadCoalescer.load(id);
+            }));
+        }
+        start.countDown();
+        List<Pet> pets = new ArrayList<>();
+        for (Future<Pet> future : futures) {
+            pets.add(future.get(5, TimeUnit.SECONDS));
+        }
+        return pets;
+    }
+}
@@ -1,7 +1,21 @@
 package com.example.dynamodbpetsdemo.service;
 
+import com.amazonaws.services.dynamodbv2.datamodeling.QueryResultPage;
+import com.amazonaws.services.dynamodbv2.datamodeling.ScanResultPage;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.CancellationReason;
+import com.amazonaws.services.dynamodbv2.model.TransactionCanceledException;
+import com.example.dynamodbpetsdemo.archive.PetArchive;
+import com.example.dynamodbpetsdemo.dto.BatchItemStatus;
+import com.example.dynamodbpetsdemo.dto.BatchResult;
+import com.example.dynamodbpetsdemo.dto.PetPage;
+import com.example.dynamodbpetsdemo.dto.PetTransaction;
+import com.example.dynamodbpetsdemo.dto.PetTransactionAction;
+import com.example.dynamodbpetsdemo.dto.PetTransactionItem;
+import com.example.dynamodbpetsdemo.dto.PetTransactionResult;
 import com.example.dynamodbpetsdemo.entity.Pet;
 import com.example.dynamodbpetsdemo.exception.InvalidInputException;
+import com.example.dynamodbpetsdemo.exception.PetTransactionCanceledException;
 import com.example.dynamodbpetsdemo.repository.PetRepo;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
@@ -12,11 +26,24 @@ import org.mockito.Captor;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -35,7 +62,12 @@ class PetServiceTest {
     @BeforeEach
     void beforeMethod() {
         petRepoMock = Mockito.mock(PetRepo.class);
-        petService = new PetService(petRepoMock);
+        petService = petService(PetCache.disabled());
+    }
+
+    private PetService petService(PetCache cache) {
+        return new PetService(petRepoMock, cache, PetWriteBuffer.disabled(), PetLoadCoalescer.disabled(petRepoMock),
+                PetArchive.none());
     }
 
     @Nested
@@ -156,6 +188,311 @@ class PetServiceTest {
                     () -> assertEquals(age3, returnedPets.get(2).getDogAge() / 7)
             );
         }
+
+        @Test
+        void expiredPetsShouldBeLeftOut() {
+            //given
+            Pet expired = new Pet("asd456", "MAX", 1);
+            expired.setExpiresAt(System.currentTimeMillis() / 1000 - 1);
+            Pet expiring = new Pet("zxc890", "ZEUS", 10);
+            expiring.setExpiresAt(System.currentTimeMillis() / 1000 + 3600);
+            //when
+            when(petRepoMock.findAll()).thenReturn(List.of(new Pet("abc123", "LUCY", 6), expired, expiring));
+            List<Pet> returnedPets = petService.getAllPets();
+            //then
+            assertEquals(List.of("abc123", "zxc890"), returnedPets.stream().map(Pet::getId).collect(Collectors.toList()));
+        }
+    }
+
+    @Nested
+    class getPetsMethodTests {
+        @Test
+        void onlyTheRequestedFieldsShouldBeReturned() throws InvalidInputException {
+            //given
+            List<Pet> pets = new ArrayList<Pet>();
+            pets.add(new Pet("abc123", null, 6));
+            //when
+            when(petRepoMock.findAll(Set.of("id", "age", "expiresAt"), 3)).thenReturn(pets);
+            List<Map<String, Object>> returnedPets = petService.getPets(List.of("id", "dogAge"), 3);
+            //then
+            assertAll(
+                    () -> assertEquals(List.of("id", "dogAge"), new ArrayList<>(returnedPets.get(0).keySet())),
+                    () -> assertEquals("abc123", returnedPets.get(0).get("id")),
+                    () -> assertEquals(42, returnedPets.get(0).get("dogAge"))
+            );
+        }
+
+        @Test
+        void unknownFieldsShouldThrowInvalidInputException() {
+            //then
+            assertThrows(InvalidInputException.class, () -> petService.getPets(List.of("id", "owner"), null));
+            verify(petRepoMock, never()).findAll(any(), any());
+        }
+    }
+
+    @Nested
+    class cachedFindByIdMethodTests {
+        private PetService cachedPetService;
+        private PetCache petCache;
+
+        @BeforeEach
+        void beforeMethod() {
+            petCache = new PetCache(true, 100, Duration.ofMinutes(1));
+            cachedPetService = petService(petCache);
+        }
+
+        @Test
+        void secondLookupShouldBeServedFromTheCache() {
+            //given
+            String id = "abc123";
+            Pet pet = new Pet(id, "Lucy", 6);
+            //when
+            when(petRepoMock.findById(id)).thenReturn(pet);
+            cachedPetService.findPetById(id);
+            Pet returnedPet = cachedPetService.findPetById(id);
+            //then
+            assertEquals(pet, returnedPet);
+            verify(petRepoMock, times(1)).findById(id);
+            assertEquals(1, petCache.stats().hitCount());
+        }
+
+        @Test
+        void deleteShouldInvalidateTheCachedPet() {
+            //given
+            String id = "abc123";
+            Pet pet = new Pet(id, "Lucy", 6);
+            //when
+            when(petRepoMock.findById(id)).thenReturn(pet);
+            when(petRepoMock.delete(id)).thenReturn(pet);
+            cachedPetService.findPetById(id);
+            cachedPetService.deletePet(id);
+            cachedPetService.findPetById(id);
+            //then
+            verify(petRepoMock, times(2)).findById(id);
+        }
+
+        @Test
+        void updateShouldRefreshTheCachedPet() {
+            //given
+            String id = "abc123";
+            Pet updatedPet = new Pet(id, "Lucy", 7);
+            //when
+            when(petRepoMock.update(id, updatedPet)).thenReturn(updatedPet);
+            cachedPetService.updatePetInfo(id, updatedPet);
+            Pet returnedPet = cachedPetService.findPetById(id);
+            //then
+            assertEquals(7, returnedPet.getAge());
+            verify(petRepoMock, times(0)).findById(id);
+        }
+    }
+
+    @Nested
+    class streamAllPetsMethodTests {
+        @Test
+        void shouldConvertTheCorrectPetAge() {
+            //given
+            Pet pet = new Pet("abc123", "Lucy", 6);
+            //when
+            when(petRepoMock.parallelScan()).thenReturn(Stream.of(pet));
+            List<Pet> returnedPets;
+            try (Stream<Pet> pets = petService.streamAllPets()) {
+                returnedPets = pets.collect(Collectors.toList());
+            }
+            //then
+            assertEquals(1, returnedPets.size());
+            assertEquals(42, returnedPets.get(0).getDogAge());
+        }
+    }
+
+    @Nested
+    class getPetPageMethodTests {
+        @Test
+        void shouldReturnACursorThatResumesTheScan() throws InvalidInputException {
+            //given
+            List<Pet> pets = new ArrayList<Pet>();
+            pets.add(new Pet("abc123", "Lucy", 6));
+            Map<String, AttributeValue> lastKey = Collections.singletonMap("id", new AttributeValue().withS("abc123"));
+            ScanResultPage<Pet> page = new ScanResultPage<>();
+            page.setResults(pets);
+            page.setLastEvaluatedKey(lastKey);
+            //when
+            when(petRepoMock.findPage(1, null)).thenReturn(page);
+            PetPage returnedPage = petService.getPetPage(1, null);
+            //then
+            assertEquals(pets, returnedPage.getItems());
+            assertEquals(lastKey, PageCursorCodec.decode(returnedPage.getNextCursor(), PetRepo.TABLE_KEY));
+        }
+
+        @Test
+        void lastPageShouldHaveNoCursor() throws InvalidInputException {
+            //given
+            ScanResultPage<Pet> page = new ScanResultPage<>();
+            page.setResults(new ArrayList<Pet>());
+            //when
+            when(petRepoMock.findPage(10, null)).thenReturn(page);
+            PetPage returnedPage = petService.getPetPage(10, null);
+            //then
+            assertNull(returnedPage.getNextCursor());
+        }
+
+        @Test
+        void shouldThrowInvalidInputExceptionForLimit() {
+            assertAll(
+                    () -> assertThrows(InvalidInputException.class, () -> petService.getPetPage(0, null)),
+                    () -> assertThrows(InvalidInputException.class, () -> petService.getPetPage(PetService.MAX_PAGE_SIZE + 1, null)),
+                    () -> assertThrows(InvalidInputException.class, () -> petService.getPetPage(10, "not a cursor"))
+            );
+        }
+
+        @Test
+        void malformedCursorsShouldThrowInvalidInputException() {
+            assertAll(
+                    () -> assertThrows(InvalidInputException.class, () -> petService.getPetPage(10, cursor("{\"id\":null}"))),
+                    () -> assertThrows(InvalidInputException.class, () -> petService.getPetPage(10, cursor("{\"id\":{\"S\":null}}"))),
+                    () -> assertThrows(InvalidInputException.class, () -> petService.getPetPage(10, cursor("{\"id\":{}}"))),
+                    () -> assertThrows(InvalidInputException.class, () -> petService.getPetPage(10, cursor("{}"))),
+                    () -> assertThrows(InvalidInputException.class, () -> petService.getPetPage(10, cursor("null"))),
+                    () -> assertThrows(InvalidInputException.class, () -> petService.getPetPage(10, cursor("{\"name\":{\"S\":\"LUCY\"}}"))),
+                    () -> assertThrows(InvalidInputException.class, () -> petService.getPetPage(10, cursor("{\"id\":{\"N\":\"abc\"}}"))),
+                    //a page cursor isn't a search cursor
+                    () -> assertThrows(InvalidInputException.class,
+                            () -> petService.searchPets("LUCY", null, null, 10, cursor("{\"id\":{\"S\":\"abc123\"}}")))
+            );
+            verify(petRepoMock, never()).findPage(anyInt(), any());
+        }
+
+        private String cursor(String json) {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Test
+        void forEachPetShouldVisitEveryPage() {
+            //given
+            Map<String, AttributeValue> lastKey = Collections.singletonMap("id", new AttributeValue().withS("abc123"));
+            ScanResultPage<Pet> firstPage = new ScanResultPage<>();
+            firstPage.setResults(Collections.singletonList(new Pet("abc123", "Lucy", 6)));
+            firstPage.setLastEvaluatedKey(lastKey);
+            ScanResultPage<Pet> secondPage = new ScanResultPage<>();
+            secondPage.setResults(Collections.singletonList(new Pet("asd456", "Max", 1)));
+            //when
+            when(petRepoMock.findPage(1, null)).thenReturn(firstPage);
+            when(petRepoMock.findPage(1, lastKey)).thenReturn(secondPage);
+            List<Pet> visited = new ArrayList<Pet>();
+            petService.forEachPet(1, visited::add);
+            //then
+            assertEquals(2, visited.size());
+            assertEquals(42, visited.get(0).getDogAge());
+        }
+    }
+
+    @Nested
+    class searchPetsMethodTests {
+        @Test
+        void shouldQueryTheIndexWithTheUpperCaseName() throws InvalidInputException {
+            //given
+            List<Pet> pets = new ArrayList<Pet>();
+            pets.add(new Pet("abc123", "LUCY", 6));
+            QueryResultPage<Pet> page = new QueryResultPage<>();
+            page.setResults(pets);
+            //when
+            when(petRepoMock.findPageByName("LUCY", 2, 8, 10, null)).thenReturn(page);
+            PetPage returnedPage = petService.searchPets("Lucy", 2, 8, 10, null);
+            //then
+            assertEquals(pets, returnedPage.getItems());
+            assertNull(returnedPage.getNextCursor());
+            assertEquals(42, returnedPage.getItems().get(0).getDogAge());
+        }
+
+        @Test
+        void expiredPetsShouldBeLeftOutOfThePage() throws InvalidInputException {
+            //given
+            Pet expired = new Pet("asd456", "LUCY", 3);
+            expired.setExpiresAt(System.currentTimeMillis() / 1000 - 1);
+            Map<String, AttributeValue> lastKey = Map.of(
+                    "id", new AttributeValue().withS("asd456"),
+                    "name", new AttributeValue().withS("LUCY"),
+                    "age", new AttributeValue().withN("3"));
+            QueryResultPage<Pet> page = new QueryResultPage<>();
+            page.setResults(List.of(new Pet("abc123", "LUCY", 6), expired));
+            page.setLastEvaluatedKey(lastKey);
+            //when
+            when(petRepoMock.findPageByName("LUCY", null, null, 2, null)).thenReturn(page);
+            PetPage returnedPage = petService.searchPets("Lucy", null, null, 2, null);
+            //then
+            assertEquals(1, returnedPage.getItems().size());
+            assertEquals(lastKey, PageCursorCodec.decode(returnedPage.getNextCursor(), PetRepo.NAME_AGE_INDEX_KEY));
+        }
+
+        @Test
+        void shouldThrowInvalidInputExceptionForBadBounds() {
+            assertAll(
+                    () -> assertThrows(InvalidInputException.class, () -> petService.searchPets(null, null, null, 10, null)),
+                    () -> assertThrows(InvalidInputException.class, () -> petService.searchPets("Lucy", 8, 2, 10, null)),
+                    () -> assertThrows(InvalidInputException.class, () -> petService.searchPets("Lucy", null, null, 0, null))
+            );
+        }
+    }
+
+    @Nested
+    class batchMethodTests {
+        @Test
+        void invalidPetsShouldBeReportedAndNotWritten() throws InvalidInputException {
+            //given
+            List<Pet> pets = new ArrayList<Pet>();
+            pets.add(new Pet(null, "Lucy", 6));
+            pets.add(new Pet("asd456", "Max", -1));
+            //when
+            when(petRepoMock.batchSave(anyList())).thenReturn(new ArrayList<String>());
+            BatchResult result = petService.savePets(pets);
+            //then
+            verify(petRepoMock).batchSave(List.of(pets.get(0)));
+            assertAll(
+                    () -> assertNotNull(pets.get(0).getId()),
+                    () -> assertEquals("LUCY", pets.get(0).getName()),
+                    () -> assertEquals(BatchItemStatus.SAVED, result.getItems().get(0).getStatus()),
+                    () -> assertEquals(BatchItemStatus.INVALID, result.getItems().get(1).getStatus()),
+                    () -> assertEquals(1, result.getFailed())
+            );
+        }
+
+        @Test
+        void unprocessedPetsShouldBeReportedAsFailed() throws InvalidInputException {
+            //given
+            List<Pet> pets = new ArrayList<Pet>();
+            pets.add(new Pet("abc123", "Lucy", 6));
+            pets.add(new Pet("asd456", "Max", 1));
+            //when
+            when(petRepoMock.batchSave(pets)).thenReturn(List.of("asd456"));
+            BatchResult result = petService.savePets(pets);
+            //then
+            assertEquals(BatchItemStatus.SAVED, result.getItems().get(0).getStatus());
+            assertEquals(BatchItemStatus.FAILED, result.getItems().get(1).getStatus());
+        }
+
+        @Test
+        void missingPetsShouldBeReportedAsNotFound() throws InvalidInputException {
+            //given
+            List<String> ids = List.of("abc123", "asd456");
+            //when
+            when(petRepoMock.batchLoad(ids)).thenReturn(Map.of("abc123", new Pet("abc123", "Lucy", 6)));
+            BatchResult result = petService.findPetsByIds(ids);
+            //then
+            assertEquals(BatchItemStatus.FOUND, result.getItems().get(0).getStatus());
+            assertEquals(42, result.getItems().get(0).getPet().getDogAge());
+            assertEquals(BatchItemStatus.NOT_FOUND, result.getItems().get(1).getStatus());
+        }
+
+        @Test
+        void shouldThrowInvalidInputExceptionForBatchSize() {
+            List<String> ids = new ArrayList<String>();
+            for (int i = 0; i <= PetService.MAX_BATCH_SIZE; i++) {
+                ids.add("id" + i);
+            }
+            assertAll(
+                    () -> assertThrows(InvalidInputException.class, () -> petService.deletePets(new ArrayList<String>())),
+                    () -> assertThrows(InvalidInputException.class, () -> petService.deletePets(ids))
+            );
+        }
     }
 
     @Nested
@@ -176,7 +513,7 @@ class PetServiceTest {
         }
 
         @Test
-        void petsInfoStaysTheSame() {
+        void petsInfoStaysTheSameApartFromTheUpperCaseName() {
             //given
             String id = "abc123";
             Pet pet = new Pet(id, "Lucy", 6);
@@ -190,12 +527,102 @@ class PetServiceTest {
             Pet capturedPet = petArgumentCaptor.getValue();
             assertAll(
                     () -> assertEquals(id, capturedPet.getId()),
-                    () -> assertEquals("Lucy", capturedPet.getName()),
+                    () -> assertEquals("LUCY", capturedPet.getName()),
                     () -> assertEquals(6, capturedPet.getAge())
             );
         }
     }
 
+    @Nested
+    class transactPetsMethodTests {
+        private PetTransaction transaction(PetTransactionItem... items) {
+            PetTransaction transaction = new PetTransaction();
+            transaction.setItems(new ArrayList<>(List.of(items)));
+            return transaction;
+        }
+
+        @Test
+        void itemsShouldBeWrittenInOneTransaction() throws Exception {
+            //given
+            PetTransaction transaction = transaction(
+                    new PetTransactionItem(PetTransactionAction.PUT, null, new Pet(null, "Lucy", 6), null),
+                    new PetTransactionItem(PetTransactionAction.UPDATE, "b", new Pet(null, "MAX", 3), 4L),
+                    new PetTransactionItem(PetTransactionAction.DELETE, "c", null, null));
+            //when
+            when(petRepoMock.findVersions(anyList())).thenAnswer(invocation ->
+                    Map.of(invocation.<List<String>>getArgument(0).get(0), 1L));
+            PetTransactionResult result = petService.transactPets(transaction);
+            //then
+            verify(petRepoMock).transactWrite(eq(transaction.getItems()), eq(result.getClientRequestToken()));
+            //only the pet written without an expected version is read back
+            verify(petRepoMock).findVersions(List.of(result.getItems().get(0).getId()));
+            assertAll(
+                    () -> assertNotNull(result.getClientRequestToken()),
+                    () -> assertNotNull(result.getItems().get(0).getId()),
+                    () -> assertEquals(result.getItems().get(0).getId(), result.getItems().get(0).getPet().getId()),
+                    () -> assertEquals("LUCY", result.getItems().get(0).getPet().getName()),
+                    () -> assertEquals(1L, result.getItems().get(0).getPet().getVersion()),
+                    () -> assertEquals(5L, result.getItems().get(1).getPet().getVersion()),
+                    () -> assertNull(result.getCancellationReasons())
+            );
+        }
+
+        @Test
+        @SuppressWarnings("unchecked")
+        void updatedNamesShouldBeStoredUpperCase() throws Exception {
+            //given
+            PetTransaction transaction = transaction(
+                    new PetTransactionItem(PetTransactionAction.UPDATE, "b", new Pet(null, "Max", 3), 4L));
+            //when
+            PetTransactionResult result = petService.transactPets(transaction);
+            //then
+            ArgumentCaptor<List<PetTransactionItem>> written = ArgumentCaptor.forClass(List.class);
+            verify(petRepoMock).transactWrite(written.capture(), eq(result.getClientRequestToken()));
+            assertEquals("MAX", written.getValue().get(0).getPet().getName());
+        }
+
+        @Test
+        void tooManyItemsShouldBeRejected() {
+            //given
+            PetTransaction transaction = new PetTransaction();
+            for (int i = 0; i <= PetRepo.MAX_TRANSACTION_ITEMS; i++) {
+                transaction.getItems().add(new PetTransactionItem(PetTransactionAction.DELETE, "pet" + i, null, null));
+            }
+            //then
+            assertThrows(InvalidInputException.class, () -> petService.transactPets(transaction));
+            verify(petRepoMock, never()).transactWrite(anyList(), any());
+        }
+
+        @Test
+        void theSamePetTwiceShouldBeRejected() {
+            //given
+            PetTransaction transaction = transaction(
+                    new PetTransactionItem(PetTransactionAction.DELETE, "a", null, null),
+                    new PetTransactionItem(PetTransactionAction.CONDITION_CHECK, "a", null, null));
+            //then
+            assertThrows(InvalidInputException.class, () -> petService.transactPets(transaction));
+        }
+
+        @Test
+        void canceledTransactionShouldReportAReasonPerItem() {
+            //given
+            PetTransaction transaction = transaction(
+                    new PetTransactionItem(PetTransactionAction.UPDATE, "a", new Pet(null, "LUCY", 6), 1L),
+                    new PetTransactionItem(PetTransactionAction.DELETE, "b", null, null));
+            transaction.setClientRequestToken("token-1");
+            TransactionCanceledException canceled = new TransactionCanceledException("canceled");
+            canceled.setCancellationReasons(List.of(
+                    new CancellationReason().withCode("ConditionalCheckFailed"),
+                    new CancellationReason().withCode("None")));
+            //when
+            Mockito.doThrow(canceled).when(petRepoMock).transactWrite(anyList(), eq("token-1"));
+            PetTransactionCanceledException e = assertThrows(PetTransactionCanceledException.class,
+                    () -> petService.transactPets(transaction));
+            //then
+            assertEquals(List.of("ConditionalCheckFailed", "None"), e.getReasons());
+        }
+    }
+
     @Test
     void theReposDeleteMethodShouldBeCalled() {
         //given
@@ -208,15 +635,4 @@ class PetServiceTest {
         assertEquals(returnedPet, deletedPet);
         verify(petRepoMock).delete(id);
     }
-
-    @Test
-    void convertToDogYearsCorrectly() {
-        assertAll(
-                () -> assertEquals(14, petService.convertToDogYears(2)),
-                () -> assertEquals(0, petService.convertToDogYears(0)),
-                () -> assertEquals(7, petService.convertToDogYears(1)),
-                () -> assertEquals(49, petService.convertToDogYears(7)),
-                () -> assertEquals(70, petService.convertToDogYears(10))
-        );
-    }
 }
\ No newline at end of file
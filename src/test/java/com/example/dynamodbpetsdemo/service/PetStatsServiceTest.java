@@ -0,0 +1,114 @@
+package com.example.dynamodbpetsdemo.service;
+
+import com.example.dynamodbpetsdemo.dto.PetStats;
+import com.example.dynamodbpetsdemo.entity.Pet;
+import com.example.dynamodbpetsdemo.repository.PetRepo;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class PetStatsServiceTest {
+
+    private PetRepo petRepoMock;
+
+    @BeforeEach
+    void beforeMethod() {
+        petRepoMock = Mockito.mock(PetRepo.class);
+    }
+
+    @Test
+    void statsShouldBeAggregatedFromAProjectedScan() {
+        //given
+        PetStatsService petStatsService = new PetStatsService(petRepoMock, Duration.ZERO, Optional.empty());
+        //when
+        when(petRepoMock.parallelScan(PetStatsService.SCAN_ATTRIBUTES)).thenReturn(Stream.of(
+                new Pet("abc123", null, 6), new Pet("asd456", null, 1), new Pet("zxc890", null, 6)));
+        PetStats stats = petStatsService.getStats();
+        //then
+        assertAll(
+                () -> assertEquals(3, stats.getCount()),
+                () -> assertEquals(1, stats.getMinAge()),
+                () -> assertEquals(6, stats.getMaxAge()),
+                () -> assertEquals(13 / 3.0, stats.getAverageAge()),
+                () -> assertEquals(13 * 7 / 3.0, stats.getAverageDogAge(), 1e-9),
+                () -> assertEquals(Map.of(1, 1L, 6, 2L), stats.getAgeHistogram())
+        );
+    }
+
+    @Test
+    void expiredPetsShouldNotBeCounted() {
+        //given
+        PetStatsService petStatsService = new PetStatsService(petRepoMock, Duration.ZERO, Optional.empty());
+        Pet expired = new Pet("asd456", null, 1);
+        expired.setExpiresAt(System.currentTimeMillis() / 1000 - 1);
+        //when
+        when(petRepoMock.parallelScan(PetStatsService.SCAN_ATTRIBUTES)).thenReturn(Stream.of(
+                new Pet("abc123", null, 6), expired));
+        PetStats stats = petStatsService.getStats();
+        //then
+        assertAll(
+                () -> assertEquals(1, stats.getCount()),
+                () -> assertEquals(Map.of(6, 1L), stats.getAgeHistogram())
+        );
+    }
+
+    @Test
+    void statsShouldBeReusedWithinTheTtl() {
+        //given
+        PetStatsService petStatsService = new PetStatsService(petRepoMock, Duration.ofMinutes(1), Optional.empty());
+        //when
+        when(petRepoMock.parallelScan(PetStatsService.SCAN_ATTRIBUTES)).thenAnswer(invocation -> Stream.of(new Pet("abc123", null, 6)));
+        PetStats first = petStatsService.getStats();
+        PetStats second = petStatsService.getStats();
+        //then
+        assertSame(first, second);
+        verify(petRepoMock, times(1)).parallelScan(PetStatsService.SCAN_ATTRIBUTES);
+    }
+
+    @Test
+    void emptyTableShouldHaveNoAges() {
+        //given
+        PetStatsService petStatsService = new PetStatsService(petRepoMock, Duration.ZERO, Optional.empty());
+        //when
+        when(petRepoMock.parallelScan(PetStatsService.SCAN_ATTRIBUTES)).thenReturn(Stream.empty());
+        PetStats stats = petStatsService.getStats();
+        //then
+        assertAll(
+                () -> assertEquals(0, stats.getCount()),
+                () -> assertNull(stats.getMinAge()),
+                () -> assertNull(stats.getAverageAge())
+        );
+    }
+
+    @Test
+    void removingTheOldestPetShouldMoveTheMaxAge() {
+        //given
+        PetStatsAccumulator accumulator = new PetStatsAccumulator();
+        accumulator.add(3);
+        accumulator.add(9);
+        //when
+        accumulator.remove(9);
+        accumulator.remove(42);
+        PetStats stats = accumulator.toStats();
+        //then
+        assertAll(
+                () -> assertEquals(1, stats.getCount()),
+                () -> assertEquals(3, stats.getMaxAge()),
+                () -> assertEquals(3.0, stats.getAverageAge())
+        );
+    }
+}
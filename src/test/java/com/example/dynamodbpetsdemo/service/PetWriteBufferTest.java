@@ -0,0 +1,131 @@
+package com.example.dynamodbpetsdemo.service;
+
+import com.example.dynamodbpetsdemo.entity.Pet;
+import com.example.dynamodbpetsdemo.exception.WriteBufferClosedException;
+import com.example.dynamodbpetsdemo.exception.WriteBufferFullException;
+import com.example.dynamodbpetsdemo.repository.PetRepo;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class PetWriteBufferTest {
+
+    private PetRepo petRepoMock;
+    private PetWriteBuffer petWriteBuffer;
+
+    @BeforeEach
+    void beforeMethod() {
+        petRepoMock = Mockito.mock(PetRepo.class);
+    }
+
+    @AfterEach
+    void afterMethod() throws InterruptedException {
+        petWriteBuffer.shutdown();
+    }
+
+    @Test
+    void queuedPetsShouldBeWrittenInBatches() throws Exception {
+        //given
+        petWriteBuffer = new PetWriteBuffer(petRepoMock, true, false, 100, 25, Duration.ofMillis(20));
+        //when
+        when(petRepoMock.batchSave(anyList())).thenReturn(new ArrayList<String>());
+        List<CompletableFuture<Pet>> futures = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            futures.add(petWriteBuffer.enqueue(new Pet("pet" + i, "LUCY", 6)));
+        }
+        //then
+        for (CompletableFuture<Pet> future : futures) {
+            assertNotNull(future.get(5, TimeUnit.SECONDS));
+        }
+        verify(petRepoMock, atLeastOnce()).batchSave(anyList());
+    }
+
+    @Test
+    void unprocessedPetsShouldFailTheirFuture() throws Exception {
+        //given
+        petWriteBuffer = new PetWriteBuffer(petRepoMock, true, false, 100, 25, Duration.ofMillis(20));
+        //when
+        when(petRepoMock.batchSave(anyList())).thenReturn(List.of("pet0"));
+        CompletableFuture<Pet> future = petWriteBuffer.enqueue(new Pet("pet0", "LUCY", 6));
+        //then
+        assertThrows(Exception.class, () -> future.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void fullQueueShouldThrowWriteBufferFullException() throws Exception {
+        //given a flusher that is stuck writing the first pet
+        petWriteBuffer = new PetWriteBuffer(petRepoMock, true, false, 1, 25, Duration.ofMillis(1));
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(petRepoMock.batchSave(anyList())).thenAnswer(invocation -> {
+            writing.countDown();
+            release.await();
+            return new ArrayList<String>();
+        });
+        //when
+        petWriteBuffer.enqueue(new Pet("pet0", "LUCY", 6));
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+        petWriteBuffer.enqueue(new Pet("pet1", "LUCY", 6));
+        //then
+        assertThrows(WriteBufferFullException.class, () -> petWriteBuffer.enqueue(new Pet("pet2", "LUCY", 6)));
+        release.countDown();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void petSavedTwiceInABatchShouldBeWrittenOnceAsItsLastSave() throws Exception {
+        //given a flusher that waits for all three pets before writing
+        petWriteBuffer = new PetWriteBuffer(petRepoMock, true, false, 100, 3, Duration.ofSeconds(5));
+        //batchSave sets the version it wrote on each pet
+        when(petRepoMock.batchSave(anyList())).thenAnswer(invocation -> {
+            for (Pet pet : invocation.<List<Pet>>getArgument(0)) {
+                pet.setVersion(4L);
+            }
+            return new ArrayList<String>();
+        });
+        //when
+        CompletableFuture<Pet> first = petWriteBuffer.enqueue(new Pet("pet0", "LUCY", 6));
+        petWriteBuffer.enqueue(new Pet("pet1", "REX", 3));
+        CompletableFuture<Pet> second = petWriteBuffer.enqueue(new Pet("pet0", "LUCY", 7));
+        Pet secondPet = second.get(5, TimeUnit.SECONDS);
+        //then
+        ArgumentCaptor<List<Pet>> written = ArgumentCaptor.forClass(List.class);
+        verify(petRepoMock).batchSave(written.capture());
+        assertAll(
+                () -> assertEquals(2, written.getValue().size()),
+                () -> assertEquals(7, written.getValue().get(0).getAge()),
+                () -> assertEquals(4L, secondPet.getVersion()),
+                //the earlier save answers with what ended up stored
+                () -> assertEquals(7, first.getNow(null).getAge()),
+                () -> assertEquals(4L, first.getNow(null).getVersion())
+        );
+    }
+
+    @Test
+    void enqueueAfterShutdownShouldThrowWriteBufferClosedException() throws Exception {
+        //given
+        petWriteBuffer = new PetWriteBuffer(petRepoMock, true, false, 100, 25, Duration.ofMillis(20));
+        //when
+        petWriteBuffer.shutdown();
+        //then
+        assertThrows(WriteBufferClosedException.class, () -> petWriteBuffer.enqueue(new Pet("pet0", "LUCY", 6)));
+    }
+}
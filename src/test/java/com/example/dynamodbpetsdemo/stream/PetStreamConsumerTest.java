@@ -0,0 +1,187 @@
+package com.example.dynamodbpetsdemo.stream;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBStreams;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.DescribeStreamRequest;
+import com.amazonaws.services.dynamodbv2.model.DescribeStreamResult;
+import com.amazonaws.services.dynamodbv2.model.DescribeTableResult;
+import com.amazonaws.services.dynamodbv2.model.GetRecordsRequest;
+import com.amazonaws.services.dynamodbv2.model.GetRecordsResult;
+import com.amazonaws.services.dynamodbv2.model.GetShardIteratorRequest;
+import com.amazonaws.services.dynamodbv2.model.GetShardIteratorResult;
+import com.amazonaws.services.dynamodbv2.model.Record;
+import com.amazonaws.services.dynamodbv2.model.Shard;
+import com.amazonaws.services.dynamodbv2.model.StreamDescription;
+import com.amazonaws.services.dynamodbv2.model.StreamRecord;
+import com.amazonaws.services.dynamodbv2.model.StreamViewType;
+import com.amazonaws.services.dynamodbv2.model.TableDescription;
+import com.example.dynamodbpetsdemo.dto.PetStats;
+import com.example.dynamodbpetsdemo.entity.Pet;
+import com.example.dynamodbpetsdemo.repository.PetRepo;
+import com.example.dynamodbpetsdemo.service.PetCache;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+class PetStreamConsumerTest {
+
+    private static final String STREAM_ARN = "arn:aws:dynamodb:local:000000000000:table/Pets/stream/1";
+
+    @TempDir
+    Path checkpointDirectory;
+
+    private AmazonDynamoDB clientMock;
+    private AmazonDynamoDBStreams streamsMock;
+    private PetRepo petRepoMock;
+    private PetCache petCache;
+    private PetStreamConsumer petStreamConsumer;
+
+    @BeforeEach
+    void beforeMethod() {
+        clientMock = Mockito.mock(AmazonDynamoDB.class);
+        streamsMock = Mockito.mock(AmazonDynamoDBStreams.class);
+        petRepoMock = Mockito.mock(PetRepo.class);
+        petCache = new PetCache(true, 100, Duration.ofMinutes(1));
+
+        when(clientMock.describeTable(PetRepo.TABLE_NAME)).thenReturn(new DescribeTableResult()
+                .withTable(new TableDescription().withLatestStreamArn(STREAM_ARN)));
+        when(streamsMock.describeStream(any(DescribeStreamRequest.class))).thenReturn(new DescribeStreamResult()
+                .withStreamDescription(new StreamDescription()
+                        .withStreamViewType(StreamViewType.NEW_AND_OLD_IMAGES)
+                        .withShards(new Shard().withShardId("shard-1"))));
+        when(streamsMock.getShardIterator(any(GetShardIteratorRequest.class)))
+                .thenReturn(new GetShardIteratorResult().withShardIterator("iterator-0"));
+    }
+
+    @AfterEach
+    void afterMethod() throws InterruptedException {
+        if(petStreamConsumer != null) {
+            petStreamConsumer.shutdown();
+        }
+    }
+
+    @Test
+    void recordsShouldUpdateTheCacheAndTheStatistics() throws InterruptedException {
+        //given one pet seeded by the scan, then changed and a second one inserted elsewhere
+        Pet cachedPet = new Pet("a", "LUCY", 3);
+        petCache.put(cachedPet);
+        when(petRepoMock.parallelScan(List.of("age"))).thenReturn(Stream.of(cachedPet));
+        when(streamsMock.getRecords(any(GetRecordsRequest.class)))
+                .thenReturn(new GetRecordsResult().withNextShardIterator("iterator-1").withRecords(
+                        record("1", "MODIFY", item("a", "LUCY", 3), item("a", "LUCY", 5)),
+                        record("2", "INSERT", null, item("b", "MAX", 9))))
+                .thenReturn(new GetRecordsResult().withNextShardIterator("iterator-2"));
+        //when
+        petStreamConsumer = consumer();
+        petStreamConsumer.start();
+        PetStats stats = awaitCount(2);
+        //then
+        assertAll(
+                () -> assertEquals(5, stats.getMinAge()),
+                () -> assertEquals(9, stats.getMaxAge()),
+                () -> assertEquals(5, petCache.get("a", id -> null).getAge()),
+                () -> assertNull(petCache.get("b", id -> null))
+        );
+    }
+
+    @Test
+    void olderImagesShouldNotReplaceANewerCachedPet() throws InterruptedException {
+        //given a pet at version 3 in the cache, written on this node after the stream records below
+        Pet cachedPet = new Pet("a", "LUCY", 7);
+        cachedPet.setVersion(3L);
+        petCache.put(cachedPet);
+        when(petRepoMock.parallelScan(List.of("age"))).thenReturn(Stream.of(new Pet("a", "LUCY", 3)));
+        when(streamsMock.getRecords(any(GetRecordsRequest.class)))
+                .thenReturn(new GetRecordsResult().withNextShardIterator("iterator-1").withRecords(
+                        record("1", "MODIFY", item("a", "LUCY", 3, 1), item("a", "LUCY", 4, 2)),
+                        record("2", "INSERT", null, item("b", "MAX", 9))))
+                .thenReturn(new GetRecordsResult().withNextShardIterator("iterator-2"));
+        //when
+        petStreamConsumer = consumer();
+        petStreamConsumer.start();
+        awaitCount(2);
+        //then
+        Pet pet = petCache.get("a", id -> null);
+        assertAll(
+                () -> assertEquals(3L, pet.getVersion()),
+                () -> assertEquals(7, pet.getAge())
+        );
+    }
+
+    @Test
+    void restartsShouldResumeFromTheCheckpointWithoutAScan() throws InterruptedException {
+        //given a first run that saw a single pet
+        when(petRepoMock.parallelScan(List.of("age"))).thenReturn(Stream.of(new Pet("a", "LUCY", 3)));
+        when(streamsMock.getRecords(any(GetRecordsRequest.class)))
+                .thenReturn(new GetRecordsResult().withNextShardIterator("iterator-1").withRecords(
+                        record("1", "INSERT", null, item("b", "MAX", 9))))
+                .thenReturn(new GetRecordsResult().withNextShardIterator("iterator-1"));
+        petStreamConsumer = consumer();
+        petStreamConsumer.start();
+        awaitCount(2);
+        petStreamConsumer.shutdown();
+        //when the pet seeded by the first scan is removed while the node restarts
+        when(streamsMock.getRecords(any(GetRecordsRequest.class)))
+                .thenReturn(new GetRecordsResult().withNextShardIterator("iterator-2").withRecords(
+                        record("2", "REMOVE", item("a", "LUCY", 3), null)))
+                .thenReturn(new GetRecordsResult().withNextShardIterator("iterator-2"));
+        petStreamConsumer = consumer();
+        petStreamConsumer.start();
+        PetStats stats = awaitCount(1);
+        //then
+        assertEquals(9, stats.getMinAge());
+        Mockito.verify(petRepoMock, Mockito.times(1)).parallelScan(List.of("age"));
+    }
+
+    private PetStreamConsumer consumer() {
+        return new PetStreamConsumer(clientMock, streamsMock, new DynamoDBMapper(clientMock), petRepoMock, petCache,
+                checkpointDirectory.resolve("pets-stream.checkpoint").toString(), Duration.ofMillis(10), 100);
+    }
+
+    private PetStats awaitCount(long count) throws InterruptedException {
+        for (int i = 0; i < 500; i++) {
+            if(petStreamConsumer.isReady() && petStreamConsumer.currentStats().getCount() == count) {
+                return petStreamConsumer.currentStats();
+            }
+            Thread.sleep(10);
+        }
+        fail("Stream consumer never reached " + count + " pets");
+        return null;
+    }
+
+    private static Record record(String sequenceNumber, String eventName,
+                                 Map<String, AttributeValue> oldImage, Map<String, AttributeValue> newImage) {
+        Map<String, AttributeValue> image = newImage != null ? newImage : oldImage;
+        return new Record().withEventName(eventName).withDynamodb(new StreamRecord()
+                .withSequenceNumber(sequenceNumber)
+                .withKeys(Map.of("id", image.get("id")))
+                .withOldImage(oldImage)
+                .withNewImage(newImage));
+    }
+
+    private static Map<String, AttributeValue> item(String id, String name, int age) {
+        return item(id, name, age, 1);
+    }
+
+    private static Map<String, AttributeValue> item(String id, String name, int age, long version) {
+        return Map.of(
+                "id", new AttributeValue().withS(id),
+                "name", new AttributeValue().withS(name),
+                "age", new AttributeValue().withN(Integer.toString(age)),
+                "version", new AttributeValue().withN(Long.toString(version)));
+    }
+}
@@ -0,0 +1,284 @@
+package com.example.dynamodbpetsdemo.transfer;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.example.dynamodbpetsdemo.dto.PetTransferResult;
+import com.example.dynamodbpetsdemo.entity.Pet;
+import com.example.dynamodbpetsdemo.repository.PetRepo;
+import com.example.dynamodbpetsdemo.service.PetCache;
+import com.example.dynamodbpetsdemo.support.InMemoryAmazonDynamoDB;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PetTransferServiceTest {
+
+    @TempDir
+    Path directory;
+
+    private ExecutorService executor;
+    private PetRepo sourceRepo;
+    private PetRepo targetRepo;
+
+    @BeforeEach
+    void beforeMethod() {
+        executor = Executors.newFixedThreadPool(4);
+        sourceRepo = petRepo();
+        targetRepo = petRepo();
+    }
+
+    @AfterEach
+    void afterMethod() {
+        executor.shutdownNow();
+    }
+
+    private PetRepo petRepo() {
+        InMemoryAmazonDynamoDB client = new InMemoryAmazonDynamoDB().withTableFor(Pet.class);
+        return new PetRepo(new DynamoDBMapper(client), client, executor, 3);
+    }
+
+    //small chunks so a handful of pets already spans several chunks and writers
+    private PetTransferService transferService(PetRepo petRepo) {
+        return new PetTransferService(petRepo, PetCache.disabled(), 4, 2, Duration.ofMinutes(1));
+    }
+
+    private void seed(int count) {
+        for (int i = 0; i < count; i++) {
+            sourceRepo.save(new Pet("pet" + i, "PET" + i, i % 20));
+        }
+    }
+
+    private Map<String, Pet> petsById(PetRepo petRepo) {
+        return petRepo.findAll().stream().collect(Collectors.toMap(Pet::getId, Function.identity()));
+    }
+
+    @Test
+    void gzipNdjsonExportImportsIntoAnEmptyTable() throws Exception {
+        //given
+        seed(30);
+        Path file = directory.resolve("pets.ndjson.gz");
+
+        //when
+        PetTransferResult exported = transferService(sourceRepo).exportToFile(file, PetTransferFormat.NDJSON);
+        PetTransferResult imported = transferService(targetRepo).importFromFile(file, PetTransferFormat.NDJSON,
+                directory.resolve("import.checkpoint"));
+
+        //then
+        try (InputStream in = Files.newInputStream(file)) {
+            assertEquals(0x1f, in.read());
+            assertEquals(0x8b, in.read());
+        }
+        Map<String, Pet> source = petsById(sourceRepo);
+        Map<String, Pet> target = petsById(targetRepo);
+        assertAll(
+                () -> assertEquals(30, exported.getPets()),
+                () -> assertEquals(30, imported.getPets()),
+                () -> assertEquals(0, imported.getFailed()),
+                () -> assertEquals(source.keySet(), target.keySet()),
+                () -> assertEquals(source.get("pet7").getName(), target.get("pet7").getName()),
+                () -> assertEquals(source.get("pet7").getAge(), target.get("pet7").getAge()),
+                () -> assertFalse(Files.exists(directory.resolve("import.checkpoint")))
+        );
+    }
+
+    @Test
+    void csvKeepsNamesWithCommasQuotesAndLineBreaks() throws Exception {
+        //given
+        sourceRepo.save(new Pet("quoted", "REX, \"THE\"\nDOG", 4));
+        sourceRepo.save(new Pet("plain", "FIDO", 2));
+        Path file = directory.resolve("pets.csv");
+
+        //when
+        transferService(sourceRepo).exportToFile(file, PetTransferFormat.CSV);
+        PetTransferResult imported = transferService(targetRepo).importFromFile(file, PetTransferFormat.CSV,
+                directory.resolve("import.checkpoint"));
+
+        //then
+        Map<String, Pet> target = petsById(targetRepo);
+        assertAll(
+                () -> assertTrue(Files.readAllLines(file).get(0).startsWith("id,name,age,version")),
+                () -> assertEquals(2, imported.getPets()),
+                () -> assertEquals("REX, \"THE\"\nDOG", target.get("quoted").getName()),
+                () -> assertEquals(4, target.get("quoted").getAge()),
+                () -> assertEquals("FIDO", target.get("plain").getName())
+        );
+    }
+
+    @Test
+    void exportToStreamWritesOnePetPerLine() throws Exception {
+        //given
+        seed(5);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        //when
+        PetTransferResult result = transferService(sourceRepo).export(out, PetTransferFormat.NDJSON);
+
+        //then
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertAll(
+                () -> assertEquals(5, result.getPets()),
+                () -> assertEquals(5, lines.length),
+                () -> assertTrue(lines[0].startsWith("{"))
+        );
+    }
+
+    @Test
+    void importResumesAfterTheCheckpointedRecords() throws Exception {
+        //given
+        seed(25);
+        Path file = directory.resolve("pets.ndjson");
+        Path checkpointFile = directory.resolve("import.checkpoint");
+        transferService(sourceRepo).exportToFile(file, PetTransferFormat.NDJSON);
+        PetImportCheckpoint checkpoint = new PetImportCheckpoint(file.toAbsolutePath().normalize().toString());
+        checkpoint.advance(10, 10, 0, List.of(), List.of());
+        checkpoint.save(checkpointFile);
+
+        //when
+        PetTransferResult result = transferService(targetRepo).importFromFile(file, PetTransferFormat.NDJSON, checkpointFile);
+
+        //then
+        assertAll(
+                () -> assertEquals(10, result.getResumedAfter()),
+                () -> assertEquals(15, result.getPets()),
+                () -> assertEquals(15, petsById(targetRepo).size()),
+                () -> assertFalse(Files.exists(checkpointFile))
+        );
+    }
+
+    @Test
+    void importIgnoresACheckpointOfAnotherFile() throws Exception {
+        //given
+        seed(6);
+        Path file = directory.resolve("pets.ndjson");
+        Path checkpointFile = directory.resolve("import.checkpoint");
+        transferService(sourceRepo).exportToFile(file, PetTransferFormat.NDJSON);
+        PetImportCheckpoint checkpoint = new PetImportCheckpoint(directory.resolve("other.ndjson").toString());
+        checkpoint.advance(4, 4, 0, List.of(), List.of());
+        checkpoint.save(checkpointFile);
+
+        //when
+        PetTransferResult result = transferService(targetRepo).importFromFile(file, PetTransferFormat.NDJSON, checkpointFile);
+
+        //then
+        assertAll(
+                () -> assertEquals(0, result.getResumedAfter()),
+                () -> assertEquals(6, result.getPets())
+        );
+    }
+
+    @Test
+    void importCountsInvalidRecordsWithoutWritingThem() throws Exception {
+        //given
+        Path file = directory.resolve("pets.ndjson");
+        Files.writeString(file, "{\"id\":\"a\",\"name\":\"REX\",\"age\":3}\n"
+                + "{\"id\":\"b\",\"age\":3}\n"
+                + "\n"
+                + "{\"id\":\"c\",\"name\":\"FIDO\",\"age\":-1}\n"
+                + "{\"name\":\"NOID\",\"age\":1}\n");
+
+        //when
+        PetTransferResult result = transferService(targetRepo).importFromFile(file, PetTransferFormat.NDJSON,
+                directory.resolve("import.checkpoint"));
+
+        //then
+        Map<String, Pet> target = petsById(targetRepo);
+        assertAll(
+                () -> assertEquals(2, result.getPets()),
+                () -> assertEquals(2, result.getInvalid()),
+                () -> assertTrue(target.containsKey("a")),
+                () -> assertFalse(target.containsKey("b")),
+                () -> assertEquals(2, target.size())
+        );
+    }
+
+    @Test
+    void failedRecordsKeepTheCheckpointAndAreRetriedByTheNextRun() throws Exception {
+        //given a table that rejects pets named FLAKY once
+        Set<String> rejected = new HashSet<>();
+        InMemoryAmazonDynamoDB client = new InMemoryAmazonDynamoDB().withTableFor(Pet.class);
+        PetRepo flakyRepo = new PetRepo(new DynamoDBMapper(client), client, executor, 3) {
+            @Override
+            public List<String> batchSave(List<Pet> pets) {
+                List<Pet> accepted = new ArrayList<>();
+                List<String> failed = new ArrayList<>();
+                for (Pet pet : pets) {
+                    if(pet.getName().equals("FLAKY") && rejected.add(pet.getId())) {
+                        failed.add(pet.getId());
+                    } else {
+                        accepted.add(pet);
+                    }
+                }
+                failed.addAll(super.batchSave(accepted));
+                return failed;
+            }
+        };
+        Path file = directory.resolve("pets.ndjson");
+        Path checkpointFile = directory.resolve("import.checkpoint");
+        Files.writeString(file, "{\"name\":\"rex\",\"age\":3}\n"
+                + "{\"name\":\"flaky\",\"age\":4}\n"
+                + "{\"name\":\"fido\",\"age\":5}\n"
+                + "{\"id\":\"max\",\"name\":\"max\",\"age\":6}\n"
+                + "{\"name\":\"bella\",\"age\":7}\n");
+
+        //when
+        PetTransferResult first = transferService(flakyRepo).importFromFile(file, PetTransferFormat.NDJSON, checkpointFile);
+        boolean checkpointKept = Files.exists(checkpointFile);
+        PetTransferResult second = transferService(flakyRepo).importFromFile(file, PetTransferFormat.NDJSON, checkpointFile);
+
+        //then
+        Map<String, Pet> target = petsById(flakyRepo);
+        assertAll(
+                () -> assertEquals(4, first.getPets()),
+                () -> assertEquals(1, first.getFailed()),
+                () -> assertTrue(checkpointKept),
+                () -> assertEquals(5, second.getResumedAfter()),
+                () -> assertEquals(1, second.getPets()),
+                () -> assertEquals(0, second.getFailed()),
+                () -> assertFalse(Files.exists(checkpointFile)),
+                //ids derived from the record, so the second run added the failed pet and nothing else
+                () -> assertEquals(5, target.size()),
+                () -> assertEquals(1, target.values().stream().filter(pet -> pet.getName().equals("FLAKY")).count())
+        );
+    }
+
+    @Test
+    void importWritesARepeatedIdOnceAsItsLastRecord() throws Exception {
+        //given
+        Path file = directory.resolve("pets.ndjson");
+        Files.writeString(file, "{\"id\":\"a\",\"name\":\"rex\",\"age\":3}\n"
+                + "{\"id\":\"a\",\"name\":\"rex\",\"age\":4}\n"
+                + "{\"id\":\"b\",\"name\":\"fido\",\"age\":5}\n");
+
+        //when
+        PetTransferResult result = transferService(targetRepo).importFromFile(file, PetTransferFormat.NDJSON,
+                directory.resolve("import.checkpoint"));
+
+        //then
+        Map<String, Pet> target = petsById(targetRepo);
+        assertAll(
+                () -> assertEquals(0, result.getFailed()),
+                () -> assertEquals(2, target.size()),
+                () -> assertEquals(4, target.get("a").getAge()),
+                //uppercased like savePet, so /pets/search finds imported pets too
+                () -> assertEquals("REX", target.get("a").getName())
+        );
+    }
+}
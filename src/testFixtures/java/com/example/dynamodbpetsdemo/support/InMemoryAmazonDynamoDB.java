@@ -0,0 +1,575 @@
+package com.example.dynamodbpetsdemo.support;
+
+import com.amazonaws.services.dynamodbv2.AbstractAmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.model.*;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+//In-process stand-in for DynamoDB, good enough for benchmarks and load tests of this app.
+//Supports the operations and the small expression subset that PetRepo and DynamoDBMapper use:
+//conditions/filters made of comparisons, BETWEEN and attribute_(not_)exists joined by AND,
+//and update expressions made of SET, REMOVE and numeric ADD clauses. Everything else throws UnsupportedOperationException.
+public class InMemoryAmazonDynamoDB extends AbstractAmazonDynamoDB {
+
+    private final Map<String, Table> tables = new ConcurrentHashMap<>();
+
+    //creates the table (and indexes) the mapper would expect for an annotated class
+    public InMemoryAmazonDynamoDB withTableFor(Class<?> type) {
+        createTable(new DynamoDBMapper(this).generateCreateTableRequest(type));
+        return this;
+    }
+
+    @Override
+    public CreateTableResult createTable(CreateTableRequest request) {
+        Table table = new Table(request.getKeySchema());
+        if(request.getGlobalSecondaryIndexes() != null) {
+            for (GlobalSecondaryIndex index : request.getGlobalSecondaryIndexes()) {
+                table.indexes.put(index.getIndexName(), index.getKeySchema());
+            }
+        }
+        if(tables.putIfAbsent(request.getTableName(), table) != null) {
+            throw new ResourceInUseException("Table already exists: " + request.getTableName());
+        }
+        return new CreateTableResult().withTableDescription(new TableDescription()
+                .withTableName(request.getTableName())
+                .withKeySchema(request.getKeySchema())
+                .withTableStatus(TableStatus.ACTIVE));
+    }
+
+    @Override
+    public DescribeTableResult describeTable(DescribeTableRequest request) {
+        Table table = table(request.getTableName());
+        return new DescribeTableResult().withTable(new TableDescription()
+                .withTableName(request.getTableName())
+                .withKeySchema(table.keySchema)
+                .withItemCount((long) table.items.size())
+                .withTableStatus(TableStatus.ACTIVE));
+    }
+
+    @Override
+    public PutItemResult putItem(PutItemRequest request) {
+        Table table = table(request.getTableName());
+        Map<String, AttributeValue> item = new HashMap<>(request.getItem());
+        synchronized (table) {
+            String key = table.key(item);
+            Map<String, AttributeValue> old = table.items.get(key);
+            check(old, request.getConditionExpression(), request.getExpressionAttributeNames(),
+                    request.getExpressionAttributeValues(), request.getExpected());
+            table.items.put(key, item);
+            return new PutItemResult().withAttributes(returnValues(request.getReturnValues(), old, item));
+        }
+    }
+
+    @Override
+    public GetItemResult getItem(GetItemRequest request) {
+        Table table = table(request.getTableName());
+        Map<String, AttributeValue> item = table.items.get(table.key(request.getKey()));
+        return new GetItemResult().withItem(project(item, request.getProjectionExpression(),
+                request.getExpressionAttributeNames()));
+    }
+
+    @Override
+    public UpdateItemResult updateItem(UpdateItemRequest request) {
+        Table table = table(request.getTableName());
+        synchronized (table) {
+            String key = table.key(request.getKey());
+            Map<String, AttributeValue> old = table.items.get(key);
+            check(old, request.getConditionExpression(), request.getExpressionAttributeNames(),
+                    request.getExpressionAttributeValues(), request.getExpected());
+
+            Map<String, AttributeValue> item = old == null ? new HashMap<>(request.getKey()) : new HashMap<>(old);
+            if(request.getUpdateExpression() != null) {
+                applyUpdateExpression(item, request.getUpdateExpression(),
+                        request.getExpressionAttributeNames(), request.getExpressionAttributeValues());
+            }
+            if(request.getAttributeUpdates() != null) {
+                for (Map.Entry<String, AttributeValueUpdate> update : request.getAttributeUpdates().entrySet()) {
+                    if(AttributeAction.DELETE.toString().equals(update.getValue().getAction())) {
+                        item.remove(update.getKey());
+                    } else {
+                        item.put(update.getKey(), update.getValue().getValue());
+                    }
+                }
+            }
+            table.items.put(key, item);
+            return new UpdateItemResult().withAttributes(returnValues(request.getReturnValues(), old, item));
+        }
+    }
+
+    @Override
+    public DeleteItemResult deleteItem(DeleteItemRequest request) {
+        Table table = table(request.getTableName());
+        synchronized (table) {
+            String key = table.key(request.getKey());
+            Map<String, AttributeValue> old = table.items.get(key);
+            check(old, request.getConditionExpression(), request.getExpressionAttributeNames(),
+                    request.getExpressionAttributeValues(), request.getExpected());
+            table.items.remove(key);
+            return new DeleteItemResult().withAttributes(returnValues(request.getReturnValues(), old, null));
+        }
+    }
+
+    @Override
+    public ScanResult scan(ScanRequest request) {
+        Table table = table(request.getTableName());
+        NavigableMap<String, Map<String, AttributeValue>> range = table.items;
+        if(request.getExclusiveStartKey() != null) {
+            range = range.tailMap(table.key(request.getExclusiveStartKey()), false);
+        }
+
+        int limit = request.getLimit() == null ? Integer.MAX_VALUE : request.getLimit();
+        List<Map<String, AttributeValue>> items = new ArrayList<>();
+        int scanned = 0;
+        Map<String, AttributeValue> lastScanned = null;
+        Map<String, AttributeValue> lastEvaluatedKey = null;
+        for (Map.Entry<String, Map<String, AttributeValue>> entry : range.entrySet()) {
+            if(request.getTotalSegments() != null
+                    && Math.floorMod(entry.getKey().hashCode(), request.getTotalSegments()) != request.getSegment()) {
+                continue;
+            }
+            //the limit counts items read, before the filter, like the real service
+            if(scanned == limit) {
+                lastEvaluatedKey = table.keyOf(lastScanned);
+                break;
+            }
+            scanned++;
+            lastScanned = entry.getValue();
+            if(matches(lastScanned, request.getFilterExpression(), request.getExpressionAttributeNames(),
+                    request.getExpressionAttributeValues())) {
+                items.add(project(lastScanned, request.getProjectionExpression(), request.getExpressionAttributeNames()));
+            }
+        }
+
+        ScanResult result = new ScanResult()
+                .withCount(items.size())
+                .withScannedCount(scanned)
+                .withLastEvaluatedKey(lastEvaluatedKey);
+        if(!Select.COUNT.toString().equals(request.getSelect())) {
+            result.setItems(items);
+        }
+        return result;
+    }
+
+    //Queries a global secondary index, or the table itself when no index is named.
+    //Results are ordered by the range key, then by the table key to keep pagination stable.
+    @Override
+    public QueryResult query(QueryRequest request) {
+        Table table = table(request.getTableName());
+        List<KeySchemaElement> keySchema = request.getIndexName() == null
+                ? table.keySchema : table.indexes.get(request.getIndexName());
+        if(keySchema == null) {
+            throw new AmazonDynamoDBException("Index not found: " + request.getIndexName());
+        }
+
+        List<Map<String, AttributeValue>> candidates = new ArrayList<>();
+        for (Map<String, AttributeValue> item : table.items.values()) {
+            if(hasKeys(item, keySchema) && matches(item, request.getKeyConditionExpression(),
+                    request.getExpressionAttributeNames(), request.getExpressionAttributeValues())) {
+                candidates.add(item);
+            }
+        }
+        Comparator<Map<String, AttributeValue>> order = (a, b) -> 0;
+        if(keySchema.size() > 1) {
+            String rangeKey = keySchema.get(1).getAttributeName();
+            order = (a, b) -> Expression.compare(a.get(rangeKey), b.get(rangeKey));
+        }
+        order = order.thenComparing(table::key);
+        if(Boolean.FALSE.equals(request.getScanIndexForward())) {
+            order = order.reversed();
+        }
+        candidates.sort(order);
+
+        int start = 0;
+        if(request.getExclusiveStartKey() != null) {
+            String startKey = table.key(request.getExclusiveStartKey());
+            while(start < candidates.size() && !table.key(candidates.get(start)).equals(startKey)) {
+                start++;
+            }
+            start++;
+        }
+
+        int limit = request.getLimit() == null ? Integer.MAX_VALUE : request.getLimit();
+        List<Map<String, AttributeValue>> items = new ArrayList<>();
+        Map<String, AttributeValue> lastEvaluatedKey = null;
+        for (int i = start; i < candidates.size(); i++) {
+            if(items.size() == limit) {
+                Map<String, AttributeValue> last = candidates.get(i - 1);
+                lastEvaluatedKey = table.keyOf(last);
+                for (KeySchemaElement element : keySchema) {
+                    lastEvaluatedKey.put(element.getAttributeName(), last.get(element.getAttributeName()));
+                }
+                break;
+            }
+            Map<String, AttributeValue> item = candidates.get(i);
+            if(matches(item, request.getFilterExpression(), request.getExpressionAttributeNames(),
+                    request.getExpressionAttributeValues())) {
+                items.add(project(item, request.getProjectionExpression(), request.getExpressionAttributeNames()));
+            }
+        }
+
+        return new QueryResult()
+                .withItems(items)
+                .withCount(items.size())
+                .withScannedCount(items.size())
+                .withLastEvaluatedKey(lastEvaluatedKey);
+    }
+
+    private static boolean hasKeys(Map<String, AttributeValue> item, List<KeySchemaElement> keySchema) {
+        for (KeySchemaElement element : keySchema) {
+            if(!item.containsKey(element.getAttributeName())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public BatchWriteItemResult batchWriteItem(BatchWriteItemRequest request) {
+        for (Map.Entry<String, List<WriteRequest>> tableRequests : request.getRequestItems().entrySet()) {
+            for (WriteRequest writeRequest : tableRequests.getValue()) {
+                if(writeRequest.getPutRequest() != null) {
+                    putItem(new PutItemRequest(tableRequests.getKey(), writeRequest.getPutRequest().getItem()));
+                } else {
+                    deleteItem(new DeleteItemRequest(tableRequests.getKey(), writeRequest.getDeleteRequest().getKey()));
+                }
+            }
+        }
+        return new BatchWriteItemResult().withUnprocessedItems(Collections.emptyMap());
+    }
+
+    @Override
+    public BatchGetItemResult batchGetItem(BatchGetItemRequest request) {
+        Map<String, List<Map<String, AttributeValue>>> responses = new HashMap<>();
+        for (Map.Entry<String, KeysAndAttributes> tableRequest : request.getRequestItems().entrySet()) {
+            List<Map<String, AttributeValue>> items = new ArrayList<>();
+            for (Map<String, AttributeValue> key : tableRequest.getValue().getKeys()) {
+                Map<String, AttributeValue> item = getItem(new GetItemRequest(tableRequest.getKey(), key)).getItem();
+                if(item != null) {
+                    items.add(item);
+                }
+            }
+            responses.put(tableRequest.getKey(), items);
+        }
+        return new BatchGetItemResult().withResponses(responses).withUnprocessedKeys(Collections.emptyMap());
+    }
+
+    //all conditions are checked before anything is written, one failed condition cancels every item;
+    //only transactions on a single table are supported
+    @Override
+    public TransactWriteItemsResult transactWriteItems(TransactWriteItemsRequest request) {
+        String tableName = null;
+        for (TransactWriteItem item : request.getTransactItems()) {
+            String itemTable = item.getUpdate() != null ? item.getUpdate().getTableName()
+                    : item.getDelete() != null ? item.getDelete().getTableName()
+                    : item.getConditionCheck() != null ? item.getConditionCheck().getTableName()
+                    : null;
+            if(itemTable == null || tableName != null && !tableName.equals(itemTable)) {
+                throw new UnsupportedOperationException("Only Update, Delete and ConditionCheck on one table are supported");
+            }
+            tableName = itemTable;
+        }
+        Table table = table(tableName);
+        synchronized (table) {
+            List<CancellationReason> reasons = new ArrayList<>();
+            boolean canceled = false;
+            for (TransactWriteItem item : request.getTransactItems()) {
+                try {
+                    if(item.getUpdate() != null) {
+                        Update update = item.getUpdate();
+                        check(table.items.get(table.key(update.getKey())), update.getConditionExpression(),
+                                update.getExpressionAttributeNames(), update.getExpressionAttributeValues(), null);
+                    } else if(item.getDelete() != null) {
+                        Delete delete = item.getDelete();
+                        check(table.items.get(table.key(delete.getKey())), delete.getConditionExpression(),
+                                delete.getExpressionAttributeNames(), delete.getExpressionAttributeValues(), null);
+                    } else {
+                        ConditionCheck conditionCheck = item.getConditionCheck();
+                        check(table.items.get(table.key(conditionCheck.getKey())), conditionCheck.getConditionExpression(),
+                                conditionCheck.getExpressionAttributeNames(), conditionCheck.getExpressionAttributeValues(), null);
+                    }
+                    reasons.add(new CancellationReason().withCode("None"));
+                } catch(ConditionalCheckFailedException e) {
+                    reasons.add(new CancellationReason().withCode("ConditionalCheckFailed"));
+                    canceled = true;
+                }
+            }
+            if(canceled) {
+                TransactionCanceledException e = new TransactionCanceledException("Transaction cancelled");
+                e.setCancellationReasons(reasons);
+                throw e;
+            }
+            for (TransactWriteItem item : request.getTransactItems()) {
+                if(item.getUpdate() != null) {
+                    Update update = item.getUpdate();
+                    updateItem(new UpdateItemRequest()
+                            .withTableName(tableName)
+                            .withKey(update.getKey())
+                            .withUpdateExpression(update.getUpdateExpression())
+                            .withExpressionAttributeNames(update.getExpressionAttributeNames())
+                            .withExpressionAttributeValues(update.getExpressionAttributeValues()));
+                } else if(item.getDelete() != null) {
+                    deleteItem(new DeleteItemRequest(tableName, item.getDelete().getKey()));
+                }
+            }
+        }
+        return new TransactWriteItemsResult();
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    public int itemCount(String tableName) {
+        return table(tableName).items.size();
+    }
+
+    private Table table(String name) {
+        Table table = tables.get(name);
+        if(table == null) {
+            throw new ResourceNotFoundException("Requested resource not found: Table: " + name + " not found");
+        }
+        return table;
+    }
+
+    private static Map<String, AttributeValue> returnValues(String returnValues, Map<String, AttributeValue> old,
+                                                            Map<String, AttributeValue> current) {
+        if(ReturnValue.ALL_OLD.toString().equals(returnValues)) {
+            return old;
+        } else if(ReturnValue.ALL_NEW.toString().equals(returnValues)) {
+            return current;
+        }
+        return null;
+    }
+
+    private static void check(Map<String, AttributeValue> item, String conditionExpression, Map<String, String> names,
+                              Map<String, AttributeValue> values, Map<String, ExpectedAttributeValue> expected) {
+        if(!matches(item == null ? Collections.emptyMap() : item, conditionExpression, names, values)) {
+            throw new ConditionalCheckFailedException("The conditional request failed");
+        }
+        if(expected != null) {
+            for (Map.Entry<String, ExpectedAttributeValue> entry : expected.entrySet()) {
+                AttributeValue actual = item == null ? null : item.get(entry.getKey());
+                ExpectedAttributeValue expectation = entry.getValue();
+                boolean ok;
+                if(Boolean.FALSE.equals(expectation.getExists())) {
+                    ok = actual == null;
+                } else if(expectation.getValue() != null) {
+                    ok = expectation.getValue().equals(actual);
+                } else {
+                    ok = actual != null;
+                }
+                if(!ok) {
+                    throw new ConditionalCheckFailedException("The conditional request failed");
+                }
+            }
+        }
+    }
+
+    static boolean matches(Map<String, AttributeValue> item, String expression, Map<String, String> names,
+                           Map<String, AttributeValue> values) {
+        if(expression == null || expression.trim().isEmpty()) {
+            return true;
+        }
+        return new Expression(expression, names, values).matches(item);
+    }
+
+    private static Map<String, AttributeValue> project(Map<String, AttributeValue> item, String projection,
+                                                       Map<String, String> names) {
+        if(item == null || projection == null) {
+            return item;
+        }
+        Map<String, AttributeValue> projected = new LinkedHashMap<>();
+        for (String path : projection.split(",")) {
+            String name = Expression.name(path.trim(), names);
+            if(item.containsKey(name)) {
+                projected.put(name, item.get(name));
+            }
+        }
+        return projected;
+    }
+
+    private static void applyUpdateExpression(Map<String, AttributeValue> item, String expression,
+                                              Map<String, String> names, Map<String, AttributeValue> values) {
+        String action = null;
+        StringBuilder clause = new StringBuilder();
+        for (String token : expression.trim().split("\\s+")) {
+            if(token.equals("SET") || token.equals("REMOVE") || token.equals("ADD")) {
+                applyClause(item, action, clause.toString(), names, values);
+                action = token;
+                clause.setLength(0);
+            } else {
+                clause.append(token).append(' ');
+            }
+        }
+        applyClause(item, action, clause.toString(), names, values);
+    }
+
+    private static void applyClause(Map<String, AttributeValue> item, String action, String clause,
+                                    Map<String, String> names, Map<String, AttributeValue> values) {
+        if(action == null || clause.trim().isEmpty()) {
+            return;
+        }
+        for (String part : clause.split(",")) {
+            if(action.equals("REMOVE")) {
+                item.remove(Expression.name(part.trim(), names));
+                continue;
+            }
+            if(action.equals("ADD")) {
+                String[] operands = part.trim().split("\\s+");
+                String name = Expression.name(operands[0], names);
+                long increment = Long.parseLong(Expression.operand(operands[1], item, names, values).getN());
+                long current = item.containsKey(name) ? Long.parseLong(item.get(name).getN()) : 0;
+                item.put(name, new AttributeValue().withN(Long.toString(current + increment)));
+                continue;
+            }
+
+            String[] assignment = part.split("=", 2);
+            String name = Expression.name(assignment[0].trim(), names);
+            String[] operands = assignment[1].trim().split("\\s+");
+            AttributeValue value = Expression.operand(operands[0], item, names, values);
+            if(operands.length == 3) {
+                long left = Long.parseLong(value.getN());
+                long right = Long.parseLong(Expression.operand(operands[2], item, names, values).getN());
+                value = new AttributeValue().withN(Long.toString(operands[1].equals("+") ? left + right : left - right));
+            }
+            item.put(name, value);
+        }
+    }
+
+    private static class Table {
+        private final List<KeySchemaElement> keySchema;
+        private final Map<String, List<KeySchemaElement>> indexes = new HashMap<>();
+        private final ConcurrentSkipListMap<String, Map<String, AttributeValue>> items = new ConcurrentSkipListMap<>();
+
+        Table(List<KeySchemaElement> keySchema) {
+            this.keySchema = keySchema;
+        }
+
+        String key(Map<String, AttributeValue> item) {
+            StringBuilder key = new StringBuilder();
+            for (KeySchemaElement element : keySchema) {
+                AttributeValue value = item.get(element.getAttributeName());
+                if(value == null) {
+                    throw new AmazonDynamoDBException("Missing key attribute " + element.getAttributeName());
+                }
+                key.append(Expression.scalar(value)).append('\u0000');
+            }
+            return key.toString();
+        }
+
+        Map<String, AttributeValue> keyOf(Map<String, AttributeValue> item) {
+            Map<String, AttributeValue> key = new HashMap<>();
+            for (KeySchemaElement element : keySchema) {
+                key.put(element.getAttributeName(), item.get(element.getAttributeName()));
+            }
+            return key;
+        }
+    }
+
+    //Tiny evaluator for "a AND b AND ..." where each term is attribute_exists(p), attribute_not_exists(p),
+    //p <op> operand or p BETWEEN operand AND operand.
+    static class Expression {
+        private final String[] tokens;
+        private final Map<String, String> names;
+        private final Map<String, AttributeValue> values;
+        private int position;
+
+        Expression(String expression, Map<String, String> names, Map<String, AttributeValue> values) {
+            this.tokens = expression.replace("(", " ( ").replace(")", " ) ").trim().split("\\s+");
+            this.names = names == null ? Collections.emptyMap() : names;
+            this.values = values == null ? Collections.emptyMap() : values;
+        }
+
+        boolean matches(Map<String, AttributeValue> item) {
+            position = 0;
+            boolean result = term(item);
+            while(position < tokens.length) {
+                expect("AND");
+                result &= term(item);
+            }
+            return result;
+        }
+
+        private boolean term(Map<String, AttributeValue> item) {
+            String first = tokens[position++];
+            if(first.equals("attribute_exists") || first.equals("attribute_not_exists")) {
+                expect("(");
+                String name = name(tokens[position++], names);
+                expect(")");
+                return item.containsKey(name) == first.equals("attribute_exists");
+            }
+
+            AttributeValue left = operand(first, item, names, values);
+            String operator = tokens[position++];
+            if(operator.equals("BETWEEN")) {
+                AttributeValue low = operand(tokens[position++], item, names, values);
+                expect("AND");
+                AttributeValue high = operand(tokens[position++], item, names, values);
+                return left != null && compare(left, low) >= 0 && compare(left, high) <= 0;
+            }
+
+            AttributeValue right = operand(tokens[position++], item, names, values);
+            if(left == null || right == null) {
+                return operator.equals("<>") && (left != null || right != null);
+            }
+            int comparison = compare(left, right);
+            switch (operator) {
+                case "=": return comparison == 0;
+                case "<>": return comparison != 0;
+                case "<": return comparison < 0;
+                case "<=": return comparison <= 0;
+                case ">": return comparison > 0;
+                case ">=": return comparison >= 0;
+                default: throw new UnsupportedOperationException("Unsupported operator " + operator);
+            }
+        }
+
+        private void expect(String token) {
+            if(position >= tokens.length || !tokens[position].equals(token)) {
+                throw new UnsupportedOperationException("Unsupported expression: " + String.join(" ", tokens));
+            }
+            position++;
+        }
+
+        static String name(String path, Map<String, String> names) {
+            return path.startsWith("#") ? names.get(path) : path;
+        }
+
+        static AttributeValue operand(String token, Map<String, AttributeValue> item, Map<String, String> names,
+                                      Map<String, AttributeValue> values) {
+            if(token.startsWith(":")) {
+                return values == null ? null : values.get(token);
+            }
+            return item.get(name(token, names == null ? Collections.emptyMap() : names));
+        }
+
+        static int compare(AttributeValue left, AttributeValue right) {
+            if(left.getN() != null && right.getN() != null) {
+                return new BigDecimal(left.getN()).compareTo(new BigDecimal(right.getN()));
+            }
+            return scalar(left).compareTo(scalar(right));
+        }
+
+        static String scalar(AttributeValue value) {
+            if(value.getS() != null) {
+                return value.getS();
+            } else if(value.getN() != null) {
+                return value.getN();
+            } else if(value.getBOOL() != null) {
+                return value.getBOOL().toString();
+            }
+            throw new UnsupportedOperationException("Only scalar attributes can be compared or used as keys");
+        }
+    }
+}